@@ -0,0 +1,278 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This class provides a skeletal implementation of the
+ * <code>TreeNode</code> interface for read-only views of a tree.
+ *
+ * To implement a view, extend this class and provide
+ * <code>getChildAt</code>, <code>childCount</code>,
+ * <code>getParent</code>, <code>getKey</code> and
+ * <code>getUserObject</code>.  Everything else is derived from those.
+ *
+ * Views usually create node objects as they are navigated, so two
+ * objects may stand for the same node; subclasses must implement
+ * <code>equals</code> and <code>hashCode</code> accordingly.
+ * <code>getIndex</code> scans the parent's children and should be
+ * overridden when a node knows its own index.
+ *
+ * Unlike <code>MutableTreeNode</code>, levels are counted from the root
+ * of the view and <code>get(TreePath)</code> descends from this node
+ * one child lookup per path component.
+ *
+ * @author psurti
+ */
+public abstract class AbstractTreeNode<K extends Serializable,V> implements TreeNode<K,V> {
+
+	private static final String ARGUMENT_IS_NULL = "argument is null";
+	private static final String NODE_IS_NOT_A_CHILD = "node is not a child";
+	private static final String TREE_HAS_ZERO_LEAVES = "tree has zero leaves";
+
+	/**
+	 * Sole constructor, for invocation by subclass constructors.
+	 */
+	protected AbstractTreeNode() {
+		super();
+	}
+
+	@Override
+	public <T extends TreeNode<K,V>> T getNextSibling() {
+		TreeNode<K,V> myParent = getParent();
+		return myParent == null ? null : myParent.getChildAfter(this);
+	}
+
+	@Override
+	public <T extends TreeNode<K,V>> T getPreviousSibling() {
+		TreeNode<K,V> myParent = getParent();
+		return myParent == null ? null : myParent.getChildBefore(this);
+	}
+
+	@Override
+	public <T extends TreeNode<K,V>> T getChildAfter(TreeNode<K,V> node) {
+		int index = getIndex(node);
+		if (index == -1) {
+			throw new IllegalArgumentException(NODE_IS_NOT_A_CHILD);
+		}
+		return index < childCount() - 1 ? getChildAt(index + 1) : null;
+	}
+
+	@Override
+	public <T extends TreeNode<K,V>> T getChildBefore(TreeNode<K,V> node) {
+		int index = getIndex(node);
+		if (index == -1) {
+			throw new IllegalArgumentException(NODE_IS_NOT_A_CHILD);
+		}
+		return index > 0 ? getChildAt(index - 1) : null;
+	}
+
+	@Override
+	public int leafCount() {
+		int count = 0;
+		Iterator<TreeNode<K,V>> iter = preOrderEnumeration();
+		while (iter.hasNext()) {
+			if (iter.next().isLeaf()) {
+				count++;
+			}
+		}
+		if (count < 1) {
+			throw new IllegalArgumentException(TREE_HAS_ZERO_LEAVES);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the index of <code>node</code> by scanning the children,
+	 * O(n) where n is the number of children.
+	 */
+	@Override
+	public int getIndex(TreeNode<K,V> node) {
+		if (node == null) {
+			throw new IllegalArgumentException(ARGUMENT_IS_NULL);
+		}
+		if (!isNodeChild(node)) {
+			return -1;
+		}
+		for (int i = 0, n = childCount(); i < n; i++) {
+			if (node.equals(getChildAt(i))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean getAllowsChildren() {
+		return true;
+	}
+
+	@Override
+	public boolean isLeaf() {
+		return childCount() == 0;
+	}
+
+	@Override
+	public int getDepth() {
+		TreeNode<K,V> last = this;
+		Iterator<TreeNode<K,V>> iter = breadthFirstEnumeration();
+		while (iter.hasNext()) {
+			last = iter.next();
+		}
+		return last.getLevel() - getLevel();
+	}
+
+	@Override
+	public int getLevel() {
+		int levels = 0;
+		for (TreeNode<K,V> ancestor = getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+			levels++;
+		}
+		return levels;
+	}
+
+	@Override
+	public boolean isNodeChild(TreeNode<K,V> aNode) {
+		return aNode != null && equals(aNode.getParent());
+	}
+
+	@Override
+	public <T extends TreeNode<K,V>> Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return next < childCount();
+			}
+
+			@Override
+			public T next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return getChildAt(next++);
+			}
+		};
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T extends TreeNode<K,V>> Iterator<T> preOrderEnumeration() {
+		return new TreeEnumerations.PreorderEnumeration<>((T) this);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T extends TreeNode<K,V>> Iterator<T> postOrderEnumeration() {
+		return new TreeEnumerations.PostorderEnumeration<>((T) this);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T extends TreeNode<K,V>> Iterator<T> breadthFirstEnumeration() {
+		return new TreeEnumerations.BreadthFirstEnumeration<>((T) this);
+	}
+
+	@Override
+	public <T extends TreeNode<K,V>> Iterator<T> depthFirstEnumeration() {
+		return postOrderEnumeration();
+	}
+
+	/**
+	 * Returns the keys from the root of the view to this node.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public TreePath<K> getTreePath() {
+		Deque<K> keys = new ArrayDeque<>();
+		for (TreeNode<K,V> node = this; node != null; node = node.getParent()) {
+			keys.push(node.getKey());
+		}
+		return new TreePath<>((K[]) keys.toArray(new Serializable[keys.size()]));
+	}
+
+	/**
+	 * Returns the node by descending from this node; the first path
+	 * component must be this node's key.
+	 */
+	@Override
+	public <T extends TreeNode<K,V>> T get(TreePath<K> path) {
+		TreeMetrics metrics = TreeMetrics.active();
+		long start = metrics == null ? 0 : metrics.start();
+		K[] keyArr = path.getPath();
+		TreeNode<K,V> node = keyArr[0].equals(getKey()) ? this : null;
+		int level = 1;
+		for (; level < keyArr.length && node != null; level++) {
+			node = node.getChild(keyArr[level]);
+		}
+		if (metrics != null) {
+			metrics.record(TreeMetrics.Operation.GET, level, start);
+		}
+		@SuppressWarnings("unchecked")
+		T ret = (T) node;
+		return ret;
+	}
+
+	/**
+	 * Same as <code>get(path)</code>; a descent does not need a
+	 * search strategy.
+	 */
+	@Override
+	public <T extends TreeNode<K,V>> T get(TreePath<K> path, SearchStrategy strategy) {
+		return get(path);
+	}
+
+	@Override
+	public <T extends TreeNode<K,V>> T find(K uniqueKey) {
+		return find(uniqueKey, SearchStrategy.BREADTH_FIRST);
+	}
+
+	@Override
+	public <T extends TreeNode<K,V>> T find(K uniqueKey, SearchStrategy strategy) {
+		if (uniqueKey == null) {
+			return null;
+		}
+		TreeMetrics metrics = TreeMetrics.active();
+		long start = metrics == null ? 0 : metrics.start();
+		T found = null;
+		int visited = 0;
+		Iterator<T> iter = strategy == SearchStrategy.PRE_ORDER ? preOrderEnumeration() : breadthFirstEnumeration();
+		while (iter.hasNext()) {
+			T checkNode = iter.next();
+			visited++;
+			if (uniqueKey.equals(checkNode.getKey())) {
+				found = checkNode;
+				break;
+			}
+		}
+		if (metrics != null) {
+			metrics.record(TreeMetrics.Operation.FIND, visited, start);
+		}
+		return found;
+	}
+
+	@Override
+	public int totalCount() {
+		int count = 0;
+		Iterator<TreeNode<K,V>> iter = preOrderEnumeration();
+		while (iter.hasNext()) {
+			iter.next();
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the result of sending <code>toString()</code> to this node's
+	 * user object, or the empty string if the node has no user object.
+	 */
+	@Override
+	public String toString() {
+		V userObject = getUserObject();
+		return userObject == null ? "" : userObject.toString();
+	}
+}
@@ -0,0 +1,308 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A read-only, path-compressed (radix) copy of a tree.  Every chain of
+ * nodes with a single child is stored as one segment holding the keys and
+ * user objects of the chain in arrays, so a deep, sparse tree such as one
+ * built by <code>SVMutableTreeNode.withPaths</code> from file-system
+ * paths needs one object per branch instead of one node and child list
+ * per path component.
+ *
+ * <code>getRoot()</code> presents the logical tree: every original node
+ * is a <code>TreeNode</code> with its own key, user object, level and
+ * tree path.  Nodes are created as the tree is navigated; two of them are
+ * equal if they stand for the same original node.  Lookups by path
+ * compare the keys of a segment without leaving it.
+ *
+ * Instances are immutable and thread-safe.
+ *
+ * @author psurti
+ */
+public final class CompressedTree<K extends Serializable,V> {
+
+	/** a unary chain of original nodes */
+	private static final class Segment {
+		final Object[] keys;
+		/** null if every user object of the chain is null */
+		final Object[] userObjects;
+		final Segment parent;
+		/** index of this segment in the parent segment's children */
+		final int index;
+		/** level of the first node of the chain */
+		final int level;
+		Segment[] children;
+
+		Segment(Object[] keys, Object[] userObjects, Segment parent, int index) {
+			this.keys = keys;
+			this.userObjects = userObjects;
+			this.parent = parent;
+			this.index = index;
+			this.level = parent == null ? 0 : parent.level + parent.keys.length;
+		}
+
+		int last() {
+			return keys.length - 1;
+		}
+	}
+
+	private static final Segment[] NO_SEGMENTS = new Segment[0];
+
+	private final Segment root;
+	private final int size;
+	private final int segmentCount;
+
+	private CompressedTree(Segment root, int size, int segmentCount) {
+		this.root = root;
+		this.size = size;
+		this.segmentCount = segmentCount;
+	}
+
+	/**
+	 * Compresses the subtree rooted at <code>root</code>.  Keys and user
+	 * objects are shared with the source tree, not copied.
+	 *
+	 * @param root the root of the subtree to compress
+	 * @return the compressed tree
+	 */
+	public static <K extends Serializable,V> CompressedTree<K,V> of(TreeNode<K,V> root) {
+		int size = 0;
+		int segments = 0;
+		Segment top = null;
+		Deque<Object[]> stack = new ArrayDeque<>(); // source, parent segment, index
+		stack.push(new Object[] {root, null, 0});
+		List<Object> keys = new ArrayList<>();
+		List<Object> userObjects = new ArrayList<>();
+		while (!stack.isEmpty()) {
+			Object[] entry = stack.pop();
+			@SuppressWarnings("unchecked")
+			TreeNode<K,V> node = (TreeNode<K,V>) entry[0];
+			keys.clear();
+			userObjects.clear();
+			boolean hasUserObject = false;
+			while (true) {
+				keys.add(node.getKey());
+				userObjects.add(node.getUserObject());
+				hasUserObject |= node.getUserObject() != null;
+				if (node.childCount() != 1) {
+					break;
+				}
+				node = node.getChildAt(0);
+			}
+			Segment parent = (Segment) entry[1];
+			Segment segment = new Segment(keys.toArray(), hasUserObject ? userObjects.toArray() : null,
+					parent, (Integer) entry[2]);
+			if (parent == null) {
+				top = segment;
+			} else {
+				parent.children[segment.index] = segment;
+			}
+			size += keys.size();
+			segments++;
+			int children = node.childCount();
+			segment.children = children == 0 ? NO_SEGMENTS : new Segment[children];
+			for (int i = children - 1; i >= 0; i--) {
+				stack.push(new Object[] {node.getChildAt(i), segment, i});
+			}
+		}
+		return new CompressedTree<>(top, size, segments);
+	}
+
+	/**
+	 * Returns the number of nodes of the logical tree.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of segments, i.e. of stored objects.
+	 */
+	public int segmentCount() {
+		return segmentCount;
+	}
+
+	/**
+	 * Returns the root of the logical tree.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends TreeNode<K,V>> T getRoot() {
+		return (T) new Node(root, 0);
+	}
+
+	/**
+	 * A node of the logical tree: a position in a segment.
+	 */
+	private final class Node extends AbstractTreeNode<K,V> {
+		private final Segment segment;
+		private final int offset;
+
+		Node(Segment segment, int offset) {
+			super();
+			this.segment = segment;
+			this.offset = offset;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T extends TreeNode<K,V>> T getChildAt(int childIndex) {
+			if (offset < segment.last()) {
+				if (childIndex != 0) {
+					throw new ArrayIndexOutOfBoundsException(childIndex);
+				}
+				return (T) new Node(segment, offset + 1);
+			}
+			if (childIndex < 0 || childIndex >= segment.children.length) {
+				throw new ArrayIndexOutOfBoundsException(childIndex);
+			}
+			return (T) new Node(segment.children[childIndex], 0);
+		}
+
+		@Override
+		public int childCount() {
+			return offset < segment.last() ? 1 : segment.children.length;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T extends TreeNode<K,V>> T getParent() {
+			if (offset > 0) {
+				return (T) new Node(segment, offset - 1);
+			}
+			Segment parent = segment.parent;
+			return parent == null ? null : (T) new Node(parent, parent.last());
+		}
+
+		@Override
+		public int getIndex(TreeNode<K,V> aChild) {
+			if (aChild == null) {
+				throw new IllegalArgumentException("argument is null");
+			}
+			if (!isNodeChild(aChild)) {
+				return -1;
+			}
+			Node child = (Node) aChild;
+			return child.offset > 0 ? 0 : child.segment.index;
+		}
+
+		@Override
+		public int getLevel() {
+			return segment.level + offset;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public K getKey() {
+			return (K) segment.keys[offset];
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public V getUserObject() {
+			return segment.userObjects == null ? null : (V) segment.userObjects[offset];
+		}
+
+		/**
+		 * Returns the keys from the root of the tree to this node, copied
+		 * a segment at a time.
+		 */
+		@Override
+		@SuppressWarnings("unchecked")
+		public TreePath<K> getTreePath() {
+			K[] path = (K[]) new Serializable[getLevel() + 1];
+			int length = offset + 1;
+			for (Segment s = segment; s != null; s = s.parent) {
+				System.arraycopy(s.keys, 0, path, s.level, length);
+				if (s.parent != null) {
+					length = s.parent.keys.length;
+				}
+			}
+			return new TreePath<>(path);
+		}
+
+		/**
+		 * Returns the child with <code>key</code>; within a segment this
+		 * is a single key compare.
+		 */
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T extends TreeNode<K,V>> T getChild(K key) {
+			if (key == null) {
+				return null;
+			}
+			if (offset < segment.last()) {
+				return key.equals(segment.keys[offset + 1]) ? (T) new Node(segment, offset + 1) : null;
+			}
+			for (Segment child : segment.children) {
+				if (key.equals(child.keys[0])) {
+					return (T) new Node(child, 0);
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Descends from this node comparing the path with the keys of each
+		 * segment; a node object is created only for the result.
+		 */
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T extends TreeNode<K,V>> T get(TreePath<K> path) {
+			K[] keyArr = path.getPath();
+			if (!keyArr[0].equals(getKey())) {
+				return null;
+			}
+			Segment s = segment;
+			int at = offset;
+			for (int level = 1; level < keyArr.length; level++) {
+				if (at < s.last()) {
+					at++;
+					if (!keyArr[level].equals(s.keys[at])) {
+						return null;
+					}
+				} else {
+					Segment next = null;
+					for (Segment child : s.children) {
+						if (keyArr[level].equals(child.keys[0])) {
+							next = child;
+							break;
+						}
+					}
+					if (next == null) {
+						return null;
+					}
+					s = next;
+					at = 0;
+				}
+			}
+			return (T) new Node(s, at);
+		}
+
+		private CompressedTree<K,V> tree() {
+			return CompressedTree.this;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			}
+			if (!(o instanceof CompressedTree.Node)) {
+				return false;
+			}
+			@SuppressWarnings("unchecked")
+			Node other = (Node) o;
+			return other.segment == segment && other.offset == offset && other.tree() == tree();
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(segment) * 31 + offset;
+		}
+	}
+}
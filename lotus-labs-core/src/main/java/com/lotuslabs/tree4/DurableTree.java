@@ -0,0 +1,820 @@
+package com.lotuslabs.tree4;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.zip.CRC32;
+
+/**
+ * A durable tree of <code>MutableTreeNode</code>s.  Every change to the
+ * tree (insert, remove, move, <code>setUserObject</code> and the child
+ * arrays a batch replaces) is appended to a write-ahead log, and the tree is checkpointed from time to time
+ * into a compact preorder file.  Opening the directory again loads the
+ * latest checkpoint and replays the tail of the log after it, so restart
+ * time depends on the changes since the last checkpoint rather than on
+ * the size of the tree.
+ *
+ * Log records are buffered and made durable together (group commit):
+ * the log is flushed and synced every <code>groupCommitSize</code>
+ * records, on <code>sync()</code>, and optionally every sync interval
+ * by a background thread.  Changes after the last sync may be lost in a
+ * crash; a torn record at the end of the log is detected by its checksum
+ * and cut off.
+ *
+ * Keys and user objects are written compactly for strings and boxed
+ * primitives and with Java serialization otherwise, so they must be
+ * serializable.  The key comparator of a sorted tree and the
+ * <code>allowsChildren</code> flag of a childless node that changes later
+ * are not logged; reordering the children (e.g. by setting a comparator)
+ * forces a checkpoint instead.
+ *
+ * Changes must be made on the tree's single writer thread.  If the log
+ * cannot be written, logging stops and the failure is thrown by the next
+ * <code>sync()</code>, <code>checkpoint()</code> or <code>close()</code>;
+ * the changes since the last successful sync are then not durable.
+ *
+ * @author psurti
+ */
+public final class DurableTree<K extends Serializable,V> implements TreeListener<K,V>, Closeable {
+
+	private static final String FILE_PREFIX = "tree.";
+	private static final String CHECKPOINT_SUFFIX = ".ckpt";
+	private static final String LOG_SUFFIX = ".log";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int CHECKPOINT_MAGIC = 0x54524545; // TREE
+	private static final String DIRECTORY_NOT_EMPTY = "directory already holds a durable tree";
+	private static final String TREE_IS_CLOSED = "tree is closed";
+
+	private static final byte INSERT = 1;
+	private static final byte REMOVE = 2;
+	private static final byte MOVE = 3;
+	private static final byte SET_USER_OBJECT = 4;
+	private static final byte REPLACE_CHILDREN = 5;
+
+	/** how a child array of a REPLACE_CHILDREN record names each child */
+	private static final byte KEPT = 0;
+	private static final byte MOVED = 1;
+	private static final byte NEW = 2;
+
+
+	private final Path directory;
+	private final BiFunction<? super K, ? super V, ? extends MutableTreeNode<K,V>> nodeFactory;
+	private final MutableTreeNode<K,V> root;
+	private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+	private final DataOutputStream record = new DataOutputStream(recordBytes);
+	private final CRC32 crc = new CRC32();
+
+	/** log buffer and channel, guarded by this */
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private FileChannel log;
+	private int pendingRecords;
+
+	private long generation;
+	private int recordsSinceCheckpoint;
+	private int groupCommitSize = 64;
+	private int checkpointInterval = 100000;
+	private boolean checkpointNeeded;
+	private boolean closed;
+	private IOException failure;
+	/** the node removed last, so re-inserting it in the same move is logged as a move */
+	private MutableTreeNode<K,V> lastRemoved;
+	/** the nodes the current batch removed from the tree, numbered in the order logged */
+	private final Map<MutableTreeNode<K,V>,Integer> batchRemoved = new IdentityHashMap<>();
+	/** the batch <code>batchRemoved</code> belongs to, -1 for none */
+	private long batch = -1;
+	/** the nodes the batch being replayed removed, in the order logged */
+	private final List<MutableTreeNode<K,V>> replayRemoved = new ArrayList<>();
+	private ScheduledExecutorService syncer;
+
+	private DurableTree(Path directory, BiFunction<? super K, ? super V, ? extends MutableTreeNode<K,V>> nodeFactory,
+			MutableTreeNode<K,V> root, long generation) {
+		this.directory = directory;
+		this.nodeFactory = nodeFactory;
+		this.root = root;
+		this.generation = generation;
+	}
+
+	/**
+	 * Opens the durable tree in <code>directory</code> with plain
+	 * <code>MutableTreeNode</code>s.
+	 *
+	 * @see #open(Path, BiFunction)
+	 */
+	public static <K extends Serializable,V> DurableTree<K,V> open(Path directory) throws IOException {
+		return open(directory, MutableTreeNode<K,V>::new);
+	}
+
+	/**
+	 * Opens the durable tree in <code>directory</code>: loads the latest
+	 * checkpoint and replays the log after it.  If the directory holds no
+	 * tree yet, the tree starts as an empty root node.
+	 *
+	 * @param directory the directory of the checkpoint and log files,
+	 *        created if missing
+	 * @param nodeFactory creates the nodes of the recovered tree from
+	 *        their key and user object, e.g. <code>SVMutableTreeNode::new</code>
+	 * @return the durable tree, with its root listened to
+	 * @throws IOException if the files cannot be read or written
+	 */
+	public static <K extends Serializable,V> DurableTree<K,V> open(Path directory,
+			BiFunction<? super K, ? super V, ? extends MutableTreeNode<K,V>> nodeFactory) throws IOException {
+		Files.createDirectories(directory);
+		long generation = latestGeneration(directory);
+		MutableTreeNode<K,V> root;
+		if (generation < 0) {
+			generation = 0;
+			root = nodeFactory.apply(null, null);
+			writeCheckpoint(directory, generation, root);
+		} else {
+			root = readCheckpoint(checkpointFile(directory, generation), nodeFactory);
+		}
+		DurableTree<K,V> tree = new DurableTree<>(directory, nodeFactory, root, generation);
+		tree.replay();
+		tree.start();
+		return tree;
+	}
+
+	/**
+	 * Makes the existing tree rooted at <code>root</code> durable in an
+	 * empty <code>directory</code>, writing its first checkpoint.
+	 *
+	 * @param directory the directory of the checkpoint and log files,
+	 *        created if missing
+	 * @param root the root of the tree; it must not have a parent
+	 * @return the durable tree, with its root listened to
+	 * @throws IOException if the files cannot be written
+	 * @throws IllegalArgumentException if the directory already holds a
+	 *         durable tree or <code>root</code> is not a root
+	 */
+	public static <K extends Serializable,V> DurableTree<K,V> create(Path directory, MutableTreeNode<K,V> root) throws IOException {
+		if (!root.isRoot()) {
+			throw new IllegalArgumentException("node is not a root");
+		}
+		Files.createDirectories(directory);
+		if (latestGeneration(directory) >= 0) {
+			throw new IllegalArgumentException(DIRECTORY_NOT_EMPTY);
+		}
+		writeCheckpoint(directory, 0, root);
+		DurableTree<K,V> tree = new DurableTree<>(directory, MutableTreeNode<K,V>::new, root, 0);
+		tree.start();
+		return tree;
+	}
+
+	/**
+	 * Returns the root of the durable tree.  Changes to this tree are
+	 * logged.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends MutableTreeNode<K,V>> T getRoot() {
+		return (T) root;
+	}
+
+	/**
+	 * Sets how many log records are synced together.  Defaults to 64.
+	 */
+	public void setGroupCommitSize(int records) {
+		if (records < 1) {
+			throw new IllegalArgumentException("group commit size must be positive");
+		}
+		groupCommitSize = records;
+	}
+
+	/**
+	 * Sets how many log records are written before the tree is
+	 * checkpointed again.  Defaults to 100,000.
+	 */
+	public void setCheckpointInterval(int records) {
+		if (records < 1) {
+			throw new IllegalArgumentException("checkpoint interval must be positive");
+		}
+		checkpointInterval = records;
+	}
+
+	/**
+	 * Syncs the log from a background thread every <code>interval</code>,
+	 * bounding how old the changes lost in a crash can be.  Off by default.
+	 */
+	public synchronized void setSyncInterval(long interval, TimeUnit unit) {
+		if (syncer != null) {
+			syncer.shutdown();
+		}
+		syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "DurableTree-sync");
+			thread.setDaemon(true);
+			return thread;
+		});
+		syncer.scheduleWithFixedDelay(() -> {
+			try {
+				sync();
+			} catch (IOException | IllegalStateException e) {
+				// the writer sees the failure on its next sync
+			}
+		}, interval, interval, unit);
+	}
+
+	/**
+	 * Writes the buffered log records and syncs them to disk.
+	 *
+	 * @throws IOException if the log cannot be written
+	 */
+	public void sync() throws IOException {
+		FileChannel channel;
+		synchronized (this) {
+			checkOpen();
+			channel = writePending();
+		}
+		try {
+			channel.force(false);
+		} catch (ClosedChannelException e) {
+			// a checkpoint closed this log after syncing it
+		} catch (IOException e) {
+			fail(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes a checkpoint of the whole tree and starts a new, empty log.
+	 * The previous checkpoint and log are deleted.  Must be called on the
+	 * writer thread.
+	 *
+	 * @throws IOException if the checkpoint cannot be written
+	 */
+	public void checkpoint() throws IOException {
+		synchronized (this) {
+			checkOpen();
+			writePending().force(false);
+			long next = generation + 1;
+			writeCheckpoint(directory, next, root);
+			log.close();
+			log = openLog(next);
+			Files.deleteIfExists(logFile(directory, generation));
+			Files.deleteIfExists(checkpointFile(directory, generation));
+			generation = next;
+			recordsSinceCheckpoint = 0;
+			checkpointNeeded = false;
+			lastRemoved = null;
+			endBatch();
+		}
+	}
+
+	/**
+	 * Syncs the log, stops listening to the tree and closes the log.
+	 * The tree stays usable in memory but is no longer durable.
+	 */
+	@Override
+	public void close() throws IOException {
+		ScheduledExecutorService stopping;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			stopping = syncer;
+		}
+		if (stopping != null) {
+			stopping.shutdown();
+		}
+		root.removeTreeListener(this);
+		try {
+			if (failure == null) {
+				if (checkpointNeeded) {
+					checkpoint();
+				}
+				sync();
+			}
+		} finally {
+			synchronized (this) {
+				closed = true;
+				log.close();
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IllegalStateException(TREE_IS_CLOSED);
+		} else if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Stops logging after a failed write; the next sync reports it.
+	 */
+	private synchronized void fail(IOException e) {
+		if (failure == null) {
+			failure = e;
+		}
+	}
+
+	//
+	//  TreeListener
+	//
+
+	@Override
+	public void nodeInserted(MutableTreeNode<K,V> parent, MutableTreeNode<K,V> child, int index) {
+		endBatch();
+		int[] position = positionOf(parent);
+		if (position == null) {
+			return;
+		}
+		try {
+			if (child == lastRemoved && root.listenerList().isMoving(child)) {
+				beginRecord(MOVE, position);
+				record.writeInt(index);
+			} else {
+				beginRecord(INSERT, position);
+				record.writeInt(index);
+				writeSubtree(record, child);
+			}
+			lastRemoved = null;
+			endRecord();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	@Override
+	public void nodeRemoved(MutableTreeNode<K,V> parent, MutableTreeNode<K,V> child, int index) {
+		endBatch();
+		int[] position = positionOf(parent);
+		if (position == null) {
+			return;
+		}
+		try {
+			beginRecord(REMOVE, position);
+			record.writeInt(index);
+			lastRemoved = child;
+			endRecord();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	@Override
+	public void userObjectChanged(MutableTreeNode<K,V> node, V oldUserObject) {
+		endBatch();
+		int[] position = positionOf(node);
+		if (position == null) {
+			return;
+		}
+		try {
+			beginRecord(SET_USER_OBJECT, position);
+			ValueCodec.write(record, node.getUserObject());
+			endRecord();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	@Override
+	public void childrenReordered(MutableTreeNode<K,V> parent) {
+		if (positionOf(parent) != null) {
+			checkpointNeeded = true;
+		}
+	}
+
+	/**
+	 * Logs a child array replaced by a batch.  Each new child is logged by
+	 * its old index if it stayed, by its number if the batch removed it
+	 * from the tree earlier, and in full otherwise; the removed children
+	 * are numbered for the records that follow in the same batch.
+	 */
+	@Override
+	public void childrenReplaced(MutableTreeNode<K,V> parent, List<MutableTreeNode<K,V>> oldChildren) {
+		int[] position = positionOf(parent);
+		if (position == null) {
+			return;
+		}
+		try {
+			long current = root.listenerList().batch();
+			boolean first = current != batch;
+			if (first) {
+				batchRemoved.clear();
+				batch = current;
+			}
+			Map<MutableTreeNode<K,V>,Integer> oldIndexes = new IdentityHashMap<>();
+			for (int i = 0; i < oldChildren.size(); i++) {
+				oldIndexes.put(oldChildren.get(i), i);
+			}
+			beginRecord(REPLACE_CHILDREN, position);
+			record.writeBoolean(first);
+			record.writeInt(parent.childCount());
+			Iterator<MutableTreeNode<K,V>> children = parent.iterator();
+			while (children.hasNext()) {
+				MutableTreeNode<K,V> child = children.next();
+				Integer oldIndex = oldIndexes.remove(child);
+				Integer removed = oldIndex == null ? batchRemoved.get(child) : null;
+				if (oldIndex != null) {
+					record.writeByte(KEPT);
+					record.writeInt(oldIndex);
+				} else if (removed != null) {
+					record.writeByte(MOVED);
+					record.writeInt(removed);
+				} else {
+					record.writeByte(NEW);
+					writeSubtree(record, child);
+				}
+			}
+			for (MutableTreeNode<K,V> child : oldChildren) {
+				if (oldIndexes.containsKey(child)) {
+					batchRemoved.put(child, batchRemoved.size());
+				}
+			}
+			lastRemoved = null;
+			endRecord();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Forgets the nodes the last batch removed, which later records log in
+	 * full.
+	 */
+	private void endBatch() {
+		if (batch >= 0) {
+			batchRemoved.clear();
+			batch = -1;
+		}
+	}
+
+	/**
+	 * Returns the child indexes from the root to <code>node</code>, or
+	 * null if the node is not in this tree.
+	 */
+	private int[] positionOf(MutableTreeNode<K,V> node) {
+		int depth = 0;
+		MutableTreeNode<K,V> top = node;
+		for (MutableTreeNode<K,V> up = node.getParent(); up != null; up = up.getParent()) {
+			top = up;
+			depth++;
+		}
+		if (top != root || closed || failure != null) {
+			return null;
+		}
+		int[] position = new int[depth];
+		MutableTreeNode<K,V> current = node;
+		for (int i = depth - 1; i >= 0; i--) {
+			MutableTreeNode<K,V> parent = current.getParent();
+			position[i] = parent.getIndex(current);
+			current = parent;
+		}
+		return position;
+	}
+
+	private void beginRecord(byte type, int[] position) throws IOException {
+		recordBytes.reset();
+		record.writeByte(type);
+		record.writeInt(position.length);
+		for (int index : position) {
+			record.writeInt(index);
+		}
+	}
+
+	/**
+	 * Frames the record with its length and checksum and buffers it.  A
+	 * pending checkpoint, e.g. after children were reordered, already
+	 * contains the change and replaces the record.
+	 */
+	private void endRecord() throws IOException {
+		if (checkpointNeeded) {
+			checkpoint();
+			return;
+		}
+		record.flush();
+		crc.reset();
+		crc.update(recordBytes.toByteArray(), 0, recordBytes.size());
+		FileChannel toSync = null;
+		synchronized (this) {
+			DataOutputStream out = new DataOutputStream(pending);
+			out.writeInt(recordBytes.size());
+			out.writeInt((int) crc.getValue());
+			recordBytes.writeTo(pending);
+			if (++pendingRecords >= groupCommitSize) {
+				toSync = writePending();
+			}
+		}
+		if (toSync != null) {
+			toSync.force(false);
+		}
+		if (++recordsSinceCheckpoint >= checkpointInterval) {
+			checkpoint();
+		}
+	}
+
+	/**
+	 * Writes the buffered records to the log channel; caller holds the lock.
+	 */
+	private FileChannel writePending() throws IOException {
+		if (pending.size() > 0) {
+			ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+			while (buffer.hasRemaining()) {
+				log.write(buffer);
+			}
+			pending.reset();
+			pendingRecords = 0;
+		}
+		return log;
+	}
+
+	private void start() throws IOException {
+		log = openLog(generation);
+		root.addTreeListener(this);
+	}
+
+	private FileChannel openLog(long gen) throws IOException {
+		FileChannel channel = FileChannel.open(logFile(directory, gen),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		directorySync();
+		return channel;
+	}
+
+	private void directorySync() {
+		try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+			dir.force(true);
+		} catch (IOException e) {
+			// not supported on every platform, the rename is still atomic
+		}
+	}
+
+	//
+	//  Recovery
+	//
+
+	/**
+	 * Replays the log of the current generation onto the root and cuts
+	 * off a torn record at its end.  The log ends at the first record
+	 * that is incomplete, fails its checksum, claims more bytes than are
+	 * left in the file, or does not decode; a tail of zeros passes the
+	 * checksum as an empty record and ends the log as one that does not
+	 * decode.
+	 */
+	private void replay() throws IOException {
+		Path file = logFile(directory, generation);
+		if (!Files.exists(file)) {
+			return;
+		}
+		long fileSize = Files.size(file);
+		long good = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			MutableTreeNode<K,V> detached = null;
+			while (true) {
+				byte[] bytes;
+				try {
+					int length = in.readInt();
+					int checksum = in.readInt();
+					if (length < 0 || length > fileSize - good - 8) {
+						break;
+					}
+					bytes = new byte[length];
+					in.readFully(bytes);
+					crc.reset();
+					crc.update(bytes, 0, length);
+					if ((int) crc.getValue() != checksum) {
+						break;
+					}
+				} catch (EOFException e) {
+					break;
+				}
+				try {
+					detached = apply(new DataInputStream(new ByteArrayInputStream(bytes)), detached);
+				} catch (IOException | RuntimeException e) {
+					// every record is read in full before it changes the tree
+					break;
+				}
+				good += 8 + bytes.length;
+				recordsSinceCheckpoint++;
+			}
+		}
+		replayRemoved.clear();
+		if (good < fileSize) {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.truncate(good);
+				channel.force(true);
+			}
+		}
+	}
+
+	/**
+	 * Applies one log record and returns the node removed last.
+	 */
+	private MutableTreeNode<K,V> apply(DataInput in, MutableTreeNode<K,V> detached) throws IOException {
+		byte type = in.readByte();
+		MutableTreeNode<K,V> node = root;
+		for (int i = 0, depth = in.readInt(); i < depth; i++) {
+			node = node.getChildAt(in.readInt());
+		}
+		switch (type) {
+		case INSERT:
+			int index = in.readInt();
+			node.insert(readSubtree(in, nodeFactory), index);
+			return null;
+		case REMOVE:
+			MutableTreeNode<K,V> removed = node.getChildAt(in.readInt());
+			node.remove(removed);
+			return removed;
+		case MOVE:
+			node.insert(detached, in.readInt());
+			return null;
+		case SET_USER_OBJECT:
+			node.setUserObject(ValueCodec.<V>read(in));
+			return detached;
+		case REPLACE_CHILDREN:
+			replaceChildren(in, node);
+			return null;
+		default:
+			throw new IOException("unknown log record " + type);
+		}
+	}
+
+	/**
+	 * Applies a REPLACE_CHILDREN record to <code>parent</code>, reading
+	 * the whole record first.
+	 */
+	private void replaceChildren(DataInput in, MutableTreeNode<K,V> parent) throws IOException {
+		if (in.readBoolean()) {
+			replayRemoved.clear();
+		}
+		int count = in.readInt();
+		List<MutableTreeNode<K,V>> newChildren = new ArrayList<>();
+		Set<MutableTreeNode<K,V>> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+		boolean arrived = false;
+		for (int i = 0; i < count; i++) {
+			byte how = in.readByte();
+			MutableTreeNode<K,V> child;
+			if (how == KEPT) {
+				child = parent.getChildAt(in.readInt());
+				kept.add(child);
+			} else if (how == MOVED) {
+				child = replayRemoved.get(in.readInt());
+				arrived = true;
+			} else if (how == NEW) {
+				child = readSubtree(in, nodeFactory);
+				arrived = true;
+			} else {
+				throw new IOException("unknown child in log record " + how);
+			}
+			newChildren.add(child);
+		}
+		Set<MutableTreeNode<K,V>> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+		Iterator<MutableTreeNode<K,V>> iter = parent.iterator();
+		while (iter.hasNext()) {
+			MutableTreeNode<K,V> child = iter.next();
+			if (!kept.contains(child)) {
+				removed.add(child);
+				replayRemoved.add(child);
+			}
+		}
+		if (!removed.isEmpty()) {
+			parent.removeChildren(removed);
+		}
+		if (arrived) {
+			parent.setChildren(newChildren);
+		}
+	}
+
+	//
+	//  Files and encoding
+	//
+
+	private static Path checkpointFile(Path directory, long generation) {
+		return directory.resolve(FILE_PREFIX + generation + CHECKPOINT_SUFFIX);
+	}
+
+	private static Path logFile(Path directory, long generation) {
+		return directory.resolve(FILE_PREFIX + generation + LOG_SUFFIX);
+	}
+
+	/**
+	 * Returns the generation of the newest complete checkpoint, or -1.
+	 */
+	private static long latestGeneration(Path directory) throws IOException {
+		long latest = -1;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + CHECKPOINT_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				String number = name.substring(FILE_PREFIX.length(), name.length() - CHECKPOINT_SUFFIX.length());
+				try {
+					latest = Math.max(latest, Long.parseLong(number));
+				} catch (NumberFormatException e) {
+					// not one of ours
+				}
+			}
+		}
+		return latest;
+	}
+
+	/**
+	 * Writes the tree to a temporary file, syncs it and renames it into
+	 * place, so a checkpoint file is always complete.
+	 */
+	private static <K extends Serializable,V> void writeCheckpoint(Path directory, long generation, MutableTreeNode<K,V> root) throws IOException {
+		Path target = checkpointFile(directory, generation);
+		Path temp = directory.resolve(target.getFileName() + TEMP_SUFFIX);
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			OutputStream stream = Channels.newOutputStream(channel);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+			out.writeInt(CHECKPOINT_MAGIC);
+			writeSubtree(out, root);
+			out.flush();
+			channel.force(true);
+		}
+		Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static <K extends Serializable,V> MutableTreeNode<K,V> readCheckpoint(Path file,
+			BiFunction<? super K, ? super V, ? extends MutableTreeNode<K,V>> nodeFactory) throws IOException {
+		try (InputStream stream = Files.newInputStream(file)) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+			if (in.readInt() != CHECKPOINT_MAGIC) {
+				throw new IOException("not a tree checkpoint: " + file);
+			}
+			return readSubtree(in, nodeFactory);
+		}
+	}
+
+	/**
+	 * Writes the subtree in preorder, each node as key, user object,
+	 * allowsChildren and child count.
+	 */
+	private static <K extends Serializable,V> void writeSubtree(DataOutput out, MutableTreeNode<K,V> subtree) throws IOException {
+		Iterator<MutableTreeNode<K,V>> iter = subtree.preOrderEnumeration();
+		while (iter.hasNext()) {
+			MutableTreeNode<K,V> node = iter.next();
+			ValueCodec.write(out, node.getKey());
+			ValueCodec.write(out, node.getUserObject());
+			out.writeBoolean(node.getAllowsChildren());
+			out.writeInt(node.childCount());
+		}
+	}
+
+	private static <K extends Serializable,V> MutableTreeNode<K,V> readSubtree(DataInput in,
+			BiFunction<? super K, ? super V, ? extends MutableTreeNode<K,V>> nodeFactory) throws IOException {
+		Deque<MutableTreeNode<K,V>> parents = new ArrayDeque<>();
+		Deque<int[]> remaining = new ArrayDeque<>();
+		MutableTreeNode<K,V> top = null;
+		do {
+			K key = ValueCodec.read(in);
+			V userObject = ValueCodec.read(in);
+			boolean allowsChildren = in.readBoolean();
+			int childCount = in.readInt();
+			MutableTreeNode<K,V> node = nodeFactory.apply(key, userObject);
+			if (top == null) {
+				top = node;
+			} else {
+				// a fresh subtree without listeners or key order needs none of insert's checks
+				parents.peek().appendChild(node, remaining.peek()[0]);
+				remaining.peek()[0]--;
+			}
+			if (childCount > 0) {
+				parents.push(node);
+				remaining.push(new int[] {childCount});
+			} else {
+				node.setAllowsChildren(allowsChildren);
+			}
+			while (!remaining.isEmpty() && remaining.peek()[0] == 0) {
+				remaining.pop();
+				parents.pop();
+			}
+		} while (!parents.isEmpty());
+		return top;
+	}
+}
@@ -0,0 +1,289 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * A set of independent trees, each identified by the key of its root,
+ * with one key index over the nodes of all of them.  A forest replaces a
+ * map of roots kept by the caller: <code>find</code> and
+ * <code>get(TreePath)</code> work across the trees, and
+ * <code>valueOf</code> builds a forest from paths that do not share a
+ * root.
+ *
+ * The key index listens to every tree and follows <code>insert</code> and
+ * <code>remove</code>.  A root must stay a root while it is in the
+ * forest.
+ *
+ * Like <code>MutableTreeNode</code>, a forest is not thread-safe, but
+ * <code>parallelForEach</code> runs an operation on the trees in
+ * parallel, which is safe as long as each operation only touches its own
+ * tree.
+ *
+ * @author psurti
+ */
+public final class Forest<K extends Serializable,V> implements Iterable<MutableTreeNode<K,V>> {
+
+	private static final String ROOT_KEY_IS_NULL = "root key is null";
+	private static final String NODE_IS_NOT_A_ROOT = "node is not a root";
+	private static final String DUPLICATE_ROOT_KEY = "duplicate root key";
+
+	/** shallow sizes used by <code>memoryEstimate</code>, assuming compressed references */
+	private static final int NODE_BYTES = 64;
+	private static final int CHILD_LIST_BYTES = 40;
+	private static final int REFERENCE_BYTES = 4;
+
+	private final Map<K,MutableTreeNode<K,V>> roots = new LinkedHashMap<>();
+	private final Map<K,Set<MutableTreeNode<K,V>>> keyIndex = new HashMap<>();
+	private final TreeListener<K,V> indexer = new TreeListener<K,V>() {
+		@Override
+		public void nodeInserted(MutableTreeNode<K,V> parent, MutableTreeNode<K,V> child, int index) {
+			if (inForest(parent)) {
+				index(child);
+			}
+		}
+
+		@Override
+		public void nodeRemoved(MutableTreeNode<K,V> parent, MutableTreeNode<K,V> child, int index) {
+			if (inForest(parent)) {
+				unindex(child);
+			}
+		}
+
+		@Override
+		public void childrenReplaced(MutableTreeNode<K,V> parent, List<MutableTreeNode<K,V>> oldChildren) {
+			if (!inForest(parent)) {
+				return;
+			}
+			Set<MutableTreeNode<K,V>> old = Collections.newSetFromMap(new IdentityHashMap<>());
+			old.addAll(oldChildren);
+			Iterator<MutableTreeNode<K,V>> children = parent.iterator();
+			while (children.hasNext()) {
+				MutableTreeNode<K,V> child = children.next();
+				if (!old.remove(child)) {
+					index(child);
+				}
+			}
+			for (MutableTreeNode<K,V> child : old) {
+				unindex(child);
+			}
+		}
+	};
+
+	/**
+	 * Creates an empty forest.
+	 */
+	public Forest() {
+		super();
+	}
+
+	/**
+	 * Builds a forest from tree paths, one tree per distinct first path
+	 * component.  Equal keys are shared by all the trees.
+	 *
+	 * @param treePaths the paths to create
+	 * @return the forest
+	 * @see MutableTreeNode#valueOf
+	 */
+	public static <K extends Serializable,V> Forest<K,V> valueOf(TreePath<K>[] treePaths) {
+		if (treePaths == null)
+			throw new IllegalArgumentException("input treePaths is null");
+		Forest<K,V> forest = new Forest<>();
+		Map<K,K> keys = new HashMap<>();
+		for (TreePath<K> treePath : treePaths) {
+			K[] path = treePath.getPath();
+			MutableTreeNode<K,V> matchNode = forest.getTree(path[0]);
+			if (matchNode == null) {
+				matchNode = new MutableTreeNode<>(path[0], null);
+				forest.add(matchNode);
+			}
+			for (int j = 1; j < path.length; j++) {
+				MutableTreeNode<K,V> foundNode = matchNode.getChild(path[j]);
+				if (foundNode == null) {
+					K key = keys.putIfAbsent(path[j], path[j]);
+					foundNode = new MutableTreeNode<>(key == null ? path[j] : key, null);
+					matchNode.add(foundNode);
+				}
+				matchNode = foundNode;
+			}
+		}
+		return forest;
+	}
+
+	/**
+	 * Adds the tree rooted at <code>root</code> and indexes its nodes.
+	 *
+	 * @param root the root of the tree
+	 * @exception IllegalArgumentException if <code>root</code> has a
+	 *            parent or a null key, or if the forest already has a
+	 *            tree with the same key
+	 */
+	public void add(MutableTreeNode<K,V> root) {
+		if (!root.isRoot()) {
+			throw new IllegalArgumentException(NODE_IS_NOT_A_ROOT);
+		} else if (root.getKey() == null) {
+			throw new IllegalArgumentException(ROOT_KEY_IS_NULL);
+		} else if (roots.containsKey(root.getKey())) {
+			throw new IllegalArgumentException(DUPLICATE_ROOT_KEY);
+		}
+		roots.put(root.getKey(), root);
+		index(root);
+		root.addTreeListener(indexer);
+	}
+
+	/**
+	 * Removes the tree whose root has <code>rootKey</code>.
+	 *
+	 * @return the root of the tree, or null if there is none
+	 */
+	public MutableTreeNode<K,V> remove(K rootKey) {
+		MutableTreeNode<K,V> root = roots.remove(rootKey);
+		if (root != null) {
+			root.removeTreeListener(indexer);
+			unindex(root);
+		}
+		return root;
+	}
+
+	/**
+	 * Returns the root of the tree with <code>rootKey</code>, or null.
+	 */
+	public MutableTreeNode<K,V> getTree(K rootKey) {
+		return roots.get(rootKey);
+	}
+
+	/**
+	 * Returns the roots in the order the trees were added.
+	 */
+	public Collection<MutableTreeNode<K,V>> getTrees() {
+		return Collections.unmodifiableCollection(roots.values());
+	}
+
+	@Override
+	public Iterator<MutableTreeNode<K,V>> iterator() {
+		return getTrees().iterator();
+	}
+
+	/**
+	 * Returns the number of trees.
+	 */
+	public int treeCount() {
+		return roots.size();
+	}
+
+	/**
+	 * Returns the number of nodes of all the trees.
+	 */
+	public long totalCount() {
+		long count = 0;
+		for (MutableTreeNode<K,V> root : roots.values()) {
+			count += root.totalCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the node at <code>path</code>, looked up in the tree named
+	 * by the first path component, or null if there is none.
+	 */
+	public <T extends TreeNode<K,V>> T get(TreePath<K> path) {
+		MutableTreeNode<K,V> root = roots.get(path.getPathComponent(0));
+		return root == null ? null : root.get(path);
+	}
+
+	/**
+	 * Returns a node with <code>key</code> in any of the trees, or null.
+	 * O(1) through the key index.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends TreeNode<K,V>> T find(K key) {
+		Set<MutableTreeNode<K,V>> nodes = keyIndex.get(key);
+		return nodes == null ? null : (T) nodes.iterator().next();
+	}
+
+	/**
+	 * Returns every node with <code>key</code> in all the trees.
+	 */
+	public List<MutableTreeNode<K,V>> findAll(K key) {
+		Set<MutableTreeNode<K,V>> nodes = keyIndex.get(key);
+		return nodes == null ? Collections.emptyList() : new ArrayList<>(nodes);
+	}
+
+	/**
+	 * Runs <code>action</code> on every root in the common pool, trees in
+	 * parallel.
+	 */
+	public void parallelForEach(Consumer<? super MutableTreeNode<K,V>> action) {
+		parallelForEach(action, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Runs <code>action</code> on every root in <code>pool</code>, trees
+	 * in parallel.  The action must not change the forest or another tree.
+	 */
+	public void parallelForEach(Consumer<? super MutableTreeNode<K,V>> action, ForkJoinPool pool) {
+		List<MutableTreeNode<K,V>> trees = new ArrayList<>(roots.values());
+		pool.submit(() -> trees.parallelStream().forEach(action)).join();
+	}
+
+	/**
+	 * Estimates the memory held by the tree with <code>rootKey</code>:
+	 * the nodes and their child lists, but not the keys and user objects,
+	 * which may be shared.  The estimate assumes a 64-bit JVM with
+	 * compressed references.
+	 *
+	 * @return the estimate in bytes, or 0 if there is no such tree
+	 */
+	public long memoryEstimate(K rootKey) {
+		MutableTreeNode<K,V> root = roots.get(rootKey);
+		if (root == null) {
+			return 0;
+		}
+		long bytes = 0;
+		Iterator<MutableTreeNode<K,V>> iter = root.preOrderEnumeration();
+		while (iter.hasNext()) {
+			int children = iter.next().childCount();
+			bytes += NODE_BYTES;
+			if (children > 0) {
+				bytes += CHILD_LIST_BYTES + (long) REFERENCE_BYTES * children;
+			}
+		}
+		return bytes;
+	}
+
+	private boolean inForest(MutableTreeNode<K,V> node) {
+		MutableTreeNode<K,V> root = node.getRoot();
+		return roots.get(root.getKey()) == root;
+	}
+
+	private void index(MutableTreeNode<K,V> subtree) {
+		Iterator<MutableTreeNode<K,V>> iter = subtree.preOrderEnumeration();
+		while (iter.hasNext()) {
+			MutableTreeNode<K,V> node = iter.next();
+			keyIndex.computeIfAbsent(node.getKey(), k -> new LinkedHashSet<>()).add(node);
+		}
+	}
+
+	private void unindex(MutableTreeNode<K,V> subtree) {
+		Iterator<MutableTreeNode<K,V>> iter = subtree.preOrderEnumeration();
+		while (iter.hasNext()) {
+			MutableTreeNode<K,V> node = iter.next();
+			Set<MutableTreeNode<K,V>> nodes = keyIndex.get(node.getKey());
+			if (nodes != null && nodes.remove(node) && nodes.isEmpty()) {
+				keyIndex.remove(node.getKey());
+			}
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A read-only copy of a tree that stores every distinct subtree once.
+ * Subtrees with equal keys, equal user objects and the same shape are
+ * hash-consed into one shared subtree, so the copy is a DAG whose size is
+ * the number of distinct subtrees: a settings block repeated under every
+ * region of a configuration tree is kept once however many regions
+ * there are.
+ *
+ * <code>getRoot()</code> presents the logical tree.  Since a shared
+ * subtree has many parents, a node of the logical tree is a cursor that
+ * remembers the path it was reached by; its parent, level and tree path
+ * are those of that occurrence.  Nodes are created as the tree is
+ * navigated; two of them are equal if they stand for the same occurrence.
+ *
+ * The copy is built bottom-up over the preorder arrays of
+ * <code>SubtreeHashes</code>: each subtree is looked up by its structural
+ * hash, its user object and its already shared children, and a match is
+ * confirmed by comparing keys and user objects with
+ * <code>equals</code>, so hash collisions cannot merge different
+ * subtrees.
+ *
+ * Instances are immutable and thread-safe.
+ *
+ * @author psurti
+ */
+public final class HashConsedTree<K extends Serializable,V> {
+
+	/** a distinct subtree */
+	private static final class Shape {
+		final int id;
+		final Object key;
+		final Object userObject;
+		final Shape[] children;
+		/** the number of nodes of the subtree */
+		final int size;
+		/** the next shape with the same lookup hash */
+		Shape collision;
+
+		Shape(int id, Object key, Object userObject, Shape[] children, int size) {
+			this.id = id;
+			this.key = key;
+			this.userObject = userObject;
+			this.children = children;
+			this.size = size;
+		}
+
+		boolean matches(Object aKey, Object aUserObject, Shape[] someChildren) {
+			if (!Objects.equals(key, aKey) || !Objects.equals(userObject, aUserObject)
+					|| children.length != someChildren.length) {
+				return false;
+			}
+			for (int i = 0; i < children.length; i++) {
+				if (children[i] != someChildren[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final Shape[] NO_SHAPES = new Shape[0];
+
+	private final Shape root;
+	private final int shapeCount;
+
+	private HashConsedTree(Shape root, int shapeCount) {
+		this.root = root;
+		this.shapeCount = shapeCount;
+	}
+
+	/**
+	 * Copies the subtree rooted at <code>root</code>, sharing repeated
+	 * subtrees.  Keys and user objects are shared with the source tree,
+	 * not copied.
+	 *
+	 * @param root the root of the subtree to copy
+	 * @return the copy
+	 */
+	public static <K extends Serializable,V> HashConsedTree<K,V> of(TreeNode<K,V> root) {
+		SubtreeHashes<K,V> hashes = SubtreeHashes.of(root);
+		int count = hashes.size();
+		Shape[] shapes = new Shape[count];
+		Map<Long,Shape> table = new HashMap<>();
+		int distinct = 0;
+		for (int i = count - 1; i >= 0; i--) {
+			TreeNode<K,V> node = hashes.getNode(i);
+			int childCount = node.childCount();
+			Shape[] children = childCount == 0 ? NO_SHAPES : new Shape[childCount];
+			long lookup = hashes.hash(i) * 31 + Objects.hashCode(node.getUserObject());
+			int size = 1;
+			for (int k = 0, child = i + 1; k < childCount; k++, child += hashes.subtreeSize(child)) {
+				children[k] = shapes[child];
+				lookup = lookup * 31 + children[k].id;
+				size += children[k].size;
+			}
+			K key = node.getKey();
+			V userObject = node.getUserObject();
+			Shape first = table.get(lookup);
+			Shape shape = first;
+			while (shape != null && !shape.matches(key, userObject, children)) {
+				shape = shape.collision;
+			}
+			if (shape == null) {
+				shape = new Shape(distinct++, key, userObject, children, size);
+				shape.collision = first;
+				table.put(lookup, shape);
+			}
+			shapes[i] = shape;
+		}
+		return new HashConsedTree<>(shapes[0], distinct);
+	}
+
+	/**
+	 * Returns the number of nodes of the logical tree.
+	 */
+	public int size() {
+		return root.size;
+	}
+
+	/**
+	 * Returns the number of distinct subtrees stored, one node each.
+	 */
+	public int distinctCount() {
+		return shapeCount;
+	}
+
+	/**
+	 * Returns the root of the logical tree.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends TreeNode<K,V>> T getRoot() {
+		return (T) new Node(root, null, 0);
+	}
+
+	/**
+	 * A node of the logical tree: a shared subtree and the path it was
+	 * reached by.
+	 */
+	private final class Node extends AbstractTreeNode<K,V> {
+		private final Shape shape;
+		private final Node parent;
+		/** index of this node in its parent */
+		private final int index;
+		private final int level;
+		private final int hash;
+
+		Node(Shape shape, Node parent, int index) {
+			super();
+			this.shape = shape;
+			this.parent = parent;
+			this.index = index;
+			this.level = parent == null ? 0 : parent.level + 1;
+			this.hash = parent == null ? shape.id : parent.hash * 31 + index;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T extends TreeNode<K,V>> T getChildAt(int childIndex) {
+			if (childIndex < 0 || childIndex >= shape.children.length) {
+				throw new ArrayIndexOutOfBoundsException(childIndex);
+			}
+			return (T) new Node(shape.children[childIndex], this, childIndex);
+		}
+
+		@Override
+		public int childCount() {
+			return shape.children.length;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T extends TreeNode<K,V>> T getParent() {
+			return (T) parent;
+		}
+
+		@Override
+		public int getIndex(TreeNode<K,V> aChild) {
+			if (aChild == null) {
+				throw new IllegalArgumentException("argument is null");
+			}
+			return isNodeChild(aChild) ? ((Node) aChild).index : -1;
+		}
+
+		@Override
+		public int getLevel() {
+			return level;
+		}
+
+		@Override
+		public int totalCount() {
+			return shape.size;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public K getKey() {
+			return (K) shape.key;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public V getUserObject() {
+			return (V) shape.userObject;
+		}
+
+		private HashConsedTree<K,V> tree() {
+			return HashConsedTree.this;
+		}
+
+		/**
+		 * Two nodes are the same occurrence if they were reached by the
+		 * same child indexes from the root of the same tree.
+		 */
+		@Override
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			}
+			if (!(o instanceof HashConsedTree.Node)) {
+				return false;
+			}
+			@SuppressWarnings("unchecked")
+			Node other = (Node) o;
+			if (other.hash != hash || other.level != level || other.tree() != tree()) {
+				return false;
+			}
+			for (Node a = this, b = other; a != b; a = a.parent, b = b.parent) {
+				if (a.index != b.index || a.shape != b.shape) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
@@ -9,11 +9,14 @@ import java.lang.reflect.Array;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
-import java.util.EmptyStackException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * A Mutable TreeNode that supports key and value.
@@ -21,10 +24,11 @@ import java.util.NoSuchElementException;
  * The value is the user object that needs to be stored as part of the treenode
  *
  * If keys are not set the caller may use the enumerations to find a node
- * Computational cost to retrieve using keys is O(n)
+ * Retrieving by key path descends one level per path component
  *
- * PENDING:
- * Allow storing children in sorted order (by key or value)
+ * Children may be kept in sorted key order by setting a key comparator
+ * on the root (see <code>setKeyComparator</code>). Child lookup by key
+ * is then a binary search and path resolution descends by key.
  *
  * Not Thread-Safe Mutable Tree Node
  * Return TreeNode<V> to client if immutable-access is needed
@@ -47,8 +51,9 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	private static final String NEW_CHILD_IS_NULL = "new child is null";
 	private static final String NODE_DOES_NOT_ALLOW_CHILDREN = "node does not allow children";
 	private static final String ARGUMENT_IS_NULL = "argument is null";
-	private static final String NO_MORE_ELEMENTS = "No more elements";
 	private static final String NODE_HAS_NO_CHILDREN = "node has no children";
+	private static final String CHILD_INDEX_BREAKS_KEY_ORDER = "child index breaks key order";
+	private static final String CHILDREN_ARE_NOT_SORTED = "children are not sorted";
 	private static final String WSV_PAD = String.join("", Collections.nCopies(3, " "))+"|";
 	private static final String US_PAD = String.join("", Collections.nCopies(3, "_"));
 
@@ -57,6 +62,9 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	 */
 	private static final long serialVersionUID = -6943319042067178854L;
 
+	/** clock of the attach stamps of all trees */
+	private static final AtomicLong ATTACH_CLOCK = new AtomicLong();
+
 	/** this node's parent, or null if this node has no parent */
 	private MutableTreeNode<K,V>   parent;
 
@@ -72,6 +80,31 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	/** true if the node is able to have children */
 	private boolean allowsChildren;
 
+	/** index of this node in its parent's child array, 0 if this node has no parent */
+	private transient int childIndex;
+
+	/** key order of the children, shared by the whole tree; null if unsorted */
+	private Comparator<? super K> keyComparator;
+
+	/** listeners of the tree, shared by all of its nodes; null if there are none */
+	private transient TreeListenerList<K,V> listenerList;
+
+	/** where the children of a forked node are copied from; null once they are copied */
+	private transient volatile ForkSource<K,V> forkSource;
+
+	/** when this node last got a new parent, from <code>ATTACH_CLOCK</code>; 0 if never */
+	private transient long attachStamp;
+
+	/**
+	 * preorder offsets of the children's subtrees: entry i is the number of
+	 * nodes in the subtrees of children 0..i-1, the last entry the number
+	 * below this node; null if not known or if this node is a leaf.
+	 * Computed by readers, so volatile: concurrent readers of an unchanged
+	 * tree may compute the same offsets, and each publishes a complete
+	 * array that is never written again.
+	 */
+	private transient volatile int[] subtreeOffsets;
+
 
 	/**
 	 * Creates a tree node that has no parent and no children, but which
@@ -130,7 +163,9 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	 * parent), sets the child's parent to this node, and then adds the child
 	 * to this node's child array at index <code>childIndex</code>.
 	 * <code>newChild</code> must not be null and must not be an ancestor of
-	 * this node.
+	 * this node.  If this tree keeps its children sorted, the index must
+	 * keep the children in key order and <code>newChild</code>'s subtree
+	 * is sorted with the same comparator.
 	 *
 	 * @param   newChild        the MutableTreeNode to insert under this node
 	 * @param   childIndex      the index in this node's child array
@@ -139,10 +174,12 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	 *                          <code>childIndex</code> is out of bounds
 	 * @exception       IllegalArgumentException        if
 	 *                          <code>newChild</code> is null or is an
-	 *                          ancestor of this node
+	 *                          ancestor of this node, or if the index
+	 *                          breaks the key order of a sorted tree
 	 * @exception       IllegalStateException   if this node does not allow
 	 *                                          children
 	 * @see     #isNodeDescendant
+	 * @see     #setKeyComparator
 	 */
 	public void insert(MutableTreeNode<K,V> newChild, int childIndex) {
 		if (!allowsChildren) {
@@ -151,18 +188,52 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 			throw new IllegalArgumentException(NEW_CHILD_IS_NULL);
 		} else if (isNodeAncestor(newChild)) {
 			throw new IllegalArgumentException(NEW_CHILD_IS_AN_ANCESTOR);
+		} else if (childIndex < 0 || childIndex > childCount() - (newChild.parent == this ? 1 : 0)) {
+			throw new ArrayIndexOutOfBoundsException(childIndex);
+		} else if (keyComparator != null && !isKeyOrderedAt(newChild, childIndex)) {
+			throw new IllegalArgumentException(CHILD_INDEX_BREAKS_KEY_ORDER);
 		}
 
+		if (newChild.keyComparator != keyComparator) {
+			newChild.setKeyComparator(keyComparator);
+		}
 		MutableTreeNode<K,V> oldParent = newChild.getParent();
+		TreeMetrics metrics = TreeMetrics.active();
+		long start = metrics == null ? 0 : metrics.start();
 
-		if (oldParent != null) {
-			oldParent.remove(newChild);
+		boolean moving = oldParent != null && listenerList != null && oldParent.listenerList == listenerList;
+		if (moving) {
+			listenerList.setMoving(newChild);
 		}
-		newChild.setParent(this);
-		if (children == null) {
-			children = new ArrayList<>();
+		TreeListenerList<K,V> changing = null;
+		try {
+			if (oldParent != null) {
+				oldParent.remove(newChild);
+			}
+			if (newChild.listenerList != listenerList) {
+				newChild.setListenerList(listenerList);
+			}
+			changing = beginChange();
+			fireNodeWillChange();
+			newChild.setParent(this);
+			if (childList() == null) {
+				children = new ArrayList<>();
+			}
+			children.add(childIndex, newChild);
+			reindexChildren(childIndex);
+			invalidateSubtreeSizes();
+			if (listenerList != null) {
+				listenerList.fireNodeInserted(this, newChild, childIndex);
+			}
+			if (metrics != null) {
+				metrics.record(TreeMetrics.Operation.MUTATION, 1, start);
+			}
+		} finally {
+			endChange(changing);
+			if (moving) {
+				listenerList.setMoving(null);
+			}
 		}
-		children.add(childIndex, newChild);
 	}
 
 	/**
@@ -177,8 +248,132 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	 */
 	public void remove(int childIndex) {
 		MutableTreeNode<K,V> child = getChildAt(childIndex);
-		children.remove(childIndex);
-		child.setParent(null);
+		TreeMetrics metrics = TreeMetrics.active();
+		long start = metrics == null ? 0 : metrics.start();
+		TreeListenerList<K,V> changing = beginChange();
+		try {
+			fireNodeWillChange();
+			children.remove(childIndex);
+			reindexChildren(childIndex);
+			invalidateSubtreeSizes();
+			child.setParent(null);
+			child.childIndex = 0;
+			if (listenerList != null) {
+				listenerList.fireNodeRemoved(this, child, childIndex);
+			}
+		} finally {
+			endChange(changing);
+		}
+		if (metrics != null) {
+			metrics.record(TreeMetrics.Operation.MUTATION, 1, start);
+		}
+	}
+
+	/**
+	 * Appends <code>newChild</code> to this node's children without the
+	 * checks and events of <code>insert</code>.  For builders of new trees
+	 * that have no listeners and no key order, and that guarantee that
+	 * <code>newChild</code> has no parent and is not an ancestor of this
+	 * node.
+	 *
+	 * @param   newChild        the child to append
+	 * @param   expectedChildren        the number of children this node
+	 *                          will have, to size the child array
+	 */
+	void appendChild(MutableTreeNode<K,V> newChild, int expectedChildren) {
+		if (children == null) {
+			children = new ArrayList<>(expectedChildren);
+		}
+		newChild.parent = this;
+		newChild.childIndex = children.size();
+		children.add(newChild);
+		invalidateSubtreeSizes();
+	}
+
+	/**
+	 * Removes every child in <code>detached</code> from this node's child
+	 * array in one pass, giving them null parents, and reports it as one
+	 * <code>childrenReplaced</code>.  For <code>TreeBatch</code>.
+	 *
+	 * @param   detached        the children to remove
+	 */
+	void removeChildren(Set<MutableTreeNode<K,V>> detached) {
+		List<MutableTreeNode<K,V>> list = childList();
+		List<MutableTreeNode<K,V>> kept = new ArrayList<>(list.size());
+		TreeListenerList<K,V> changing = beginChange();
+		try {
+			fireNodeWillChange();
+			for (MutableTreeNode<K,V> child : list) {
+				if (detached.contains(child)) {
+					child.setParent(null);
+					child.childIndex = 0;
+				} else {
+					kept.add(child);
+				}
+			}
+			children = kept;
+			reindexChildren(0);
+			invalidateSubtreeSizes();
+			if (listenerList != null) {
+				listenerList.fireChildrenReplaced(this, list);
+			}
+		} finally {
+			endChange(changing);
+		}
+	}
+
+	/**
+	 * Replaces this node's child array with <code>newChildren</code>,
+	 * which holds every current child plus new children that have no
+	 * parent, and reports it as one <code>childrenReplaced</code>.  New
+	 * children take on this node's key comparator and listeners.  For
+	 * <code>TreeBatch</code>.
+	 *
+	 * @param   newChildren     the new child array, in order
+	 */
+	void setChildren(List<MutableTreeNode<K,V>> newChildren) {
+		List<MutableTreeNode<K,V>> oldChildren = childList() == null
+				? Collections.<MutableTreeNode<K,V>>emptyList() : children;
+		for (MutableTreeNode<K,V> child : newChildren) {
+			if (child.parent != this) {
+				if (child.keyComparator != keyComparator) {
+					child.setKeyComparator(keyComparator);
+				}
+				if (child.listenerList != listenerList) {
+					child.setListenerList(listenerList);
+				}
+			}
+		}
+		TreeListenerList<K,V> changing = beginChange();
+		try {
+			fireNodeWillChange();
+			for (MutableTreeNode<K,V> child : newChildren) {
+				if (child.parent != this) {
+					child.setParent(this);
+				}
+			}
+			children = newChildren;
+			reindexChildren(0);
+			invalidateSubtreeSizes();
+			if (listenerList != null) {
+				listenerList.fireChildrenReplaced(this, oldChildren);
+			}
+		} finally {
+			endChange(changing);
+		}
+	}
+
+	/**
+	 * Renumbers the children from <code>fromIndex</code> to the end of this
+	 * node's child array so that each child knows its own index.  Appending
+	 * a child renumbers only that child.
+	 *
+	 * @param   fromIndex       the first index whose child may have moved
+	 */
+	private void reindexChildren(int fromIndex) {
+		for (int i = fromIndex, n = childCount(); i < n; i++) {
+			children.get(i).childIndex = i;
+		}
 	}
 
 	/**
@@ -193,6 +388,25 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	@Transient
 	public void setParent(MutableTreeNode<K,V> newParent) {
 		parent = newParent;
+		attachStamp = ATTACH_CLOCK.incrementAndGet();
+	}
+
+	/**
+	 * Returns when this node last got a new parent.  A node's tree path
+	 * is unchanged since time <code>t</code> if neither the node nor any
+	 * of its ancestors has an attach stamp later than <code>t</code>.
+	 *
+	 * @see #attachClock
+	 */
+	long attachStamp() {
+		return attachStamp;
+	}
+
+	/**
+	 * Returns the current time of the attach stamps.
+	 */
+	static long attachClock() {
+		return ATTACH_CLOCK.get();
 	}
 
 	/**
@@ -217,7 +431,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T extends TreeNode<K,V>> T getChildAt(int index) {
-		if (children == null) {
+		if (childList() == null) {
 			throw new ArrayIndexOutOfBoundsException(NODE_HAS_NO_CHILDREN);
 		}
 		return (T) children.get(index);
@@ -230,29 +444,143 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	 */
 	@Override
 	public int childCount() {
-		if (children == null) {
+		if (childList() == null) {
 			return 0;
 		} else {
 			return children.size();
 		}
 	}
 
+	/**
+	 * Returns the number of nodes in the subtree rooted at this node.
+	 * Subtree sizes are kept once computed and recomputed only along the
+	 * path of a change, so this is O(1) on an unchanged tree.
+	 * Like the other reads, safe from several threads at once while the
+	 * tree is not changing.
+	 */
 	@Override
 	public int totalCount() {
-		int count = 0;
-		Iterator<MutableTreeNode<K,V>> iter = breadthFirstEnumeration(); // order matters not
-		while (iter.hasNext()) {
-			if (iter.next() != null)
-				count++;
+		int[] offsets = subtreeOffsets();
+		return offsets == null ? 1 : offsets[offsets.length - 1] + 1;
+	}
+
+	/**
+	 * Returns the node at <code>index</code> in the preorder enumeration
+	 * of the subtree rooted at this node; index 0 is this node.  The
+	 * node is found by descending with the subtree sizes, a binary search
+	 * per level, so paging through a large tree can start anywhere and
+	 * continue with <code>getNextNode()</code>.
+	 *
+	 * @param   index   a position in preorder
+	 * @exception       ArrayIndexOutOfBoundsException  if <code>index</code>
+	 *                  is negative or not less than <code>totalCount()</code>
+	 * @return  the node at <code>index</code>
+	 * @see     #getPreorderIndex
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends TreeNode<K,V>> T getPreorderNode(int index) {
+		if (index < 0 || index >= totalCount()) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		MutableTreeNode<K,V> node = this;
+		int remaining = index;
+		while (remaining > 0) {
+			int[] offsets = node.subtreeOffsets();
+			remaining--;
+			// the last child whose subtree starts at or before remaining
+			int low = 0;
+			int high = offsets.length - 2;
+			while (low < high) {
+				int mid = (low + high + 1) >>> 1;
+				if (offsets[mid] <= remaining) {
+					low = mid;
+				} else {
+					high = mid - 1;
+				}
+			}
+			remaining -= offsets[low];
+			node = node.children.get(low);
+		}
+		return (T) node;
+	}
+
+	/**
+	 * Returns the position of this node in the preorder enumeration of its
+	 * tree, 0 for the root.  O(d) for a node at depth d once the subtree
+	 * sizes along the path are known.
+	 *
+	 * @return  the preorder index of this node from the root
+	 * @see     #getPreorderNode
+	 */
+	public int getPreorderIndex() {
+		int index = 0;
+		for (MutableTreeNode<K,V> node = this; node.parent != null; node = node.parent) {
+			index += node.parent.subtreeOffsets()[node.childIndex] + 1;
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the subtree offsets of this node, computing them and those
+	 * of any descendant that is not known, without recursion; null for a
+	 * leaf.
+	 */
+	private int[] subtreeOffsets() {
+		int[] known = subtreeOffsets;
+		if (known != null || childCount() == 0) {
+			return known;
+		}
+		TreeMetrics metrics = TreeMetrics.active();
+		long start = metrics == null ? 0 : metrics.start();
+		int rebuilt = 0;
+		Deque<MutableTreeNode<K,V>> stack = new ArrayDeque<>();
+		stack.push(this);
+		while (!stack.isEmpty()) {
+			MutableTreeNode<K,V> node = stack.peek();
+			boolean ready = true;
+			for (MutableTreeNode<K,V> child : node.childList()) {
+				if (child.subtreeOffsets == null && child.childCount() > 0) {
+					stack.push(child);
+					ready = false;
+				}
+			}
+			if (ready) {
+				stack.pop();
+				List<MutableTreeNode<K,V>> list = node.children;
+				int[] offsets = new int[list.size() + 1];
+				for (int i = 0, n = list.size(); i < n; i++) {
+					int[] childOffsets = list.get(i).subtreeOffsets;
+					offsets[i + 1] = offsets[i] + (childOffsets == null ? 1 : childOffsets[childOffsets.length - 1] + 1);
+				}
+				node.subtreeOffsets = offsets;
+				known = offsets;
+				rebuilt++;
+			}
+		}
+		if (metrics != null) {
+			metrics.record(TreeMetrics.Operation.REBUILD, rebuilt, start);
+		}
+		// this node is the last one done
+		return known;
+	}
+
+	/**
+	 * Forgets the subtree sizes of this node and its ancestors after a
+	 * change to its children.  An ancestor of a node whose sizes are not
+	 * known never has known sizes, so the walk stops at the first one.
+	 */
+	private void invalidateSubtreeSizes() {
+		subtreeOffsets = null;
+		for (MutableTreeNode<K,V> node = parent; node != null && node.subtreeOffsets != null; node = node.parent) {
+			node.subtreeOffsets = null;
 		}
-		return count;
 	}
 
 	/**
 	 * Returns the index of the specified child in this node's child array.
 	 * If the specified node is not a child of this node, returns
-	 * <code>-1</code>.  This method performs a linear search and is O(n)
-	 * where n is the number of children.
+	 * <code>-1</code>.  Each child keeps its own index up to date across
+	 * <code>insert</code> and <code>remove</code>, so this method is O(1).
 	 *
 	 * @param   aChild  the TreeNode to search for among this node's children
 	 * @exception       IllegalArgumentException        if <code>aChild</code>
@@ -270,7 +598,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 		if (!isNodeChild(aChild)) {
 			return -1;
 		}
-		return children.indexOf(aChild);        // linear search
+		return ((MutableTreeNode<K,V>) aChild).childIndex;
 	}
 
 	/**
@@ -283,7 +611,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T extends TreeNode<K,V>> Iterator<T> iterator() {
-		if (children == null) {
+		if (childList() == null) {
 			return Collections.emptyIterator();
 		} else {
 			return (Iterator<T>) children.iterator();
@@ -327,7 +655,22 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	 * @see     #toString
 	 */
 	public void setUserObject(V userObject) {
-		this.userObject = userObject;
+		TreeMetrics metrics = TreeMetrics.active();
+		long start = metrics == null ? 0 : metrics.start();
+		V oldUserObject = this.userObject;
+		TreeListenerList<K,V> changing = beginChange();
+		try {
+			fireNodeWillChange();
+			this.userObject = userObject;
+			if (listenerList != null) {
+				listenerList.fireUserObjectChanged(this, oldUserObject);
+			}
+		} finally {
+			endChange(changing);
+		}
+		if (metrics != null) {
+			metrics.record(TreeMetrics.Operation.MUTATION, 1, start);
+		}
 	}
 
 	/**
@@ -378,7 +721,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 		if (!isNodeChild(aChild)) {
 			throw new IllegalArgumentException(ARGUMENT_IS_NOT_A_CHILD);
 		}
-		remove(getIndex(aChild));       // linear search
+		remove(getIndex(aChild));
 	}
 
 	/**
@@ -393,7 +736,8 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 
 	/**
 	 * Removes <code>newChild</code> from its parent and makes it a child of
-	 * this node by adding it to the end of this node's child array.
+	 * this node by adding it to the end of this node's child array, or at
+	 * its key position if the children are sorted.
 	 *
 	 * @see             #insert
 	 * @param   newChild        node to add as a child of this node
@@ -403,14 +747,357 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	 *                                          children
 	 */
 	public void add(MutableTreeNode<K,V> newChild) {
-		if(newChild != null && newChild.getParent() == this)
+		if (newChild != null && keyComparator != null) {
+			if (newChild.getParent() != this)
+				insert(newChild, searchChildren(newChild.key, true));
+		} else if(newChild != null && newChild.getParent() == this)
 			insert(newChild, childCount() - 1);
 		else
 			insert(newChild, childCount());
 	}
 
+	/**
+	 * Runs <code>operations</code> on a batch and applies the moves,
+	 * insertions and removals it records at once.  The batch is validated
+	 * as a whole before anything changes, so the tree is left as it was
+	 * if an operation is invalid; each child array is then rebuilt once
+	 * instead of once per change.
+	 *
+	 * @see     TreeBatch
+	 * @param   operations      records the changes on the batch it is given
+	 * @exception       IllegalArgumentException        if a change would
+	 *                          make a node its own ancestor, or if a node is
+	 *                          changed twice
+	 * @exception       ArrayIndexOutOfBoundsException  if an index is out
+	 *                          of bounds
+	 * @exception       IllegalStateException   if a new parent does not
+	 *                                          allow children
+	 */
+	public void batch(Consumer<? super TreeBatch<K,V>> operations) {
+		TreeBatch<K,V> batch = new TreeBatch<>();
+		operations.accept(batch);
+		batch.commit();
+	}
+
+	//
+	//  Sorted Children
+	//
+
+	/**
+	 * Keeps the children of every node in the subtree rooted at this node
+	 * sorted by key.  The existing children are sorted (stable), and from
+	 * then on <code>add</code> places a child at its key position and
+	 * <code>insert</code> rejects indexes that would break the order.  A
+	 * child inserted into a sorted tree takes on the tree's comparator.
+	 * Setting this on the root makes it a per-tree setting.
+	 * <p>
+	 * Keys are passed to the comparator as is, so trees with null keys need
+	 * a null-tolerant comparator.  As with <code>TreeMap</code>, the
+	 * comparator must be serializable for the tree to be serializable.
+	 *
+	 * @param   comparator      the key order, or null to stop keeping the
+	 *                          children sorted (the current order is kept)
+	 */
+	public void setKeyComparator(Comparator<? super K> comparator) {
+		Comparator<MutableTreeNode<K,V>> byKey = comparator == null ? null :
+			(MutableTreeNode<K,V> a, MutableTreeNode<K,V> b) -> comparator.compare(a.key, b.key);
+		Deque<MutableTreeNode<K,V>> stack = new ArrayDeque<>();
+		stack.push(this);
+		while (!stack.isEmpty()) {
+			MutableTreeNode<K,V> node = stack.pop();
+			node.keyComparator = comparator;
+			if (node.childList() != null) {
+				if (byKey != null) {
+					TreeListenerList<K,V> changing = node.beginChange();
+					try {
+						node.fireNodeWillChange();
+						node.children.sort(byKey);
+						node.reindexChildren(0);
+						node.invalidateSubtreeSizes();
+						if (node.listenerList != null) {
+							node.listenerList.fireChildrenReordered(node);
+						}
+					} finally {
+						endChange(changing);
+					}
+				}
+				for (MutableTreeNode<K,V> child : node.children) {
+					stack.push(child);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the comparator that keeps this node's children sorted by key.
+	 *
+	 * @return  the key order, or null if the children are not sorted
+	 */
+	public Comparator<? super K> getKeyComparator() {
+		return keyComparator;
+	}
+
+	/**
+	 * Returns the first child whose key equals <code>key</code>.  If the
+	 * children are sorted this is a binary search and O(log n), otherwise
+	 * it is a linear search and O(n) where n is the number of children.
+	 *
+	 * @param   key     the key of the child
+	 * @return  the child, or null if there is no child with that key
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T extends TreeNode<K,V>> T getChild(K key) {
+		if (key == null || childList() == null) {
+			return null;
+		}
+		if (keyComparator == null) {
+			for (MutableTreeNode<K,V> child : children) {
+				if (key.equals(child.key)) {
+					return (T) child;
+				}
+			}
+			return null;
+		}
+		int index = searchChildren(key, false);
+		if (index < children.size() && keyComparator.compare(children.get(index).key, key) == 0) {
+			return (T) children.get(index);
+		}
+		return null;
+	}
+
+	/**
+	 * Creates and returns a forward-order enumeration of the children whose
+	 * keys lie in the range <code>[fromKey, toKey)</code>.  The range is
+	 * located by binary search, so this is O(log n) plus the size of the
+	 * range.
+	 *
+	 * @see     #childRange(Serializable, boolean, Serializable, boolean)
+	 * @exception       IllegalStateException   if the children are not sorted
+	 * @return  an iterator over the children in the key range
+	 */
+	public <T extends TreeNode<K,V>> Iterator<T> childRange(K fromKey, K toKey) {
+		return childRange(fromKey, true, toKey, false);
+	}
+
+	/**
+	 * Creates and returns a forward-order enumeration of the children whose
+	 * keys lie between <code>fromKey</code> and <code>toKey</code>.
+	 * Modifying this node's child array invalidates the enumeration.
+	 *
+	 * @param   fromKey         low end of the range
+	 * @param   fromInclusive   true if the low end is included
+	 * @param   toKey           high end of the range
+	 * @param   toInclusive     true if the high end is included
+	 * @exception       IllegalStateException   if the children are not sorted
+	 * @return  an iterator over the children in the key range
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends TreeNode<K,V>> Iterator<T> childRange(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+		if (keyComparator == null) {
+			throw new IllegalStateException(CHILDREN_ARE_NOT_SORTED);
+		}
+		if (childList() == null) {
+			return Collections.emptyIterator();
+		}
+		int from = searchChildren(fromKey, !fromInclusive);
+		int to = searchChildren(toKey, toInclusive);
+		if (from >= to) {
+			return Collections.emptyIterator();
+		}
+		return (Iterator<T>) children.subList(from, to).iterator();
+	}
+
+	/**
+	 * Binary search of the sorted children.
+	 *
+	 * @param   aKey    the key to search for
+	 * @param   after   false for the first index whose key is not less than
+	 *                  <code>aKey</code>, true for the first index whose key
+	 *                  is greater than <code>aKey</code>
+	 * @return  an index between 0 and <code>childCount()</code>
+	 */
+	private int searchChildren(K aKey, boolean after) {
+		int low = 0;
+		int high = childCount();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int cmp = keyComparator.compare(children.get(mid).key, aKey);
+			if (cmp < 0 || (after && cmp == 0)) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns true if inserting <code>newChild</code> at
+	 * <code>childIndex</code> keeps the children in key order.  The index
+	 * is taken after <code>newChild</code> has left its old position.
+	 */
+	private boolean isKeyOrderedAt(MutableTreeNode<K,V> newChild, int childIndex) {
+		int before = childIndex - 1;
+		int after = childIndex;
+		if (newChild.parent == this) {
+			if (before >= newChild.childIndex)
+				before++;
+			if (after >= newChild.childIndex)
+				after++;
+		}
+		int count = childCount();
+		if (before >= 0 && before < count
+				&& keyComparator.compare(children.get(before).key, newChild.key) > 0) {
+			return false;
+		}
+		return after >= count || after < 0
+				|| keyComparator.compare(newChild.key, children.get(after).key) <= 0;
+	}
+
+
 
 
+	//
+	//  Tree Listeners
+	//
+
+	/**
+	 * Adds a listener to the tree that contains this node.  The listener
+	 * hears about changes to every node of the tree, including nodes
+	 * inserted later.  The first listener of a tree is O(n) to attach
+	 * where n is the number of nodes, later ones are O(1).
+	 *
+	 * @param   listener        the listener to add
+	 * @exception       IllegalArgumentException        if
+	 *                          <code>listener</code> is null
+	 * @see     TreeListener
+	 */
+	public void addTreeListener(TreeListener<K,V> listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException(ARGUMENT_IS_NULL);
+		}
+		installListenerList().add(listener);
+	}
+
+	/**
+	 * Removes a listener from the tree that contains this node.
+	 *
+	 * @param   listener        the listener to remove
+	 * @return  true if the listener was registered with the tree
+	 */
+	public boolean removeTreeListener(TreeListener<K,V> listener) {
+		MutableTreeNode<K,V> root = getRoot();
+		return root.listenerList != null && root.listenerList.remove(listener);
+	}
+
+	/**
+	 * Returns the listeners of the tree that contains this node.
+	 *
+	 * @return  the listeners, an empty array if there are none
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public TreeListener<K,V>[] getTreeListeners() {
+		return listenerList == null ? new TreeListener[0] : listenerList.getListeners().clone();
+	}
+
+	/**
+	 * Opens a read-only snapshot of the subtree rooted at this node as it
+	 * is now.  Readers of the snapshot see a consistent tree without
+	 * locking, from any thread, while this tree goes on changing; the
+	 * tree keeps the old states of changed nodes until the snapshots that
+	 * can see them are closed.
+	 * <p>
+	 * Version tracking is installed while snapshots are open and removed
+	 * when the last one closes, so a tree without open snapshots changes
+	 * without locking.  The first snapshot of a tree that has no
+	 * listeners gives every node a listener list, so it must be opened by
+	 * the writer or while no one is writing; later snapshots may be
+	 * opened from any thread.
+	 *
+	 * @return  a snapshot that must be closed after use
+	 * @see     TreeSnapshot
+	 */
+	public TreeSnapshot<K,V> openSnapshot() {
+		return new TreeSnapshot<>(this);
+	}
+
+	/**
+	 * Makes every node in the subtree rooted at this node report to
+	 * <code>list</code>.  Forked children that are not copied yet take
+	 * the list from their parent when they are copied.
+	 */
+	private void setListenerList(TreeListenerList<K,V> list) {
+		Deque<MutableTreeNode<K,V>> stack = new ArrayDeque<>();
+		stack.push(this);
+		while (!stack.isEmpty()) {
+			MutableTreeNode<K,V> node = stack.pop();
+			node.listenerList = list;
+			if (node.children != null) {
+				for (MutableTreeNode<K,V> child : node.children) {
+					stack.push(child);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts a change to this node; the caller ends it with
+	 * <code>endChange</code> in a finally block, so that the snapshots of
+	 * the tree are never left locked by a change or a listener that
+	 * throws.
+	 *
+	 * @return  the listener list the change was started on, or null
+	 */
+	private TreeListenerList<K,V> beginChange() {
+		TreeListenerList<K,V> list = listenerList;
+		if (list != null) {
+			list.beginChange(this);
+		}
+		return list;
+	}
+
+	private static <K extends Serializable,V> void endChange(TreeListenerList<K,V> list) {
+		if (list != null) {
+			list.endChange();
+		}
+	}
+
+	private void fireNodeWillChange() {
+		if (listenerList != null) {
+			listenerList.fireNodeWillChange(this);
+		}
+	}
+
+	/**
+	 * Returns the listener list of the tree, giving the tree an empty one
+	 * if it has none.
+	 */
+	TreeListenerList<K,V> installListenerList() {
+		MutableTreeNode<K,V> root = getRoot();
+		if (root.listenerList == null) {
+			root.setListenerList(new TreeListenerList<>());
+		}
+		return root.listenerList;
+	}
+
+	/**
+	 * Returns the listener list of the tree, null if it has none.
+	 */
+	TreeListenerList<K,V> listenerList() {
+		return listenerList;
+	}
+
+	/**
+	 * Returns a copy of the child array.  Used by readers that race with
+	 * the writer and validate what they read afterwards, so a torn read
+	 * must not fail.
+	 */
+	Object[] childArray() {
+		List<MutableTreeNode<K,V>> list = childList();
+		return list == null ? new Object[0] : list.toArray();
+	}
+
 	//
 	//  Tree Queries
 	//
@@ -791,7 +1478,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	@Override
 	@SuppressWarnings("unchecked")
 	public  <T extends TreeNode<K,V>> Iterator<T> preOrderEnumeration() {
-		return new PreorderEnumeration<>((T)this);
+		return new TreeEnumerations.PreorderEnumeration<>((T)this);
 	}
 
 	/**
@@ -810,7 +1497,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	@Override
 	@SuppressWarnings("unchecked")
 	public <T extends TreeNode<K,V>> Iterator<T> postOrderEnumeration() {
-		return new PostorderEnumeration<>((T) this);
+		return new TreeEnumerations.PostorderEnumeration<>((T) this);
 	}
 
 	/**
@@ -827,7 +1514,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	@Override
 	@SuppressWarnings("unchecked")
 	public <T extends TreeNode<K,V>> Iterator<T> breadthFirstEnumeration() {
-		return new BreadthFirstEnumeration<>((T)this);
+		return new TreeEnumerations.BreadthFirstEnumeration<>((T)this);
 	}
 
 	/**
@@ -870,7 +1557,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	 */
 	@SuppressWarnings("unchecked")
 	public <T extends TreeNode<K,V>> Iterator<T> pathFromAncestorEnumeration(T ancestor) {
-		return new PathBetweenNodesEnumeration<>(ancestor, (T)this);
+		return new TreeEnumerations.PathBetweenNodesEnumeration<>(ancestor, (T)this);
 	}
 
 
@@ -937,9 +1624,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	 * Returns the child in this node's child array that immediately
 	 * follows <code>aChild</code>, which must be a child of this node.  If
 	 * <code>aChild</code> is the last child, returns null.  This method
-	 * performs a linear search of this node's children for
-	 * <code>aChild</code> and is O(n) where n is the number of children; to
-	 * traverse the entire array of children, use an enumeration instead.
+	 * is O(1) since <code>aChild</code> knows its own index.
 	 *
 	 * @see             #children
 	 * @exception       IllegalArgumentException if <code>aChild</code> is
@@ -953,7 +1638,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 			throw new IllegalArgumentException(ARGUMENT_IS_NULL);
 		}
 
-		int index = getIndex(aChild);           // linear search
+		int index = getIndex(aChild);
 
 		if (index == -1) {
 			throw new IllegalArgumentException(NODE_IS_NOT_A_CHILD);
@@ -971,8 +1656,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	 * Returns the child in this node's child array that immediately
 	 * precedes <code>aChild</code>, which must be a child of this node.  If
 	 * <code>aChild</code> is the first child, returns null.  This method
-	 * performs a linear search of this node's children for <code>aChild</code>
-	 * and is O(n) where n is the number of children.
+	 * is O(1) since <code>aChild</code> knows its own index.
 	 *
 	 * @exception       IllegalArgumentException if <code>aChild</code> is null
 	 *                                          or is not a child of this node
@@ -985,7 +1669,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 			throw new IllegalArgumentException(ARGUMENT_IS_NULL);
 		}
 
-		int index = getIndex(aChild);           // linear search
+		int index = getIndex(aChild);
 
 		if (index == -1) {
 			throw new IllegalArgumentException(ARGUMENT_IS_NOT_A_CHILD);
@@ -1053,9 +1737,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	/**
 	 * Returns the next sibling of this node in the parent's children array.
 	 * Returns null if this node has no parent or is the parent's last child.
-	 * This method performs a linear search that is O(n) where n is the number
-	 * of children; to traverse the entire array, use the parent's child
-	 * enumeration instead.
+	 * This method is O(1).
 	 *
 	 * @see     #children
 	 * @return  the sibling of this node that immediately follows this node
@@ -1069,7 +1751,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 		if (myParent == null) {
 			retval = null;
 		} else {
-			retval = myParent.getChildAfter(this);      // linear search
+			retval = myParent.getChildAfter(this);
 		}
 
 		if (retval != null && !isNodeSibling(retval)) {
@@ -1083,8 +1765,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	/**
 	 * Returns the previous sibling of this node in the parent's children
 	 * array.  Returns null if this node has no parent or is the parent's
-	 * first child.  This method performs a linear search that is O(n) where n
-	 * is the number of children.
+	 * first child.  This method is O(1).
 	 *
 	 * @return  the sibling of this node that immediately precedes this node
 	 */
@@ -1097,7 +1778,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 		if (myParent == null) {
 			retval = null;
 		} else {
-			retval = myParent.getChildBefore(this);     // linear search
+			retval = myParent.getChildBefore(this);
 		}
 
 		if (retval != null && !isNodeSibling(retval)) {
@@ -1174,13 +1855,8 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	 * Returns the leaf after this node or null if this node is the
 	 * last leaf in the tree.
 	 * <p>
-	 * In this implementation of the <code>MutableNode</code> interface,
-	 * this operation is very inefficient. In order to determine the
-	 * next node, this method first performs a linear search in the
-	 * parent's child-list in order to find the current node.
-	 * <p>
-	 * That implementation makes the operation suitable for short
-	 * traversals from a known position. But to traverse all of the
+	 * Stepping to a sibling is O(1), which makes the operation suitable
+	 * for short traversals from a known position. But to traverse all of the
 	 * leaves in the tree, you should use <code>depthFirstEnumeration</code>
 	 * to enumerate the nodes in the tree and use <code>isLeaf</code>
 	 * on each node to determine which are leaves.
@@ -1196,7 +1872,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 		if (myParent == null)
 			return null;
 
-		nextSibling = getNextSibling(); // linear search
+		nextSibling = getNextSibling();
 
 		if (nextSibling != null)
 			return nextSibling.getFirstLeaf();
@@ -1209,13 +1885,8 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	 * Returns the leaf before this node or null if this node is the
 	 * first leaf in the tree.
 	 * <p>
-	 * In this implementation of the <code>MutableNode</code> interface,
-	 * this operation is very inefficient. In order to determine the
-	 * previous node, this method first performs a linear search in the
-	 * parent's child-list in order to find the current node.
-	 * <p>
-	 * That implementation makes the operation suitable for short
-	 * traversals from a known position. But to traverse all of the
+	 * Stepping to a sibling is O(1), which makes the operation suitable
+	 * for short traversals from a known position. But to traverse all of the
 	 * leaves in the tree, you should use <code>depthFirstEnumeration</code>
 	 * to enumerate the nodes in the tree and use <code>isLeaf</code>
 	 * on each node to determine which are leaves.
@@ -1231,7 +1902,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 		if (myParent == null)
 			return null;
 
-		previousSibling = getPreviousSibling(); // linear search
+		previousSibling = getPreviousSibling();
 
 		if (previousSibling != null)
 			return previousSibling.getLastLeaf();
@@ -1304,6 +1975,11 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 			// shallow copy -- the new node has no parent or children
 			newNode.children = null;
 			newNode.parent = null;
+			newNode.childIndex = 0;
+			newNode.listenerList = null;
+			newNode.forkSource = null;
+			newNode.attachStamp = 0;
+			newNode.subtreeOffsets = null;
 
 		} catch (CloneNotSupportedException e) {
 			// Won't happen because we implement Cloneable
@@ -1314,10 +1990,169 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	}
 
 
+	/**
+	 * Returns a deep copy of the subtree rooted at this node.  Every node
+	 * is cloned (see <code>clone()</code>) and the copies are linked in the
+	 * same shape, so keys and user objects are shared, not copied.  The
+	 * copy has no parent and no listeners.
+	 *
+	 * The copy is made without recursion, so it does not overflow the stack
+	 * on deep trees, and each child array is allocated at its final size.
+	 *
+	 * @return  the root of the copy
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends MutableTreeNode<K,V>> T deepCopy() {
+		MutableTreeNode<K,V> top = (MutableTreeNode<K,V>) clone();
+		Deque<MutableTreeNode<K,V>> stack = new ArrayDeque<>();
+		stack.push(this);
+		stack.push(top);
+		while (!stack.isEmpty()) {
+			MutableTreeNode<K,V> copy = stack.pop();
+			MutableTreeNode<K,V> source = stack.pop();
+			List<MutableTreeNode<K,V>> sourceChildren = source.childList();
+			if (sourceChildren == null) {
+				continue;
+			}
+			int n = sourceChildren.size();
+			List<MutableTreeNode<K,V>> copies = new ArrayList<>(n);
+			for (int i = 0; i < n; i++) {
+				MutableTreeNode<K,V> child = sourceChildren.get(i);
+				MutableTreeNode<K,V> childCopy = (MutableTreeNode<K,V>) child.clone();
+				childCopy.parent = copy;
+				childCopy.childIndex = i;
+				copies.add(childCopy);
+				stack.push(child);
+				stack.push(childCopy);
+			}
+			copy.children = copies;
+		}
+		return (T) top;
+	}
+
+	/**
+	 * Returns a copy of the subtree rooted at this node that is made
+	 * lazily.  Forking is O(1): the fork reads from a snapshot of this
+	 * subtree, and the children of a forked node are copied the first time
+	 * they are read or changed, so subtrees that are never visited are
+	 * never copied.  Later changes to this tree do not show in the fork
+	 * and changes to the fork do not show here.
+	 *
+	 * Copying is not limited to changes: any read of a node's children
+	 * copies them, a level at a time (<code>getChildAt</code>,
+	 * <code>childCount</code>, iteration and the enumerations), so a
+	 * read-only traversal of the whole fork copies all of it.  Treat a
+	 * fork as a copy to change, going straight to the parts to change, or
+	 * <code>materialize()</code> it; to read the old state without
+	 * copying, use <code>openSnapshot()</code> instead.
+	 *
+	 * Until every node of the fork has been copied, this tree keeps the
+	 * old states of the nodes it changes for the fork.  Close the fork,
+	 * which copies what is left, or <code>materialize()</code> it, so
+	 * that this tree stops keeping them.  Must be called on this tree's
+	 * writer thread; the fork may be read from any thread.
+	 *
+	 * @return  the fork, whose root has no parent
+	 * @see     #deepCopy
+	 * @see     TreeFork
+	 */
+	public TreeFork<K,V> fork() {
+		TreeSnapshot<K,V> snapshot = openSnapshot();
+		TreeFork<K,V> fork = new TreeFork<>(snapshot);
+		fork.setRoot(copyOf(fork, snapshot, null, 0));
+		return fork;
+	}
+
+	/**
+	 * Copies the forked children in the subtree rooted at this node that
+	 * have not been copied yet, so the subtree no longer depends on the
+	 * tree it was forked from.  Does nothing for nodes that are not forked.
+	 *
+	 * @see     #fork
+	 */
+	public void materialize() {
+		Deque<MutableTreeNode<K,V>> stack = new ArrayDeque<>();
+		stack.push(this);
+		while (!stack.isEmpty()) {
+			List<MutableTreeNode<K,V>> list = stack.pop().childList();
+			if (list != null) {
+				for (MutableTreeNode<K,V> child : list) {
+					stack.push(child);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the child array, copying it first if this node is forked.
+	 * Every read of the children goes through here.
+	 */
+	private List<MutableTreeNode<K,V>> childList() {
+		if (forkSource != null) {
+			copyForkedChildren();
+		}
+		return children;
+	}
+
+	/**
+	 * Copies the children of a forked node from the snapshot.  Readers of
+	 * the fork may race to do this, hence the lock.
+	 */
+	private synchronized void copyForkedChildren() {
+		ForkSource<K,V> source = forkSource;
+		if (source == null) {
+			return;
+		}
+		TreeSnapshot<K,V> view = source.view;
+		int n = view.childCount();
+		List<MutableTreeNode<K,V>> list = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			list.add(copyOf(source.fork, view.getChildAt(i), this, i));
+		}
+		children = list;
+		forkSource = null;
+		source.fork.copied(this);
+	}
+
+	/**
+	 * Copies the node of <code>view</code> without its children, which
+	 * are copied when first read.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <K extends Serializable,V> MutableTreeNode<K,V> copyOf(TreeFork<K,V> fork,
+			TreeSnapshot<K,V> view, MutableTreeNode<K,V> parent, int index) {
+		MutableTreeNode<K,V> copy = (MutableTreeNode<K,V>) view.getNode().clone();
+		copy.userObject = view.getUserObject();
+		if (parent != null) {
+			copy.parent = parent;
+			copy.childIndex = index;
+			copy.listenerList = parent.listenerList;
+		}
+		if (view.childCount() > 0) {
+			copy.forkSource = new ForkSource<>(view, fork);
+			fork.pending(copy);
+		} else if (parent == null) {
+			fork.close();
+		}
+		return copy;
+	}
+
+	/** the snapshot node a forked node copies its children from */
+	private static final class ForkSource<K extends Serializable,V> {
+		final TreeSnapshot<K,V> view;
+		final TreeFork<K,V> fork;
+
+		ForkSource(TreeSnapshot<K,V> view, TreeFork<K,V> fork) {
+			this.view = view;
+			this.fork = fork;
+		}
+	}
+
 	// Serialization support.
 	private void writeObject(ObjectOutputStream s) throws IOException {
 		Object[] tValues;
 
+		childList();
 		s.defaultWriteObject();
 		// Save the userObject, if its Serializable.
 		if(userObject != null && userObject instanceof Serializable) {
@@ -1337,6 +2172,10 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 		Object[] tValues;
 
 		s.defaultReadObject();
+		// child indexes are not serialized; the children are complete by now
+		if (children != null) {
+			reindexChildren(0);
+		}
 
 		tValues = (Object[])s.readObject();
 
@@ -1346,257 +2185,82 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 		}
 	}
 
-	private final class PreorderEnumeration<T extends TreeNode<K,V>> implements Iterator<T> {
-		private final ArrayDeque<Iterator<T>> stack = new ArrayDeque<>();
-
-		public PreorderEnumeration(T rootNode) {
-			super();
-			List<T> v = new ArrayList<>(1);
-			v.add(rootNode);     // PENDING: don't really need a vector
-			stack.push(v.iterator());
-		}
-
-		@Override
-		public boolean hasNext() {
-			return (!stack.isEmpty() && stack.peek().hasNext());
-		}
-
-		@Override
-		public T next() {
-			Iterator<T> enumer = stack.peek();
-			T node = enumer.next();
-			Iterator<T> iter = node.iterator();
-
-			if (!enumer.hasNext()) {
-				stack.pop();
-			}
-			if (iter.hasNext()) {
-				stack.push(iter);
-			}
-			return node;
-		}
-
-	}  // End of class PreorderEnumeration
-
-
-
-	final class PostorderEnumeration<T extends TreeNode<K,V>> implements Iterator<T> {
-		protected T root;
-		protected Iterator<T> children;
-		protected Iterator<T> subtree;
-
-		public PostorderEnumeration(T rootNode) {
-			super();
-			root = rootNode;
-			children = root.iterator();
-			subtree = Collections.emptyIterator();
-		}
-
-		@Override
-		public boolean hasNext() {
-			return root != null;
-		}
-
-		@Override
-		public T next() {
-			T retval;
-
-			if (subtree.hasNext()) {
-				retval = subtree.next();
-			} else if (children.hasNext()) {
-				subtree = new PostorderEnumeration<>(children.next());
-				retval = subtree.next();
-			} else {
-				retval = root;
-				root = null;
-			}
-
-			return retval;
-		}
-
-	}  // End of class PostorderEnumeration
-
-
-
-	final class BreadthFirstEnumeration<T extends TreeNode<K,V>> implements Iterator<T> {
-		protected Queue<Iterator<T>> queue;
-
-		public BreadthFirstEnumeration(T rootNode) {
-			super();
-			List<T> v = new ArrayList<>(1);
-			v.add(rootNode);     // PENDING: don't really need a vector
-			queue = new Queue<>();
-			queue.enqueue(v.iterator());
-		}
-
-		@Override
-		public boolean hasNext() {
-			return (!queue.isEmpty() &&
-					queue.firstObject().hasNext());
-		}
-
-		@Override
-		public T next() {
-			Iterator<T> iter = queue.firstObject();
-			T node = iter.next();
-			Iterator<T> childrenIter = node.iterator();
-
-			if (!iter.hasNext()) {
-				queue.dequeue();
-			}
-			if (childrenIter.hasNext()) {
-				queue.enqueue(childrenIter);
-			}
-			return node;
-		}
-
-
-		// A simple queue with a linked list data structure.
-		final class Queue<T> {
-			QNode head; // null if empty
-			QNode tail;
-
-			final class QNode {
-				public T   object;
-				public QNode    next;   // null if end
-				public QNode(T object, QNode next) {
-					this.object = object;
-					this.next = next;
-				}
-			}
-
-			public void enqueue(T anObject) {
-				if (head == null) {
-					head = tail = new QNode(anObject, null);
-				} else {
-					tail.next = new QNode(anObject, null);
-					tail = tail.next;
-				}
-			}
-
-			public T dequeue() {
-				if (head == null) {
-					throw new NoSuchElementException(NO_MORE_ELEMENTS);
-				}
-
-				T retval = head.object;
-				QNode oldHead = head;
-				head = head.next;
-				if (head == null) {
-					tail = null;
-				} else {
-					oldHead.next = null;
-				}
-				return retval;
-			}
-
-			public T firstObject() {
-				if (head == null) {
-					throw new NoSuchElementException(NO_MORE_ELEMENTS);
-				}
-
-				return head.object;
-			}
-
-			public boolean isEmpty() {
-				return head == null;
-			}
-
-		} // End of class Queue
-
-	}  // End of class BreadthFirstEnumeration
-
-
-
-	final class PathBetweenNodesEnumeration<T extends TreeNode<K,V>> implements Iterator<T> {
-		protected ArrayDeque<T> stack;
-
-		public PathBetweenNodesEnumeration(T ancestor,
-				T descendant) {
-			super();
-			if (ancestor == null || descendant == null) {
-				throw new IllegalArgumentException(ARGUMENT_IS_NULL);
-			}
-			T current;
-			stack = new ArrayDeque<>();
-			stack.push(descendant);
-			current = descendant;
-			while (current != ancestor) {
-				current = current.getParent();
-				if (current == null && descendant != ancestor) {
-					throw new IllegalArgumentException("node " + ancestor +
-							" is not an ancestor of " + descendant);
-				}
-				stack.push(current);
-			}
-		}
-
-		@Override
-		public boolean hasNext() {
-			return !stack.isEmpty();
-		}
-
-		@Override
-		public T next() {
-			try {
-				return stack.pop();
-			} catch (EmptyStackException e) {
-				throw new NoSuchElementException(NO_MORE_ELEMENTS);
-			}
-		}
-
-	} // End of class PathBetweenNodesEnumeration
-
-	@SuppressWarnings("unchecked")
+	/**
+	 * Same as <code>get(path)</code>; a descent does not need a
+	 * search strategy.
+	 */
 	@Override
 	public <T extends TreeNode<K, V>> T get(TreePath<K> path, SearchStrategy strategy) {
-		if (strategy == SearchStrategy.PRE_ORDER)
-			return (T) get(path, this.preOrderEnumeration());
-		else
-			return get(path);
+		return get(path);
 	}
 
 	/**
-	 * Returns the node based on breadthFirstEnumaration
-	 * debug:
-	 * System.out.println( level+":"+checkNode.key + " " + checkNodeLevel );
+	 * Returns the node by descending from this node one child lookup per
+	 * path component; the first component must be this node's key.  Each
+	 * step follows a child of the node found by the previous one, so the
+	 * result is always on the path.  O(d log n) for a path of length d
+	 * when the children are sorted, O(d n) otherwise.
 	 */
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T extends TreeNode<K, V>> T get(TreePath<K> path) {
-		return  (T) get(path, this.breadthFirstEnumeration());
+		TreeMetrics metrics = TreeMetrics.active();
+		long start = metrics == null ? 0 : metrics.start();
+		K[] keyArr = path.getPath();
+		MutableTreeNode<K,V> node = keyArr[0].equals(key) ? this : null;
+		int level = 1;
+		for (; level < keyArr.length && node != null; level++) {
+			node = node.getChild(keyArr[level]);
+		}
+		if (metrics != null) {
+			metrics.record(TreeMetrics.Operation.GET, level, start);
+		}
+		return (T) node;
 	}
 
 	/**
-	 * Returns the node based on breadthFirstEnumaration
-	 * debug:
-	 * System.out.println( level+":"+checkNode.key + " " + checkNodeLevel );
+	 * Walks the subtree rooted at this node as <code>TreeNode.walk</code>
+	 * does, moving through parent links and child indexes, so the walk
+	 * allocates nothing.  The visitor must not change the structure of
+	 * the subtree.
 	 */
-	private <T extends TreeNode<K, V>> T get(TreePath<K> path, Iterator<T> enumeration) {
-		T ret = null;
-		K[] keyArr = path.getPath();
-		Iterator<T>  iter = enumeration;
-		for(int level = 0, len = keyArr.length; level < len;) {
-			if (iter.hasNext()) {
-				T checkNode = iter.next();
-				K k = keyArr[level];
-				boolean keyMatch = k.equals(checkNode.getKey());
-				int checkNodeLevel = checkNode.getLevel();
-				/* key and level matches */
-				if (checkNodeLevel == level && keyMatch) {
-					ret = checkNode;
-					level++;
-					/* tree moved on to another level whether match or no-match */
-				} else if (checkNodeLevel > level) {
-					ret = null;
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T extends TreeNode<K, V>> T walk(TreeVisitor<T> visitor) {
+		MutableTreeNode<K,V> node = this;
+		while (true) {
+			TreeVisitor.VisitResult result = visitor.enter((T) node);
+			if (result == TreeVisitor.VisitResult.TERMINATE) {
+				return (T) node;
+			} else if (result == TreeVisitor.VisitResult.CONTINUE) {
+				if (node.childCount() > 0) {
+					node = node.children.get(0);
+					continue;
+				}
+				result = visitor.leave((T) node);
+				if (result == TreeVisitor.VisitResult.TERMINATE) {
+					return (T) node;
+				}
+			}
+			// node is done; move to its next sibling or leave its parent
+			boolean skipSiblings = result == TreeVisitor.VisitResult.SKIP_SIBLINGS;
+			while (true) {
+				if (node == this) {
+					return null;
+				}
+				MutableTreeNode<K,V> myParent = node.parent;
+				if (!skipSiblings && node.childIndex + 1 < myParent.children.size()) {
+					node = myParent.children.get(node.childIndex + 1);
 					break;
 				}
-			} else {
-				ret = null;
-				break;
+				node = myParent;
+				result = visitor.leave((T) node);
+				if (result == TreeVisitor.VisitResult.TERMINATE) {
+					return (T) node;
+				}
+				skipSiblings = result == TreeVisitor.VisitResult.SKIP_SIBLINGS;
 			}
 		}
-		return ret;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -1620,10 +2284,14 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 	 * System.out.println( level+":"+checkNode.key + " " + checkNodeLevel );
 	 */
 	public <T extends TreeNode<K, V>> T find(K uniqueKey, Iterator<T> enumeration) {
+		TreeMetrics metrics = TreeMetrics.active();
+		long start = metrics == null ? 0 : metrics.start();
 		T ret = null;
+		int visited = 0;
 		Iterator<T>  iter = enumeration;
 		while (uniqueKey != null && iter.hasNext()) {
 			T checkNode = iter.next();
+			visited++;
 			boolean keyMatch = uniqueKey.equals(checkNode.getKey());
 			/* key matches */
 			if (keyMatch) {
@@ -1631,6 +2299,9 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 				break;
 			}
 		}
+		if (metrics != null) {
+			metrics.record(TreeMetrics.Operation.FIND, visited, start);
+		}
 		return ret;
 	}
 
@@ -1720,8 +2391,7 @@ public class MutableTreeNode<K extends Serializable,V> implements TreeNode<K, V>
 			TreePath<K> tp = treePaths[i];
 			K[] path = tp.getPath();
 			for (int j = 0; j < path.length; j++) {
-				MutableTreeNode<K, V> foundNode = null;
-				foundNode = matchNode.find(path[j], matchNode.iterator());
+				MutableTreeNode<K, V> foundNode = matchNode.getChild(path[j]);
 				if (foundNode == null) {
 					foundNode = new MutableTreeNode<>(path[j], null);
 					matchNode.add(foundNode);
@@ -0,0 +1,201 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Level-synchronous parallel breadth-first traversal of a tree.
+ *
+ * The tree is searched one level (frontier) at a time.  A wide frontier
+ * is split into ranges that are scanned and expanded by the workers of a
+ * fork-join pool; the children each range produces are joined back in
+ * order, so the next frontier is in the same left-to-right order as with
+ * <code>breadthFirstEnumeration()</code>.  Narrow frontiers are handled
+ * on the calling thread.
+ *
+ * The tree must not be modified during a traversal.  To search a tree
+ * that is being changed, search a snapshot of it (see
+ * <code>MutableTreeNode.openSnapshot()</code>).
+ *
+ * @author psurti
+ */
+public final class ParallelTreeSearch {
+
+	/** frontiers narrower than this are scanned on the calling thread */
+	private static final int SEQUENTIAL_THRESHOLD = 1024;
+	private static final int NOT_FOUND = Integer.MAX_VALUE;
+
+	/**
+	 * Visitor of a parallel level-by-level traversal.
+	 */
+	public interface LevelVisitor<T> {
+
+		/**
+		 * Visits a node at <code>level</code> (0 for the root of the
+		 * traversal).  Called concurrently for the nodes of a level.
+		 */
+		void visit(T node, int level);
+
+		/**
+		 * Called on the calling thread once every node of
+		 * <code>level</code> has been visited, before the next level.
+		 *
+		 * @param width the number of nodes at the level
+		 * @return false to stop the traversal
+		 */
+		default boolean levelDone(int level, int width) {
+			return true;
+		}
+	}
+
+	private ParallelTreeSearch() {
+		super();
+	}
+
+	/**
+	 * Returns the first node in breadth-first order that matches
+	 * <code>predicate</code>, searching each level on the common pool.
+	 *
+	 * @see #find(TreeNode, Predicate, ForkJoinPool)
+	 */
+	public static <K extends Serializable,V,T extends TreeNode<K,V>> T find(T root, Predicate<? super T> predicate) {
+		return find(root, predicate, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Returns the first node in breadth-first order that matches
+	 * <code>predicate</code>, i.e. the leftmost match on the shallowest
+	 * level that has one, or null if no node matches.  Once a worker finds
+	 * a match, workers stop testing the nodes to its right and no further
+	 * level is expanded.
+	 *
+	 * @param root the root of the subtree to search
+	 * @param predicate tested concurrently, must be thread-safe
+	 * @param pool the pool that scans wide levels
+	 */
+	public static <K extends Serializable,V,T extends TreeNode<K,V>> T find(T root, Predicate<? super T> predicate, ForkJoinPool pool) {
+		List<T> frontier = Collections.singletonList(root);
+		for (int level = 0; !frontier.isEmpty(); level++) {
+			Level<K,V,T> scan = new Level<>(frontier, level, predicate, null);
+			List<T> next = scan.expand(pool);
+			int found = scan.found.get();
+			if (found != NOT_FOUND) {
+				return frontier.get(found);
+			}
+			frontier = next;
+		}
+		return null;
+	}
+
+	/**
+	 * Visits every node of the subtree rooted at <code>root</code> level
+	 * by level on the common pool.
+	 *
+	 * @see #forEachLevel(TreeNode, LevelVisitor, ForkJoinPool)
+	 */
+	public static <K extends Serializable,V,T extends TreeNode<K,V>> void forEachLevel(T root, LevelVisitor<? super T> visitor) {
+		forEachLevel(root, visitor, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Visits every node of the subtree rooted at <code>root</code> level
+	 * by level.  The nodes of one level are visited concurrently; a level
+	 * is finished, and <code>levelDone</code> called, before the next
+	 * level is visited.
+	 *
+	 * @param root the root of the subtree to visit
+	 * @param visitor visits the nodes, must be thread-safe
+	 * @param pool the pool that visits wide levels
+	 */
+	public static <K extends Serializable,V,T extends TreeNode<K,V>> void forEachLevel(T root, LevelVisitor<? super T> visitor, ForkJoinPool pool) {
+		List<T> frontier = Collections.singletonList(root);
+		for (int level = 0; !frontier.isEmpty(); level++) {
+			List<T> next = new Level<K,V,T>(frontier, level, null, visitor).expand(pool);
+			if (!visitor.levelDone(level, frontier.size())) {
+				return;
+			}
+			frontier = next;
+		}
+	}
+
+	/**
+	 * One frontier: tests or visits its nodes and collects their children.
+	 */
+	private static final class Level<K extends Serializable,V,T extends TreeNode<K,V>> {
+		final List<T> frontier;
+		final int level;
+		final Predicate<? super T> predicate;
+		final LevelVisitor<? super T> visitor;
+		/** frontier index of the leftmost match so far */
+		final AtomicInteger found = new AtomicInteger(NOT_FOUND);
+
+		Level(List<T> frontier, int level, Predicate<? super T> predicate, LevelVisitor<? super T> visitor) {
+			this.frontier = frontier;
+			this.level = level;
+			this.predicate = predicate;
+			this.visitor = visitor;
+		}
+
+		/**
+		 * Scans the frontier and returns the next one.
+		 */
+		List<T> expand(ForkJoinPool pool) {
+			int width = frontier.size();
+			int chunks = Math.min(width / SEQUENTIAL_THRESHOLD, pool.getParallelism() * 4);
+			if (chunks < 2) {
+				List<T> next = new ArrayList<>();
+				scan(0, width, next);
+				return next;
+			}
+			List<ForkJoinTask<List<T>>> tasks = new ArrayList<>(chunks);
+			for (int c = 0; c < chunks; c++) {
+				int from = (int) ((long) width * c / chunks);
+				int to = (int) ((long) width * (c + 1) / chunks);
+				tasks.add(pool.submit(() -> {
+					List<T> children = new ArrayList<>();
+					scan(from, to, children);
+					return children;
+				}));
+			}
+			List<List<T>> parts = new ArrayList<>(chunks);
+			int size = 0;
+			for (ForkJoinTask<List<T>> task : tasks) {
+				List<T> part = task.join();
+				parts.add(part);
+				size += part.size();
+			}
+			List<T> next = new ArrayList<>(size);
+			for (List<T> part : parts) {
+				next.addAll(part);
+			}
+			return next;
+		}
+
+		private void scan(int from, int to, List<T> children) {
+			for (int i = from; i < to; i++) {
+				T node = frontier.get(i);
+				if (predicate == null) {
+					visitor.visit(node, level);
+				} else if (i > found.get()) {
+					return;
+				} else if (predicate.test(node)) {
+					found.accumulateAndGet(i, Math::min);
+					return;
+				}
+				if (found.get() == NOT_FOUND) {
+					Iterator<T> iter = node.iterator();
+					while (iter.hasNext()) {
+						children.add(iter.next());
+					}
+				}
+			}
+		}
+	}
+}
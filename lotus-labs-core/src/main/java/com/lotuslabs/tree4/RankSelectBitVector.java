@@ -0,0 +1,166 @@
+package com.lotuslabs.tree4;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * An immutable bit vector with rank and select.
+ *
+ * Bits are stored in 64-bit words, least significant bit first.  A rank
+ * directory holds the number of ones before every 512-bit block, which
+ * adds 1/16 bit per bit: rank is one directory lookup plus at most eight
+ * word pop-counts, select a binary search over the directory plus a scan
+ * of one block.
+ *
+ * The words and the directory are buffers so that both can live in a
+ * memory-mapped file.
+ *
+ * @author psurti
+ */
+final class RankSelectBitVector {
+
+	private static final int WORDS_PER_BLOCK = 8;
+	private static final int BITS_PER_BLOCK = WORDS_PER_BLOCK * Long.SIZE;
+
+	private final LongBuffer words;
+	/** ones before each block; one entry more than there are blocks */
+	private final IntBuffer blockRanks;
+	private final int length;
+
+	RankSelectBitVector(LongBuffer words, IntBuffer blockRanks, int length) {
+		this.words = words;
+		this.blockRanks = blockRanks;
+		this.length = length;
+	}
+
+	/**
+	 * Builds the rank directory of the first <code>length</code> bits of
+	 * <code>words</code>.
+	 */
+	static RankSelectBitVector of(long[] words, int length) {
+		int[] ranks = new int[blockCount(words.length)];
+		int ones = 0;
+		for (int w = 0; w < words.length; w++) {
+			if (w % WORDS_PER_BLOCK == 0) {
+				ranks[w / WORDS_PER_BLOCK] = ones;
+			}
+			ones += Long.bitCount(words[w]);
+		}
+		ranks[ranks.length - 1] = ones;
+		return new RankSelectBitVector(LongBuffer.wrap(words), IntBuffer.wrap(ranks), length);
+	}
+
+	/**
+	 * Returns the number of rank directory entries for
+	 * <code>wordCount</code> words.
+	 */
+	static int blockCount(int wordCount) {
+		return (wordCount + WORDS_PER_BLOCK - 1) / WORDS_PER_BLOCK + 1;
+	}
+
+	int length() {
+		return length;
+	}
+
+	int wordCount() {
+		return words.limit();
+	}
+
+	boolean get(int position) {
+		return (words.get(position >>> 6) & (1L << position)) != 0;
+	}
+
+	/**
+	 * Returns the number of ones before <code>position</code>.
+	 */
+	int rank1(int position) {
+		int word = position >>> 6;
+		int rank = blockRanks.get(position / BITS_PER_BLOCK);
+		for (int w = word - word % WORDS_PER_BLOCK; w < word; w++) {
+			rank += Long.bitCount(words.get(w));
+		}
+		int bit = position & 63;
+		if (bit != 0) {
+			rank += Long.bitCount(words.get(word) & ((1L << bit) - 1));
+		}
+		return rank;
+	}
+
+	/**
+	 * Returns the number of zeros before <code>position</code>.
+	 */
+	int rank0(int position) {
+		return position - rank1(position);
+	}
+
+	/**
+	 * Returns the position of the <code>k</code>-th one, counting from 1.
+	 */
+	int select1(int k) {
+		int low = 0;
+		int high = blockRanks.limit() - 2;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (blockRanks.get(mid) < k) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		int remaining = k - blockRanks.get(low);
+		for (int w = low * WORDS_PER_BLOCK; ; w++) {
+			long word = words.get(w);
+			int ones = Long.bitCount(word);
+			if (remaining <= ones) {
+				return (w << 6) + selectInWord(word, remaining);
+			}
+			remaining -= ones;
+		}
+	}
+
+	/**
+	 * Returns the position of the <code>k</code>-th zero, counting from 1.
+	 */
+	int select0(int k) {
+		int low = 0;
+		int high = blockRanks.limit() - 2;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (mid * BITS_PER_BLOCK - blockRanks.get(mid) < k) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		int remaining = k - (low * BITS_PER_BLOCK - blockRanks.get(low));
+		for (int w = low * WORDS_PER_BLOCK; ; w++) {
+			long word = ~words.get(w);
+			int zeros = Long.bitCount(word);
+			if (remaining <= zeros) {
+				return (w << 6) + selectInWord(word, remaining);
+			}
+			remaining -= zeros;
+		}
+	}
+
+	private static int selectInWord(long word, int k) {
+		for (int i = 1; i < k; i++) {
+			word &= word - 1;
+		}
+		return Long.numberOfTrailingZeros(word);
+	}
+
+	/**
+	 * Writes the words and then the rank directory.
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		for (int w = 0, n = words.limit(); w < n; w++) {
+			out.writeLong(words.get(w));
+		}
+		for (int b = 0, n = blockRanks.limit(); b < n; b++) {
+			out.writeInt(blockRanks.get(b));
+		}
+	}
+}
@@ -0,0 +1,264 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Structural hashes of every subtree of a tree.  Two subtrees are
+ * structurally equal if their roots have equal keys and the same number
+ * of children, and their children are structurally equal in order; user
+ * objects are not compared.
+ *
+ * The tree is read once, in preorder, into arrays of parents and subtree
+ * sizes.  The hashes are then computed bottom-up in one pass over those
+ * arrays in reverse preorder, which reaches every node after all of its
+ * descendants: each node mixes the hash of its key with its child count
+ * and the hashes of its children.  Afterwards subtrees, here or in
+ * another <code>SubtreeHashes</code>, with different hashes are told
+ * apart in O(1), and <code>duplicates</code> groups the subtrees that
+ * occur more than once.
+ *
+ * Hashes are 64 bits but take each key through its 32-bit
+ * <code>hashCode</code>, so subtrees whose keys differ yet hash alike
+ * ("Aa" and "BB") have equal hashes.  <code>sameStructure</code> and
+ * <code>duplicates</code> therefore confirm every match by comparing the
+ * keys with <code>equals</code>, in time linear in the subtree;
+ * <code>hash</code> alone only tells subtrees apart.  Keys must have a
+ * <code>hashCode</code> consistent across instances.  The hashes
+ * describe the tree as it was when they were computed.
+ *
+ * @author psurti
+ */
+public final class SubtreeHashes<K extends Serializable,V> {
+
+	private static final String NODE_OUT_OF_RANGE = "node out of range: ";
+	private static final long CHILD_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+	/** the nodes in preorder */
+	private final TreeNode<K,V>[] nodes;
+	private final int[] parents;
+	private final int[] sizes;
+	private final long[] hashes;
+
+	private SubtreeHashes(TreeNode<K,V>[] nodes, int[] parents, int[] sizes, long[] hashes) {
+		this.nodes = nodes;
+		this.parents = parents;
+		this.sizes = sizes;
+		this.hashes = hashes;
+	}
+
+	/**
+	 * Hashes every subtree of the subtree rooted at <code>root</code>.
+	 *
+	 * @param root the root of the subtree
+	 * @return the hashes, by preorder number
+	 */
+	public static <K extends Serializable,V> SubtreeHashes<K,V> of(TreeNode<K,V> root) {
+		int count = root.totalCount();
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		TreeNode<K,V>[] nodes = new TreeNode[count];
+		int[] parents = new int[count];
+		int[] sizes = new int[count];
+		int[] childCounts = new int[count];
+		long[] hashes = new long[count];   // the accumulated child hashes until a node is done
+		int[][] path = {new int[16]};
+		int[] next = new int[1];
+		int[] depth = new int[1];
+
+		root.walk(new TreeVisitor<TreeNode<K,V>>() {
+			@Override
+			public VisitResult enter(TreeNode<K,V> node) {
+				int id = next[0]++;
+				int level = depth[0];
+				nodes[id] = node;
+				parents[id] = level == 0 ? -1 : path[0][level - 1];
+				childCounts[id] = node.childCount();
+				if (level == path[0].length) {
+					path[0] = Arrays.copyOf(path[0], level * 2);
+				}
+				path[0][depth[0]++] = id;
+				return VisitResult.CONTINUE;
+			}
+
+			@Override
+			public VisitResult leave(TreeNode<K,V> node) {
+				int id = path[0][--depth[0]];
+				sizes[id] = next[0] - id;
+				return VisitResult.CONTINUE;
+			}
+		});
+
+		// children are met last to first, so the fold runs in that order
+		for (int i = count - 1; i >= 0; i--) {
+			K key = nodes[i].getKey();
+			long h = mix((key == null ? 0 : key.hashCode()) * 31L + childCounts[i]);
+			hashes[i] = mix(h ^ hashes[i]);
+			int parent = parents[i];
+			if (parent >= 0) {
+				hashes[parent] = hashes[parent] * CHILD_MULTIPLIER + hashes[i];
+			}
+		}
+		return new SubtreeHashes<>(nodes, parents, sizes, hashes);
+	}
+
+	/**
+	 * The finalizer of SplitMix64: spreads every input bit over the
+	 * whole result.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private void checkNode(int node) {
+		if (node < 0 || node >= nodes.length) {
+			throw new IndexOutOfBoundsException(NODE_OUT_OF_RANGE + node);
+		}
+	}
+
+	/**
+	 * Returns the number of nodes hashed.
+	 */
+	public int size() {
+		return nodes.length;
+	}
+
+	/**
+	 * Returns the node with preorder number <code>node</code>, 0 being
+	 * the root.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends TreeNode<K,V>> T getNode(int node) {
+		checkNode(node);
+		return (T) nodes[node];
+	}
+
+	/**
+	 * Returns the preorder number of the parent of <code>node</code>, or
+	 * -1 for the root.
+	 */
+	public int parent(int node) {
+		checkNode(node);
+		return parents[node];
+	}
+
+	/**
+	 * Returns the number of nodes in the subtree rooted at
+	 * <code>node</code>; its nodes are numbered <code>node</code> to
+	 * <code>node + subtreeSize(node) - 1</code>.
+	 */
+	public int subtreeSize(int node) {
+		checkNode(node);
+		return sizes[node];
+	}
+
+	/**
+	 * Returns the structural hash of the subtree rooted at
+	 * <code>node</code>.
+	 */
+	public long hash(int node) {
+		checkNode(node);
+		return hashes[node];
+	}
+
+	/**
+	 * Returns the structural hash of the whole tree.
+	 */
+	public long rootHash() {
+		return hashes[0];
+	}
+
+	/**
+	 * Returns true if the subtrees rooted at <code>node</code> here and
+	 * at <code>otherNode</code> in <code>other</code> are structurally
+	 * equal.  O(1) if their hashes differ, otherwise linear in the size
+	 * of the subtree.
+	 */
+	public boolean sameStructure(int node, SubtreeHashes<?,?> other, int otherNode) {
+		return hash(node) == other.hash(otherNode) && sizes[node] == other.sizes[otherNode]
+				&& sameKeys(node, other, otherNode);
+	}
+
+	/**
+	 * Returns true if this tree and the tree of <code>other</code> are
+	 * structurally equal.  O(1) if their hashes differ.
+	 */
+	public boolean sameStructure(SubtreeHashes<?,?> other) {
+		return sameStructure(0, other, 0);
+	}
+
+	/**
+	 * Compares two subtrees of equal size node by node in preorder: equal
+	 * keys and parents at the same offsets make the same structure.
+	 */
+	private boolean sameKeys(int node, SubtreeHashes<?,?> other, int otherNode) {
+		for (int i = 0; i < sizes[node]; i++) {
+			if (!Objects.equals(nodes[node + i].getKey(), other.nodes[otherNode + i].getKey())
+					|| i > 0 && parents[node + i] - node != other.parents[otherNode + i] - otherNode) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the groups of structurally equal subtrees that occur more
+	 * than once, of at least <code>minSize</code> nodes.  Each group lists
+	 * the roots of the subtrees in preorder, and the groups are in the
+	 * preorder of their first subtree.  The subtrees of a repeated
+	 * subtree repeat as well, and are reported in their own groups if
+	 * they are large enough.
+	 *
+	 * @param minSize the smallest subtree to report, 1 to report leaves
+	 * @return the groups, each of two or more roots
+	 */
+	public <T extends TreeNode<K,V>> List<List<T>> duplicates(int minSize) {
+		Map<Long,List<Integer>> byHash = new LinkedHashMap<>();
+		for (int i = 0; i < nodes.length; i++) {
+			if (sizes[i] >= minSize) {
+				byHash.computeIfAbsent(hashes[i], h -> new ArrayList<>(2)).add(i);
+			}
+		}
+		// subtrees whose hashes collide are split by their keys
+		List<List<Integer>> equal = new ArrayList<>();
+		for (List<Integer> ids : byHash.values()) {
+			if (ids.size() < 2) {
+				continue;
+			}
+			int first = equal.size();
+			for (int id : ids) {
+				List<Integer> match = null;
+				for (int g = first; g < equal.size() && match == null; g++) {
+					int other = equal.get(g).get(0);
+					if (sizes[other] == sizes[id] && sameKeys(other, this, id)) {
+						match = equal.get(g);
+					}
+				}
+				if (match == null) {
+					match = new ArrayList<>(2);
+					equal.add(match);
+				}
+				match.add(id);
+			}
+		}
+		equal.sort(Comparator.comparingInt(ids -> ids.get(0)));
+		List<List<T>> groups = new ArrayList<>();
+		for (List<Integer> ids : equal) {
+			if (ids.size() > 1) {
+				List<T> group = new ArrayList<>(ids.size());
+				for (int id : ids) {
+					group.add(getNode(id));
+				}
+				groups.add(group);
+			}
+		}
+		return groups;
+	}
+}
@@ -0,0 +1,465 @@
+package com.lotuslabs.tree4;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * A read-only tree in the LOUDS (level-order unary degree sequence)
+ * encoding.  The shape of the tree takes 2n + 1 bits plus a rank
+ * directory, about 2.1 bits per node; keys and user objects are kept in
+ * two arrays in breadth-first order.
+ *
+ * Nodes are numbered 0 to n - 1 in breadth-first order, the root being 0,
+ * so the children of a node and the nodes of a level have consecutive
+ * numbers.  Parent, child and sibling navigation are a few rank and
+ * select operations on the bit vector; the level of a node is a binary
+ * search over the first node of each level and the size of a subtree is
+ * O(height).  <code>getRoot()</code> presents the tree as
+ * <code>TreeNode</code>s.
+ *
+ * A tree is built from any <code>TreeNode</code> with <code>of</code>,
+ * written with <code>save</code> and memory-mapped with
+ * <code>load</code>; a loaded tree decodes keys and user objects from
+ * the file as they are read.
+ *
+ * Instances are immutable and thread-safe.
+ *
+ * @author psurti
+ */
+public final class SuccinctTree<K extends Serializable,V> {
+
+	private static final int FILE_MAGIC = 0x4C4F5544; // LOUD
+	private static final int FILE_VERSION = 1;
+	private static final String NODE_OUT_OF_RANGE = "node out of range: ";
+
+	private final int size;
+	private final RankSelectBitVector louds;
+	/** the number of the first node of each level */
+	private final int[] levelStarts;
+	private final IntFunction<Object> keys;
+	private final IntFunction<Object> userObjects;
+
+	private SuccinctTree(int size, RankSelectBitVector louds, int[] levelStarts,
+			IntFunction<Object> keys, IntFunction<Object> userObjects) {
+		this.size = size;
+		this.louds = louds;
+		this.levelStarts = levelStarts;
+		this.keys = keys;
+		this.userObjects = userObjects;
+	}
+
+	/**
+	 * Encodes the subtree rooted at <code>root</code>.  Keys and user
+	 * objects are shared with the source tree, not copied.
+	 *
+	 * @param root the root of the subtree to encode
+	 * @return the encoded tree
+	 */
+	public static <K extends Serializable,V> SuccinctTree<K,V> of(TreeNode<K,V> root) {
+		List<Object> keyList = new ArrayList<>();
+		List<Object> valueList = new ArrayList<>();
+		List<Integer> levels = new ArrayList<>();
+		long[] words = new long[1];
+		int bit = 2; // the "10" of the super root
+		words[0] = 1L;
+		List<TreeNode<K,V>> level = Collections.singletonList(root);
+		while (!level.isEmpty()) {
+			levels.add(keyList.size());
+			List<TreeNode<K,V>> next = new ArrayList<>();
+			for (TreeNode<K,V> node : level) {
+				keyList.add(node.getKey());
+				valueList.add(node.getUserObject());
+				int children = node.childCount();
+				if (words.length * 64 < bit + children + 1) {
+					words = Arrays.copyOf(words, Math.max(words.length * 2, (bit + children + 1) / 64 + 1));
+				}
+				for (int i = 0; i < children; i++, bit++) {
+					words[bit >>> 6] |= 1L << bit;
+				}
+				bit++; // the closing zero
+				Iterator<TreeNode<K,V>> iter = node.iterator();
+				while (iter.hasNext()) {
+					next.add(iter.next());
+				}
+			}
+			level = next;
+		}
+		Object[] keyArray = keyList.toArray();
+		Object[] valueArray = valueList.toArray();
+		int[] levelStarts = new int[levels.size()];
+		for (int i = 0; i < levelStarts.length; i++) {
+			levelStarts[i] = levels.get(i);
+		}
+		RankSelectBitVector louds = RankSelectBitVector.of(Arrays.copyOf(words, (bit + 63) >>> 6), bit);
+		return new SuccinctTree<>(keyArray.length, louds, levelStarts, i -> keyArray[i], i -> valueArray[i]);
+	}
+
+	/**
+	 * Writes the tree to <code>file</code> in the format read by
+	 * <code>load</code>.  Keys and user objects are written compactly for
+	 * strings and boxed primitives and with Java serialization otherwise.
+	 *
+	 * @throws IOException if the file cannot be written or a key or user
+	 *         object cannot be serialized
+	 */
+	public void save(Path file) throws IOException {
+		try (OutputStream stream = Files.newOutputStream(file)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(size);
+			out.writeInt(louds.length());
+			out.writeInt(louds.wordCount());
+			out.writeInt(levelStarts.length);
+			louds.writeTo(out);
+			for (int start : levelStarts) {
+				out.writeInt(start);
+			}
+			writeValues(out, keys);
+			writeValues(out, userObjects);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Writes the values as an offset table followed by the encoded values,
+	 * so a single value can be decoded without reading the others.
+	 */
+	private void writeValues(DataOutputStream out, IntFunction<Object> values) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+		out.writeInt(0);
+		for (int i = 0; i < size; i++) {
+			ValueCodec.write(data, values.apply(i));
+			out.writeInt(data.size());
+		}
+		bytes.writeTo(out);
+	}
+
+	/**
+	 * Maps a tree saved with <code>save</code> into memory.  The bit
+	 * vector is used in place and keys and user objects are decoded from
+	 * the mapping when they are read, so loading does not depend on the
+	 * size of the tree.
+	 *
+	 * @throws IOException if the file cannot be read or is not a saved tree
+	 */
+	public static <K extends Serializable,V> SuccinctTree<K,V> load(Path file) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) {
+			throw new IOException("not a succinct tree: " + file);
+		}
+		int size = buffer.getInt();
+		int length = buffer.getInt();
+		int wordCount = buffer.getInt();
+		int levelCount = buffer.getInt();
+		int blockCount = RankSelectBitVector.blockCount(wordCount);
+		ByteBuffer wordBytes = slice(buffer, wordCount * 8);
+		ByteBuffer rankBytes = slice(buffer, blockCount * 4);
+		RankSelectBitVector louds = new RankSelectBitVector(wordBytes.asLongBuffer(), rankBytes.asIntBuffer(), length);
+		int[] levelStarts = new int[levelCount];
+		buffer.asIntBuffer().get(levelStarts);
+		buffer.position(buffer.position() + levelCount * 4);
+		IntFunction<Object> keys = mappedValues(buffer, size);
+		IntFunction<Object> userObjects = mappedValues(buffer, size);
+		return new SuccinctTree<>(size, louds, levelStarts, keys, userObjects);
+	}
+
+	/**
+	 * Returns the next <code>bytes</code> bytes of <code>buffer</code> and
+	 * moves past them.
+	 */
+	private static ByteBuffer slice(ByteBuffer buffer, int bytes) {
+		ByteBuffer slice = buffer.slice();
+		slice.limit(bytes);
+		buffer.position(buffer.position() + bytes);
+		return slice;
+	}
+
+	private static IntFunction<Object> mappedValues(ByteBuffer buffer, int size) {
+		IntBuffer offsets = slice(buffer, (size + 1) * 4).asIntBuffer();
+		ByteBuffer data = slice(buffer, offsets.get(size));
+		return i -> {
+			int from = offsets.get(i);
+			byte[] bytes = new byte[offsets.get(i + 1) - from];
+			ByteBuffer value = data.duplicate();
+			value.position(from);
+			value.get(bytes);
+			try {
+				return ValueCodec.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		};
+	}
+
+	//
+	//  Navigation by node number
+	//
+
+	/**
+	 * Returns the number of nodes.
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void checkNode(int node) {
+		if (node < 0 || node >= size) {
+			throw new IndexOutOfBoundsException(NODE_OUT_OF_RANGE + node);
+		}
+	}
+
+	/**
+	 * Returns the parent of <code>node</code>, or -1 for the root.
+	 */
+	public int parent(int node) {
+		checkNode(node);
+		return louds.rank0(louds.select1(node + 1)) - 1;
+	}
+
+	/**
+	 * Returns the number of children of <code>node</code>.
+	 */
+	public int childCount(int node) {
+		checkNode(node);
+		return louds.select0(node + 2) - louds.select0(node + 1) - 1;
+	}
+
+	/**
+	 * Returns the child at <code>index</code> of <code>node</code>.
+	 *
+	 * @throws IndexOutOfBoundsException if there is no such child
+	 */
+	public int child(int node, int index) {
+		if (index < 0 || index >= childCount(node)) {
+			throw new IndexOutOfBoundsException("child index out of range: " + index);
+		}
+		return louds.rank1(louds.select0(node + 1) + 1 + index);
+	}
+
+	/**
+	 * Returns the first child of <code>node</code>, or -1 for a leaf.
+	 */
+	public int firstChild(int node) {
+		checkNode(node);
+		int position = louds.select0(node + 1) + 1;
+		return louds.get(position) ? louds.rank1(position) : -1;
+	}
+
+	/**
+	 * Returns the index of <code>node</code> among its siblings, 0 for
+	 * the root.
+	 */
+	public int indexInParent(int node) {
+		checkNode(node);
+		int position = louds.select1(node + 1);
+		int parent = louds.rank0(position);
+		return parent == 0 ? 0 : position - louds.select0(parent) - 1;
+	}
+
+	/**
+	 * Returns the sibling after <code>node</code>, or -1 if it is the
+	 * last child.
+	 */
+	public int nextSibling(int node) {
+		checkNode(node);
+		int position = louds.select1(node + 1) + 1;
+		return position < louds.length() && louds.get(position) ? node + 1 : -1;
+	}
+
+	/**
+	 * Returns the sibling before <code>node</code>, or -1 if it is the
+	 * first child.
+	 */
+	public int previousSibling(int node) {
+		checkNode(node);
+		int position = louds.select1(node + 1) - 1;
+		return position > 1 && louds.get(position) ? node - 1 : -1;
+	}
+
+	/**
+	 * Returns the level of <code>node</code>, 0 for the root.
+	 */
+	public int level(int node) {
+		checkNode(node);
+		int level = Arrays.binarySearch(levelStarts, node);
+		return level >= 0 ? level : -level - 2;
+	}
+
+	/**
+	 * Returns the number of nodes in the subtree rooted at
+	 * <code>node</code>, including <code>node</code>.  The descendants on
+	 * each level are consecutive, so this takes O(height).
+	 */
+	public int subtreeSize(int node) {
+		checkNode(node);
+		int total = 0;
+		int first = node;
+		int last = node;
+		while (true) {
+			total += last - first + 1;
+			int from = louds.select0(first + 1);
+			int to = louds.select0(last + 2);
+			int children = to - from - 1 - (last - first);
+			if (children == 0) {
+				return total;
+			}
+			first = louds.rank1(from + 1);
+			last = first + children - 1;
+		}
+	}
+
+	/**
+	 * Returns the key of <code>node</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public K key(int node) {
+		checkNode(node);
+		return (K) keys.apply(node);
+	}
+
+	/**
+	 * Returns the user object of <code>node</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public V userObject(int node) {
+		checkNode(node);
+		return (V) userObjects.apply(node);
+	}
+
+	/**
+	 * Returns the root as a <code>TreeNode</code>.  Nodes are created as
+	 * the tree is navigated; two of them are equal if they stand for the
+	 * same node of this tree.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends TreeNode<K,V>> T getRoot() {
+		return (T) new Node(0);
+	}
+
+	/**
+	 * A node of the tree, by number.
+	 */
+	private final class Node extends AbstractTreeNode<K,V> {
+		private final int id;
+
+		Node(int id) {
+			super();
+			this.id = id;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T extends TreeNode<K,V>> T getChildAt(int childIndex) {
+			if (childIndex < 0 || childIndex >= childCount()) {
+				throw new ArrayIndexOutOfBoundsException(childIndex);
+			}
+			return (T) new Node(child(id, childIndex));
+		}
+
+		@Override
+		public int childCount() {
+			return SuccinctTree.this.childCount(id);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T extends TreeNode<K,V>> T getParent() {
+			int parent = parent(id);
+			return parent < 0 ? null : (T) new Node(parent);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T extends TreeNode<K,V>> T getNextSibling() {
+			int sibling = nextSibling(id);
+			return sibling < 0 ? null : (T) new Node(sibling);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T extends TreeNode<K,V>> T getPreviousSibling() {
+			int sibling = previousSibling(id);
+			return sibling < 0 ? null : (T) new Node(sibling);
+		}
+
+		@Override
+		public int getIndex(TreeNode<K,V> aChild) {
+			if (aChild == null) {
+				throw new IllegalArgumentException("argument is null");
+			}
+			return isNodeChild(aChild) ? indexInParent(((Node) aChild).id) : -1;
+		}
+
+		@Override
+		public boolean isLeaf() {
+			return firstChild(id) < 0;
+		}
+
+		@Override
+		public int getLevel() {
+			return level(id);
+		}
+
+		@Override
+		public int totalCount() {
+			return subtreeSize(id);
+		}
+
+		@Override
+		public K getKey() {
+			return key(id);
+		}
+
+		@Override
+		public V getUserObject() {
+			return userObject(id);
+		}
+
+		private SuccinctTree<K,V> tree() {
+			return SuccinctTree.this;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			}
+			if (!(o instanceof SuccinctTree.Node)) {
+				return false;
+			}
+			@SuppressWarnings("unchecked")
+			Node other = (Node) o;
+			return other.id == id && other.tree() == tree();
+		}
+
+		@Override
+		public int hashCode() {
+			return id;
+		}
+	}
+}
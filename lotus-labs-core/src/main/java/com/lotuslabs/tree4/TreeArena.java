@@ -0,0 +1,449 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A tree whose nodes live in chunked arrays, for batch jobs that build a
+ * large tree, query it and drop it.  A node is a number, not an object:
+ * its links (parent, first and last child, next and previous sibling,
+ * child count and index) are ints side by side in one chunk and its key
+ * and user object are two slots in another, so building a tree of n
+ * nodes allocates about n / 4096 arrays instead of n nodes and n child
+ * lists.
+ *
+ * Nodes are added with <code>addRoot</code> and <code>addChild</code>,
+ * which appends a child after the last one; nodes cannot be moved or
+ * removed.  <code>getRoot()</code> presents the tree as
+ * <code>TreeNode</code>s, so it is searched and enumerated like any other
+ * tree.  Children are linked in a list, so <code>getChildAt(i)</code>
+ * takes O(i) while enumerating the children takes O(1) per child.
+ *
+ * <code>release()</code> drops the whole tree at once and keeps the
+ * chunks, so the next tree built in the arena allocates nothing until it
+ * outgrows the last one.  Nodes of a released tree throw
+ * <code>IllegalStateException</code> when read.
+ *
+ * An arena is not thread-safe; a tree that is no longer changed may be
+ * read by several threads.
+ *
+ * @author psurti
+ */
+public final class TreeArena<K extends Serializable,V> {
+
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/* the int fields of a node, side by side in its links chunk */
+	private static final int PARENT = 0;
+	private static final int FIRST_CHILD = 1;
+	private static final int LAST_CHILD = 2;
+	private static final int NEXT_SIBLING = 3;
+	private static final int PREVIOUS_SIBLING = 4;
+	private static final int CHILD_COUNT = 5;
+	private static final int CHILD_INDEX = 6;
+	private static final int LINK_FIELDS = 7;
+
+	/* the object fields of a node */
+	private static final int KEY = 0;
+	private static final int USER_OBJECT = 1;
+	private static final int OBJECT_FIELDS = 2;
+
+	private static final String NODE_OUT_OF_RANGE = "node out of range: ";
+	private static final String ARENA_HAS_A_ROOT = "arena already has a root";
+	private static final String ARENA_WAS_RELEASED = "arena was released";
+
+	private int[][] links = new int[0][];
+	private Object[][] objects = new Object[0][];
+	private int size;
+	/** incremented by <code>release</code> to invalidate the nodes handed out */
+	private int generation;
+
+	/**
+	 * Creates an empty arena.  Chunks are allocated as nodes are added.
+	 */
+	public TreeArena() {
+		super();
+	}
+
+	//
+	//  Building
+	//
+
+	/**
+	 * Adds the root, node 0.
+	 *
+	 * @return the number of the root
+	 * @exception IllegalStateException if the arena has a root
+	 */
+	public int addRoot(K key, V userObject) {
+		if (size > 0) {
+			throw new IllegalStateException(ARENA_HAS_A_ROOT);
+		}
+		return allocate(-1, key, userObject);
+	}
+
+	/**
+	 * Adds a child after the last child of <code>parent</code>.
+	 *
+	 * @return the number of the new node
+	 * @exception IndexOutOfBoundsException if <code>parent</code> is not a
+	 *            node of the arena
+	 */
+	public int addChild(int parent, K key, V userObject) {
+		checkNode(parent);
+		int node = allocate(parent, key, userObject);
+		int last = link(parent, LAST_CHILD);
+		if (last < 0) {
+			setLink(parent, FIRST_CHILD, node);
+		} else {
+			setLink(last, NEXT_SIBLING, node);
+		}
+		setLink(parent, LAST_CHILD, node);
+		setLink(parent, CHILD_COUNT, link(parent, CHILD_COUNT) + 1);
+		return node;
+	}
+
+	private int allocate(int parent, K key, V userObject) {
+		int node = size;
+		int chunk = node >>> CHUNK_BITS;
+		if (chunk == links.length) {
+			links = Arrays.copyOf(links, chunk + 1);
+			objects = Arrays.copyOf(objects, chunk + 1);
+		}
+		if (links[chunk] == null) {
+			links[chunk] = new int[CHUNK_SIZE * LINK_FIELDS];
+			objects[chunk] = new Object[CHUNK_SIZE * OBJECT_FIELDS];
+		}
+		int[] l = links[chunk];
+		int at = (node & CHUNK_MASK) * LINK_FIELDS;
+		l[at + PARENT] = parent;
+		l[at + FIRST_CHILD] = -1;
+		l[at + LAST_CHILD] = -1;
+		l[at + NEXT_SIBLING] = -1;
+		l[at + PREVIOUS_SIBLING] = parent < 0 ? -1 : link(parent, LAST_CHILD);
+		l[at + CHILD_COUNT] = 0;
+		l[at + CHILD_INDEX] = parent < 0 ? 0 : link(parent, CHILD_COUNT);
+		Object[] o = objects[chunk];
+		o[(node & CHUNK_MASK) * OBJECT_FIELDS + KEY] = key;
+		o[(node & CHUNK_MASK) * OBJECT_FIELDS + USER_OBJECT] = userObject;
+		size++;
+		return node;
+	}
+
+	/**
+	 * Drops the tree, keeping the chunks for the next one.  Keys and user
+	 * objects are cleared so they can be collected.
+	 */
+	public void release() {
+		int chunks = (size + CHUNK_MASK) >>> CHUNK_BITS;
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			Arrays.fill(objects[chunk], null);
+		}
+		size = 0;
+		generation++;
+	}
+
+	/**
+	 * Returns the number of nodes the arena holds without allocating.
+	 */
+	public int capacity() {
+		return links.length * CHUNK_SIZE;
+	}
+
+	private int link(int node, int field) {
+		return links[node >>> CHUNK_BITS][(node & CHUNK_MASK) * LINK_FIELDS + field];
+	}
+
+	private void setLink(int node, int field, int value) {
+		links[node >>> CHUNK_BITS][(node & CHUNK_MASK) * LINK_FIELDS + field] = value;
+	}
+
+	private Object object(int node, int field) {
+		return objects[node >>> CHUNK_BITS][(node & CHUNK_MASK) * OBJECT_FIELDS + field];
+	}
+
+	//
+	//  Navigation by node number
+	//
+
+	/**
+	 * Returns the number of nodes.
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void checkNode(int node) {
+		if (node < 0 || node >= size) {
+			throw new IndexOutOfBoundsException(NODE_OUT_OF_RANGE + node);
+		}
+	}
+
+	/**
+	 * Returns the parent of <code>node</code>, or -1 for the root.
+	 */
+	public int parent(int node) {
+		checkNode(node);
+		return link(node, PARENT);
+	}
+
+	/**
+	 * Returns the number of children of <code>node</code>.
+	 */
+	public int childCount(int node) {
+		checkNode(node);
+		return link(node, CHILD_COUNT);
+	}
+
+	/**
+	 * Returns the first child of <code>node</code>, or -1 for a leaf.
+	 */
+	public int firstChild(int node) {
+		checkNode(node);
+		return link(node, FIRST_CHILD);
+	}
+
+	/**
+	 * Returns the sibling after <code>node</code>, or -1 if it is the
+	 * last child.
+	 */
+	public int nextSibling(int node) {
+		checkNode(node);
+		return link(node, NEXT_SIBLING);
+	}
+
+	/**
+	 * Returns the sibling before <code>node</code>, or -1 if it is the
+	 * first child.
+	 */
+	public int previousSibling(int node) {
+		checkNode(node);
+		return link(node, PREVIOUS_SIBLING);
+	}
+
+	/**
+	 * Returns the index of <code>node</code> among its siblings, 0 for
+	 * the root.
+	 */
+	public int indexInParent(int node) {
+		checkNode(node);
+		return link(node, CHILD_INDEX);
+	}
+
+	/**
+	 * Returns the number of nodes in the subtree rooted at
+	 * <code>node</code>, including <code>node</code>.
+	 */
+	public int subtreeSize(int node) {
+		checkNode(node);
+		int count = 0;
+		int n = node;
+		while (true) {
+			count++;
+			int first = link(n, FIRST_CHILD);
+			if (first >= 0) {
+				n = first;
+				continue;
+			}
+			while (n != node && link(n, NEXT_SIBLING) < 0) {
+				n = link(n, PARENT);
+			}
+			if (n == node) {
+				return count;
+			}
+			n = link(n, NEXT_SIBLING);
+		}
+	}
+
+	/**
+	 * Returns the key of <code>node</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public K key(int node) {
+		checkNode(node);
+		return (K) object(node, KEY);
+	}
+
+	/**
+	 * Returns the user object of <code>node</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public V userObject(int node) {
+		checkNode(node);
+		return (V) object(node, USER_OBJECT);
+	}
+
+	/**
+	 * Returns the root as a <code>TreeNode</code>.  Nodes are created as
+	 * the tree is navigated; two of them are equal if they stand for the
+	 * same node of the same tree.
+	 *
+	 * @exception IndexOutOfBoundsException if the arena is empty
+	 */
+	public <T extends TreeNode<K,V>> T getRoot() {
+		return getNode(0);
+	}
+
+	/**
+	 * Returns <code>node</code> as a <code>TreeNode</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends TreeNode<K,V>> T getNode(int node) {
+		checkNode(node);
+		return (T) new Node(node, generation);
+	}
+
+	/**
+	 * A node of the tree, by number.
+	 */
+	private final class Node extends AbstractTreeNode<K,V> {
+		private final int id;
+		private final int generation;
+
+		Node(int id, int generation) {
+			super();
+			this.id = id;
+			this.generation = generation;
+		}
+
+		private void checkGeneration() {
+			if (generation != TreeArena.this.generation) {
+				throw new IllegalStateException(ARENA_WAS_RELEASED);
+			}
+		}
+
+		private int link(int field) {
+			checkGeneration();
+			return TreeArena.this.link(id, field);
+		}
+
+		@SuppressWarnings("unchecked")
+		private <T extends TreeNode<K,V>> T node(int node) {
+			return node < 0 ? null : (T) new Node(node, generation);
+		}
+
+		@Override
+		public <T extends TreeNode<K,V>> T getChildAt(int childIndex) {
+			if (childIndex < 0 || childIndex >= childCount()) {
+				throw new ArrayIndexOutOfBoundsException(childIndex);
+			}
+			int child = link(FIRST_CHILD);
+			for (int i = 0; i < childIndex; i++) {
+				child = TreeArena.this.link(child, NEXT_SIBLING);
+			}
+			return node(child);
+		}
+
+		/**
+		 * Enumerates the children along the sibling links.
+		 */
+		@Override
+		public <T extends TreeNode<K,V>> Iterator<T> iterator() {
+			final int first = link(FIRST_CHILD);
+			return new Iterator<T>() {
+				private int next = first;
+
+				@Override
+				public boolean hasNext() {
+					return next >= 0;
+				}
+
+				@Override
+				public T next() {
+					if (next < 0) {
+						throw new NoSuchElementException();
+					}
+					T child = node(next);
+					next = ((Node) child).link(NEXT_SIBLING);
+					return child;
+				}
+			};
+		}
+
+		@Override
+		public int childCount() {
+			return link(CHILD_COUNT);
+		}
+
+		@Override
+		public <T extends TreeNode<K,V>> T getParent() {
+			return node(link(PARENT));
+		}
+
+		@Override
+		public <T extends TreeNode<K,V>> T getNextSibling() {
+			return node(link(NEXT_SIBLING));
+		}
+
+		@Override
+		public <T extends TreeNode<K,V>> T getPreviousSibling() {
+			return node(link(PREVIOUS_SIBLING));
+		}
+
+		@Override
+		public int getIndex(TreeNode<K,V> aChild) {
+			if (aChild == null) {
+				throw new IllegalArgumentException("argument is null");
+			}
+			return isNodeChild(aChild) ? ((Node) aChild).link(CHILD_INDEX) : -1;
+		}
+
+		@Override
+		public boolean isLeaf() {
+			return link(FIRST_CHILD) < 0;
+		}
+
+		@Override
+		public int getLevel() {
+			int level = 0;
+			for (int n = link(PARENT); n >= 0; n = TreeArena.this.link(n, PARENT)) {
+				level++;
+			}
+			return level;
+		}
+
+		@Override
+		public int totalCount() {
+			checkGeneration();
+			return subtreeSize(id);
+		}
+
+		@Override
+		public K getKey() {
+			checkGeneration();
+			return key(id);
+		}
+
+		@Override
+		public V getUserObject() {
+			checkGeneration();
+			return userObject(id);
+		}
+
+		private TreeArena<K,V> arena() {
+			return TreeArena.this;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			}
+			if (!(o instanceof TreeArena.Node)) {
+				return false;
+			}
+			@SuppressWarnings("unchecked")
+			Node other = (Node) o;
+			return other.id == id && other.generation == generation && other.arena() == arena();
+		}
+
+		@Override
+		public int hashCode() {
+			return id;
+		}
+	}
+}
@@ -0,0 +1,325 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Moves, insertions and removals recorded to be applied at once by
+ * <code>MutableTreeNode.batch</code>.  Restructuring a tree one
+ * <code>insert</code> at a time walks to the root to check for cycles and
+ * shifts a child array for every change; a batch checks all the changes
+ * for cycles in one pass, leaves each old parent's child array compacted
+ * once and builds each new parent's child array once.
+ *
+ * All the changes are applied as if at the same time: first every node
+ * the batch moves or removes leaves its parent, then every node it moves
+ * or inserts is placed.  An index is therefore taken among the children
+ * the new parent has left after the removals, and nodes placed at the
+ * same index keep the order of the calls.  Under a parent whose children
+ * are sorted, nodes are placed in key order and the index is ignored.  A
+ * node may be changed only once per batch.
+ *
+ * Listeners hear one <code>childrenReplaced</code> per parent the batch
+ * changes rather than one event per node: first for the parents nodes
+ * leave, deepest first, then for the parents nodes arrive at, each once
+ * it is in its final place.
+ *
+ * @author psurti
+ */
+public final class TreeBatch<K extends Serializable,V> {
+
+	/** the index of a node placed after the other children */
+	private static final int LAST = -1;
+
+	private static final String NODE_IS_NULL = "node is null";
+	private static final String NEW_PARENT_IS_NULL = "new parent is null";
+	private static final String NODE_IS_CHANGED_TWICE = "node is changed twice in a batch";
+	private static final String NEW_CHILD_IS_AN_ANCESTOR = "new child is an ancestor";
+	private static final String NODE_DOES_NOT_ALLOW_CHILDREN = "node does not allow children";
+	private static final String BATCH_IS_COMMITTED = "batch is committed";
+
+	/** a recorded change; a removal has no new parent */
+	private static final class Change<K extends Serializable,V> {
+		final MutableTreeNode<K,V> node;
+		final MutableTreeNode<K,V> newParent;
+		final int index;
+		/** the last cycle check that walked over the node */
+		int walk;
+
+		Change(MutableTreeNode<K,V> node, MutableTreeNode<K,V> newParent, int index) {
+			this.node = node;
+			this.newParent = newParent;
+			this.index = index;
+		}
+	}
+
+	/** the changes in the order they were recorded */
+	private final List<Change<K,V>> changes = new ArrayList<>();
+	/** the changes by node; open addressing keeps big batches light on the heap */
+	private final Map<MutableTreeNode<K,V>,Change<K,V>> changed = new IdentityHashMap<>();
+	private boolean committed;
+
+	TreeBatch() {
+		super();
+	}
+
+	/**
+	 * Moves <code>node</code>, with its subtree, after the children of
+	 * <code>newParent</code>.
+	 */
+	public TreeBatch<K,V> move(MutableTreeNode<K,V> node, MutableTreeNode<K,V> newParent) {
+		if (newParent == null) {
+			throw new IllegalArgumentException(NEW_PARENT_IS_NULL);
+		}
+		return record(node, newParent, LAST);
+	}
+
+	/**
+	 * Moves <code>node</code>, with its subtree, to <code>index</code> of
+	 * the children of <code>newParent</code>.
+	 */
+	public TreeBatch<K,V> move(MutableTreeNode<K,V> node, MutableTreeNode<K,V> newParent, int index) {
+		if (newParent == null) {
+			throw new IllegalArgumentException(NEW_PARENT_IS_NULL);
+		} else if (index < 0) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		return record(node, newParent, index);
+	}
+
+	/**
+	 * Inserts <code>newChild</code> at <code>index</code> of the children
+	 * of <code>parent</code>, removing it from its old parent if it has
+	 * one.
+	 */
+	public TreeBatch<K,V> insert(MutableTreeNode<K,V> parent, MutableTreeNode<K,V> newChild, int index) {
+		return move(newChild, parent, index);
+	}
+
+	/**
+	 * Removes the subtree rooted at <code>node</code> from its parent.  A
+	 * node without a parent is left as it is.
+	 */
+	public TreeBatch<K,V> remove(MutableTreeNode<K,V> node) {
+		return record(node, null, LAST);
+	}
+
+	private TreeBatch<K,V> record(MutableTreeNode<K,V> node, MutableTreeNode<K,V> newParent, int index) {
+		if (committed) {
+			throw new IllegalStateException(BATCH_IS_COMMITTED);
+		} else if (node == null) {
+			throw new IllegalArgumentException(NODE_IS_NULL);
+		}
+		Change<K,V> change = new Change<>(node, newParent, index);
+		if (changed.putIfAbsent(node, change) != null) {
+			throw new IllegalArgumentException(NODE_IS_CHANGED_TWICE);
+		}
+		changes.add(change);
+		return this;
+	}
+
+	/**
+	 * Validates the changes and applies them.
+	 */
+	void commit() {
+		committed = true;
+		for (Change<K,V> change : changes) {
+			if (change.newParent != null && !change.newParent.getAllowsChildren()) {
+				throw new IllegalStateException(NODE_DOES_NOT_ALLOW_CHILDREN);
+			}
+		}
+		checkCycles();
+
+		// the children leaving each parent and the changes arriving at each
+		Map<MutableTreeNode<K,V>,Set<MutableTreeNode<K,V>>> leaving = new LinkedHashMap<>();
+		Map<MutableTreeNode<K,V>,List<Change<K,V>>> arriving = new LinkedHashMap<>();
+		for (Change<K,V> change : changes) {
+			MutableTreeNode<K,V> oldParent = change.node.getParent();
+			if (oldParent != null) {
+				leaving.computeIfAbsent(oldParent, p -> identitySet()).add(change.node);
+			}
+			if (change.newParent != null) {
+				arriving.computeIfAbsent(change.newParent, p -> new ArrayList<>()).add(change);
+			}
+		}
+
+		Map<MutableTreeNode<K,V>,List<MutableTreeNode<K,V>>> newChildren = new LinkedHashMap<>();
+		for (Map.Entry<MutableTreeNode<K,V>,List<Change<K,V>>> e : arriving.entrySet()) {
+			MutableTreeNode<K,V> parent = e.getKey();
+			Set<MutableTreeNode<K,V>> left = leaving.getOrDefault(parent, Collections.emptySet());
+			List<MutableTreeNode<K,V>> kept = new ArrayList<>(parent.childCount() - left.size());
+			Iterator<MutableTreeNode<K,V>> iter = parent.iterator();
+			while (iter.hasNext()) {
+				MutableTreeNode<K,V> child = iter.next();
+				if (!left.contains(child)) {
+					kept.add(child);
+				}
+			}
+			newChildren.put(parent, merge(parent, kept, e.getValue()));
+		}
+
+		TreeMetrics metrics = TreeMetrics.active();
+		long start = metrics == null ? 0 : metrics.start();
+		beginBatch(leaving.keySet(), newChildren.keySet());
+		// deepest first, so every parent is still in its tree when its children leave
+		List<MutableTreeNode<K,V>> oldParents = new ArrayList<>(leaving.keySet());
+		Map<MutableTreeNode<K,V>,Integer> levels = new IdentityHashMap<>();
+		for (MutableTreeNode<K,V> parent : oldParents) {
+			levels.put(parent, parent.getLevel());
+		}
+		oldParents.sort((a, b) -> Integer.compare(levels.get(b), levels.get(a)));
+		for (MutableTreeNode<K,V> parent : oldParents) {
+			parent.removeChildren(leaving.get(parent));
+		}
+		placeChildren(newChildren);
+		if (metrics != null) {
+			metrics.record(TreeMetrics.Operation.MUTATION, changes.size(), start);
+		}
+	}
+
+	/**
+	 * Tells the listeners of every tree the batch changes that a new batch
+	 * begins.
+	 */
+	private static <K extends Serializable,V> void beginBatch(Set<MutableTreeNode<K,V>> oldParents,
+			Set<MutableTreeNode<K,V>> newParents) {
+		Set<TreeListenerList<K,V>> lists = identitySet();
+		for (MutableTreeNode<K,V> parent : oldParents) {
+			lists.add(parent.listenerList());
+		}
+		for (MutableTreeNode<K,V> parent : newParents) {
+			lists.add(parent.listenerList());
+		}
+		for (TreeListenerList<K,V> list : lists) {
+			if (list != null) {
+				list.beginBatch();
+			}
+		}
+	}
+
+	/**
+	 * Sets the new child arrays.  A parent inside a subtree the batch
+	 * still has to place waits for the root of that subtree, so that the
+	 * subtree arrives in the tree before the nodes arriving inside it.
+	 */
+	private void placeChildren(Map<MutableTreeNode<K,V>,List<MutableTreeNode<K,V>>> newChildren) {
+		Map<MutableTreeNode<K,V>,List<MutableTreeNode<K,V>>> waiting = new IdentityHashMap<>();
+		Deque<MutableTreeNode<K,V>> ready = new ArrayDeque<>();
+		for (MutableTreeNode<K,V> parent : newChildren.keySet()) {
+			MutableTreeNode<K,V> top = parent.getRoot();
+			Change<K,V> change = changed.get(top);
+			if (change != null && change.newParent != null) {
+				waiting.computeIfAbsent(top, t -> new ArrayList<>()).add(parent);
+				continue;
+			}
+			ready.push(parent);
+			while (!ready.isEmpty()) {
+				MutableTreeNode<K,V> next = ready.pop();
+				List<MutableTreeNode<K,V>> children = newChildren.get(next);
+				next.setChildren(children);
+				if (!waiting.isEmpty()) {
+					for (MutableTreeNode<K,V> child : children) {
+						List<MutableTreeNode<K,V>> placed = waiting.remove(child);
+						if (placed != null) {
+							ready.addAll(placed);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks that every node still reaches a root once the changes are
+	 * made.  Each node is walked over at most once across all the checks.
+	 */
+	private void checkCycles() {
+		Set<MutableTreeNode<K,V>> reachRoot = identitySet();
+		List<MutableTreeNode<K,V>> path = new ArrayList<>();
+		int walk = 0;
+		for (Change<K,V> change : changes) {
+			if (change.newParent == null) {
+				continue;
+			}
+			change.walk = ++walk;
+			path.add(change.node);
+			for (MutableTreeNode<K,V> node = change.newParent; node != null && !reachRoot.contains(node);
+					node = newParentOf(node)) {
+				// unchanged nodes are never on a cycle, so only changed ones are tracked
+				Change<K,V> other = changed.get(node);
+				if (other != null) {
+					if (other.walk == walk) {
+						throw new IllegalArgumentException(NEW_CHILD_IS_AN_ANCESTOR);
+					}
+					other.walk = walk;
+				}
+				path.add(node);
+			}
+			reachRoot.addAll(path);
+			path.clear();
+		}
+	}
+
+	private static <T> Set<T> identitySet() {
+		return Collections.newSetFromMap(new IdentityHashMap<>());
+	}
+
+	private MutableTreeNode<K,V> newParentOf(MutableTreeNode<K,V> node) {
+		Change<K,V> change = changed.get(node);
+		return change == null ? node.getParent() : change.newParent;
+	}
+
+	/**
+	 * Returns the new child array of <code>parent</code>: the children it
+	 * keeps with the arriving nodes placed among them.
+	 */
+	private List<MutableTreeNode<K,V>> merge(MutableTreeNode<K,V> parent, List<MutableTreeNode<K,V>> kept,
+			List<Change<K,V>> arrivals) {
+		List<MutableTreeNode<K,V>> merged = new ArrayList<>(kept.size() + arrivals.size());
+		Comparator<? super K> order = parent.getKeyComparator();
+		if (order != null) {
+			List<MutableTreeNode<K,V>> arriving = new ArrayList<>(arrivals.size());
+			for (Change<K,V> change : arrivals) {
+				arriving.add(change.node);
+			}
+			Comparator<MutableTreeNode<K,V>> byKey = (a, b) -> order.compare(a.getKey(), b.getKey());
+			arriving.sort(byKey);
+			int i = 0;
+			for (MutableTreeNode<K,V> node : arriving) {
+				while (i < kept.size() && byKey.compare(kept.get(i), node) <= 0) {
+					merged.add(kept.get(i++));
+				}
+				merged.add(node);
+			}
+			merged.addAll(kept.subList(i, kept.size()));
+			return merged;
+		}
+		List<Change<K,V>> placed = new ArrayList<>(arrivals);
+		for (Change<K,V> change : placed) {
+			if (change.index > kept.size()) {
+				throw new ArrayIndexOutOfBoundsException(change.index);
+			}
+		}
+		placed.sort(Comparator.comparingInt(c -> c.index == LAST ? kept.size() : c.index));
+		int next = 0;
+		for (int i = 0; i <= kept.size(); i++) {
+			while (next < placed.size() && (placed.get(next).index == LAST ? kept.size() : placed.get(next).index) == i) {
+				merged.add(placed.get(next++).node);
+			}
+			if (i < kept.size()) {
+				merged.add(kept.get(i));
+			}
+		}
+		return merged;
+	}
+}
@@ -0,0 +1,189 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EmptyStackException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Enumerations over any <code>TreeNode</code>, shared by
+ * <code>MutableTreeNode</code> and the read-only views.
+ * They only use the <code>TreeNode</code> interface.
+ *
+ * Modifying the tree by inserting, removing, or moving a node invalidates
+ * any enumerations created before the modification.
+ *
+ * @author psurti
+ */
+final class TreeEnumerations {
+	private static final String NO_MORE_ELEMENTS = "No more elements";
+	private static final String ARGUMENT_IS_NULL = "argument is null";
+
+	private TreeEnumerations() {
+	}
+
+	private static void countEnumeration() {
+		TreeMetrics metrics = TreeMetrics.active();
+		if (metrics != null) {
+			metrics.record(TreeMetrics.Operation.ENUMERATION, 0, metrics.start());
+		}
+	}
+
+	static final class PreorderEnumeration<K extends Serializable, V, T extends TreeNode<K,V>> implements Iterator<T> {
+		private final ArrayDeque<Iterator<T>> stack = new ArrayDeque<>();
+
+		public PreorderEnumeration(T rootNode) {
+			super();
+			countEnumeration();
+			List<T> v = new ArrayList<>(1);
+			v.add(rootNode);     // PENDING: don't really need a vector
+			stack.push(v.iterator());
+		}
+
+		@Override
+		public boolean hasNext() {
+			return (!stack.isEmpty() && stack.peek().hasNext());
+		}
+
+		@Override
+		public T next() {
+			Iterator<T> enumer = stack.peek();
+			T node = enumer.next();
+			Iterator<T> iter = node.iterator();
+
+			if (!enumer.hasNext()) {
+				stack.pop();
+			}
+			if (iter.hasNext()) {
+				stack.push(iter);
+			}
+			return node;
+		}
+
+	}  // End of class PreorderEnumeration
+
+
+
+	/**
+	 * Post-order without recursion: the stack holds the path from the root
+	 * to the next node with, for each node on it, the iterator over the
+	 * children not yet visited.  Each step is O(1) amortized and the depth
+	 * of the tree only grows the stack.
+	 */
+	static final class PostorderEnumeration<K extends Serializable, V, T extends TreeNode<K,V>> implements Iterator<T> {
+		private final ArrayDeque<T> nodes = new ArrayDeque<>();
+		private final ArrayDeque<Iterator<T>> children = new ArrayDeque<>();
+
+		public PostorderEnumeration(T rootNode) {
+			super();
+			countEnumeration();
+			nodes.push(rootNode);
+			children.push(rootNode.iterator());
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !nodes.isEmpty();
+		}
+
+		@Override
+		public T next() {
+			if (nodes.isEmpty()) {
+				throw new NoSuchElementException(NO_MORE_ELEMENTS);
+			}
+			Iterator<T> iter = children.peek();
+			while (iter.hasNext()) {
+				T child = iter.next();
+				iter = child.iterator();
+				nodes.push(child);
+				children.push(iter);
+			}
+			children.pop();
+			return nodes.pop();
+		}
+
+	}  // End of class PostorderEnumeration
+
+
+
+	static final class BreadthFirstEnumeration<K extends Serializable, V, T extends TreeNode<K,V>> implements Iterator<T> {
+		private final ArrayDeque<Iterator<T>> queue = new ArrayDeque<>();
+
+		public BreadthFirstEnumeration(T rootNode) {
+			super();
+			countEnumeration();
+			queue.add(Collections.singletonList(rootNode).iterator());
+		}
+
+		@Override
+		public boolean hasNext() {
+			return (!queue.isEmpty() &&
+					queue.peek().hasNext());
+		}
+
+		@Override
+		public T next() {
+			Iterator<T> iter = queue.peek();
+			if (iter == null) {
+				throw new NoSuchElementException(NO_MORE_ELEMENTS);
+			}
+			T node = iter.next();
+			Iterator<T> childrenIter = node.iterator();
+
+			if (!iter.hasNext()) {
+				queue.poll();
+			}
+			if (childrenIter.hasNext()) {
+				queue.add(childrenIter);
+			}
+			return node;
+		}
+
+	}  // End of class BreadthFirstEnumeration
+
+
+
+	static final class PathBetweenNodesEnumeration<K extends Serializable, V, T extends TreeNode<K,V>> implements Iterator<T> {
+		protected ArrayDeque<T> stack;
+
+		public PathBetweenNodesEnumeration(T ancestor,
+				T descendant) {
+			super();
+			if (ancestor == null || descendant == null) {
+				throw new IllegalArgumentException(ARGUMENT_IS_NULL);
+			}
+			T current;
+			stack = new ArrayDeque<>();
+			stack.push(descendant);
+			current = descendant;
+			while (current != ancestor) {
+				current = current.getParent();
+				if (current == null && descendant != ancestor) {
+					throw new IllegalArgumentException("node " + ancestor +
+							" is not an ancestor of " + descendant);
+				}
+				stack.push(current);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !stack.isEmpty();
+		}
+
+		@Override
+		public T next() {
+			try {
+				return stack.pop();
+			} catch (EmptyStackException e) {
+				throw new NoSuchElementException(NO_MORE_ELEMENTS);
+			}
+		}
+
+	} // End of class PathBetweenNodesEnumeration
+
+} // End of class TreeEnumerations
@@ -0,0 +1,108 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A lazy copy of a tree made by <code>MutableTreeNode.fork()</code>, and
+ * the snapshot of the source tree it copies from.
+ *
+ * The nodes of the fork are copied from the snapshot as they are read,
+ * and while the snapshot is open the source tree keeps the old states of
+ * the nodes it changes.  The snapshot is closed when every node of the
+ * fork has been copied, or when the fork is closed, whichever comes
+ * first; a fork that is dropped, read in part, or that lost nodes before
+ * they were copied must be closed, otherwise the source tree keeps
+ * saving history for it.
+ *
+ * Closing the fork copies the nodes not copied yet, including those
+ * removed from the fork before they were copied, so every node of the
+ * fork stays readable after the snapshot is gone.  Closing a fork that
+ * was hardly read therefore costs as much as <code>materialize()</code>.
+ *
+ * @author psurti
+ */
+public final class TreeFork<K extends Serializable,V> implements AutoCloseable {
+
+	private final TreeSnapshot<K,V> snapshot;
+	/** the forked nodes whose children are not copied yet */
+	private final Set<MutableTreeNode<K,V>> pending = ConcurrentHashMap.newKeySet();
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private MutableTreeNode<K,V> root;
+
+	TreeFork(TreeSnapshot<K,V> snapshot) {
+		super();
+		this.snapshot = snapshot;
+	}
+
+	void setRoot(MutableTreeNode<K,V> root) {
+		this.root = root;
+	}
+
+	/**
+	 * Returns the root of the fork, with no parent.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends MutableTreeNode<K,V>> T getRoot() {
+		return (T) root;
+	}
+
+	/**
+	 * Copies every node of the fork that is not copied yet, which closes
+	 * the fork.
+	 */
+	public void materialize() {
+		root.materialize();
+	}
+
+	/**
+	 * Returns true once the fork no longer reads from the source tree:
+	 * every node is copied.
+	 */
+	public boolean isClosed() {
+		return closed.get();
+	}
+
+	/**
+	 * Copies the nodes not copied yet and lets the source tree drop the
+	 * old states kept for the fork.  Closing a closed fork does nothing.
+	 */
+	@Override
+	public void close() {
+		// a node is pending until its children are, so the set empties last
+		while (!pending.isEmpty()) {
+			for (MutableTreeNode<K,V> node : new ArrayList<>(pending)) {
+				node.materialize();
+			}
+		}
+		release();
+	}
+
+	private void release() {
+		if (closed.compareAndSet(false, true)) {
+			snapshot.close();
+		}
+	}
+
+	/**
+	 * <code>node</code> was forked and waits for its children to be
+	 * copied.
+	 */
+	void pending(MutableTreeNode<K,V> node) {
+		pending.add(node);
+	}
+
+	/**
+	 * The children of <code>node</code> are copied; the fork is closed
+	 * once every node's are.
+	 */
+	void copied(MutableTreeNode<K,V> node) {
+		pending.remove(node);
+		if (pending.isEmpty()) {
+			release();
+		}
+	}
+}
@@ -0,0 +1,342 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.jgrapht.GraphType;
+import org.jgrapht.graph.AbstractGraph;
+import org.jgrapht.graph.DefaultGraphType;
+
+/**
+ * A read-only JGraphT graph over a tree, so that graph algorithms run on
+ * the tree without copying it into a graph.
+ *
+ * The vertices are the nodes of the subtree rooted at the root of the
+ * graph, and there is an edge from every node to each of its children.
+ * Edges are not objects of their own: the edge into a node is the node
+ * itself, so <code>getEdgeSource(e)</code> is the parent of
+ * <code>e</code> and <code>getEdgeTarget(e)</code> is <code>e</code>.
+ * Vertex and edge sets are views that navigate the tree when they are
+ * read; testing whether a node is in the graph walks up to the root.
+ *
+ * The graph reads through to the tree, so it works on a live
+ * <code>MutableTreeNode</code> as well as on a snapshot, a view or a
+ * <code>SuccinctTree</code>; nodes of those are equal if they stand for
+ * the same node.  The tree must not change while an algorithm runs on
+ * the graph.
+ *
+ * @author psurti
+ *
+ * @param <T> the type of the nodes
+ */
+public final class TreeGraph<K extends Serializable,V,T extends TreeNode<K,V>> extends AbstractGraph<T,T> {
+
+	private static final String GRAPH_IS_UNMODIFIABLE = "tree graph is unmodifiable";
+	private static final String NO_SUCH_EDGE = "no such edge in graph: ";
+	private static final String ROOT_IS_NULL = "root is null";
+
+	private static final GraphType TYPE = new DefaultGraphType.Builder()
+			.directed()
+			.allowMultipleEdges(false)
+			.allowSelfLoops(false)
+			.allowCycles(false)
+			.weighted(false)
+			.modifiable(false)
+			.build();
+
+	private final T root;
+	private final Set<T> vertexSet = new AbstractSet<T>() {
+		@Override
+		public Iterator<T> iterator() {
+			return root.preOrderEnumeration();
+		}
+
+		@Override
+		public int size() {
+			return root.totalCount();
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean contains(Object o) {
+			return o instanceof TreeNode && containsVertex((T) o);
+		}
+	};
+	private final Set<T> edgeSet = new AbstractSet<T>() {
+		@Override
+		public Iterator<T> iterator() {
+			Iterator<T> iter = root.preOrderEnumeration();
+			iter.next();
+			return iter;
+		}
+
+		@Override
+		public int size() {
+			return root.totalCount() - 1;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean contains(Object o) {
+			return o instanceof TreeNode && containsEdge((T) o);
+		}
+	};
+
+	private TreeGraph(T root) {
+		super();
+		this.root = root;
+	}
+
+	/**
+	 * Returns a graph of the subtree rooted at <code>root</code>.
+	 */
+	public static <K extends Serializable,V,T extends TreeNode<K,V>> TreeGraph<K,V,T> of(T root) {
+		if (root == null) {
+			throw new IllegalArgumentException(ROOT_IS_NULL);
+		}
+		return new TreeGraph<>(root);
+	}
+
+	/**
+	 * Returns the root of the graph, the one vertex without incoming edges.
+	 */
+	public T getRoot() {
+		return root;
+	}
+
+	@Override
+	public boolean containsVertex(T v) {
+		if (v == null) {
+			return false;
+		}
+		TreeNode<K,V> node = v;
+		while (node != null) {
+			if (node.equals(root)) {
+				return true;
+			}
+			node = node.getParent();
+		}
+		return false;
+	}
+
+	@Override
+	public boolean containsEdge(T e) {
+		return e != null && !e.equals(root) && containsVertex(e);
+	}
+
+	@Override
+	public Set<T> vertexSet() {
+		return vertexSet;
+	}
+
+	@Override
+	public Set<T> edgeSet() {
+		return edgeSet;
+	}
+
+	@Override
+	public T getEdgeSource(T e) {
+		assertEdgeExist(e);
+		return e.getParent();
+	}
+
+	@Override
+	public T getEdgeTarget(T e) {
+		assertEdgeExist(e);
+		return e;
+	}
+
+	@Override
+	public T getEdge(T sourceVertex, T targetVertex) {
+		if (!containsVertex(sourceVertex) || !containsVertex(targetVertex)) {
+			return null;
+		}
+		return isEdge(sourceVertex, targetVertex) ? targetVertex : null;
+	}
+
+	@Override
+	public Set<T> getAllEdges(T sourceVertex, T targetVertex) {
+		if (!containsVertex(sourceVertex) || !containsVertex(targetVertex)) {
+			return null;
+		}
+		return isEdge(sourceVertex, targetVertex) ? Collections.singleton(targetVertex) : Collections.emptySet();
+	}
+
+	private boolean isEdge(T sourceVertex, T targetVertex) {
+		return !targetVertex.equals(root) && sourceVertex.equals(targetVertex.getParent());
+	}
+
+	@Override
+	public Set<T> outgoingEdgesOf(T vertex) {
+		assertVertexExist(vertex);
+		return children(vertex);
+	}
+
+	@Override
+	public Set<T> incomingEdgesOf(T vertex) {
+		assertVertexExist(vertex);
+		return vertex.equals(root) ? Collections.emptySet() : Collections.singleton(vertex);
+	}
+
+	@Override
+	public Set<T> edgesOf(T vertex) {
+		assertVertexExist(vertex);
+		if (vertex.equals(root)) {
+			return children(vertex);
+		}
+		Set<T> children = children(vertex);
+		return new AbstractSet<T>() {
+			@Override
+			public Iterator<T> iterator() {
+				Iterator<T> iter = children.iterator();
+				return new Iterator<T>() {
+					private boolean incoming = true;
+
+					@Override
+					public boolean hasNext() {
+						return incoming || iter.hasNext();
+					}
+
+					@Override
+					public T next() {
+						if (incoming) {
+							incoming = false;
+							return vertex;
+						}
+						return iter.next();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return children.size() + 1;
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return vertex.equals(o) || children.contains(o);
+			}
+		};
+	}
+
+	/**
+	 * Returns the children of <code>vertex</code>, the edges out of it.
+	 */
+	private Set<T> children(T vertex) {
+		return new AbstractSet<T>() {
+			@Override
+			public Iterator<T> iterator() {
+				return vertex.iterator();
+			}
+
+			@Override
+			public int size() {
+				return vertex.childCount();
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof TreeNode && vertex.isNodeChild((T) o);
+			}
+		};
+	}
+
+	@Override
+	public int inDegreeOf(T vertex) {
+		assertVertexExist(vertex);
+		return vertex.equals(root) ? 0 : 1;
+	}
+
+	@Override
+	public int outDegreeOf(T vertex) {
+		assertVertexExist(vertex);
+		return vertex.childCount();
+	}
+
+	@Override
+	public int degreeOf(T vertex) {
+		return inDegreeOf(vertex) + vertex.childCount();
+	}
+
+	@Override
+	public double getEdgeWeight(T e) {
+		return DEFAULT_EDGE_WEIGHT;
+	}
+
+	@Override
+	public GraphType getType() {
+		return TYPE;
+	}
+
+	private void assertEdgeExist(T e) {
+		if (!containsEdge(e)) {
+			throw new IllegalArgumentException(NO_SUCH_EDGE + e);
+		}
+	}
+
+	/*
+	 * the tree is changed through the tree, not through the graph
+	 */
+
+	@Deprecated
+	@Override
+	public org.jgrapht.EdgeFactory<T,T> getEdgeFactory() {
+		return null;
+	}
+
+	@Override
+	public Supplier<T> getVertexSupplier() {
+		return null;
+	}
+
+	@Override
+	public Supplier<T> getEdgeSupplier() {
+		return null;
+	}
+
+	@Override
+	public T addEdge(T sourceVertex, T targetVertex) {
+		throw new UnsupportedOperationException(GRAPH_IS_UNMODIFIABLE);
+	}
+
+	@Override
+	public boolean addEdge(T sourceVertex, T targetVertex, T e) {
+		throw new UnsupportedOperationException(GRAPH_IS_UNMODIFIABLE);
+	}
+
+	@Override
+	public T addVertex() {
+		throw new UnsupportedOperationException(GRAPH_IS_UNMODIFIABLE);
+	}
+
+	@Override
+	public boolean addVertex(T v) {
+		throw new UnsupportedOperationException(GRAPH_IS_UNMODIFIABLE);
+	}
+
+	@Override
+	public T removeEdge(T sourceVertex, T targetVertex) {
+		throw new UnsupportedOperationException(GRAPH_IS_UNMODIFIABLE);
+	}
+
+	@Override
+	public boolean removeEdge(T e) {
+		throw new UnsupportedOperationException(GRAPH_IS_UNMODIFIABLE);
+	}
+
+	@Override
+	public boolean removeVertex(T v) {
+		throw new UnsupportedOperationException(GRAPH_IS_UNMODIFIABLE);
+	}
+
+	@Override
+	public void setEdgeWeight(T e, double weight) {
+		throw new UnsupportedOperationException(GRAPH_IS_UNMODIFIABLE);
+	}
+}
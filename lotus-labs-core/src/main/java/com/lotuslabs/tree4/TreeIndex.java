@@ -0,0 +1,317 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * A secondary index on the user objects of a tree.  The index maps an
+ * attribute, taken from each user object by an extractor function, to the
+ * nodes that carry it, so "which nodes have attribute X = v" is a map
+ * lookup instead of a scan of the tree.
+ *
+ * A hash index answers equality lookups; a sorted index also answers
+ * range lookups.  Nodes whose user object or attribute is null are not
+ * indexed.  The index listens to the tree and is kept up to date on
+ * <code>insert</code>, <code>remove</code>, <code>setUserObject</code>
+ * and batches;
+ * several indexes can be installed on one tree.
+ *
+ * Lookups can be limited to a subtree.  For that the nodes are labelled
+ * with preorder intervals, a node being in a subtree if its number falls
+ * in the subtree root's interval; the labels are computed on the first
+ * scoped lookup after the shape of the tree changed.
+ *
+ * Like <code>MutableTreeNode</code>, an index is not thread-safe; use it
+ * on the thread that changes the tree.
+ *
+ * @author psurti
+ */
+public final class TreeIndex<K extends Serializable,V,A> implements TreeListener<K,V> {
+
+	private static final String INDEX_IS_NOT_SORTED = "index is not sorted";
+	private static final String NODE_NOT_IN_TREE = "node is not in the indexed tree";
+
+	private final MutableTreeNode<K,V> root;
+	private final Function<? super V, ? extends A> extractor;
+	private final Map<A,Set<MutableTreeNode<K,V>>> entries;
+	/** preorder number and end of the interval of every node; null when stale */
+	private Map<MutableTreeNode<K,V>,int[]> labels;
+	private int size;
+
+	private TreeIndex(MutableTreeNode<K,V> tree, Function<? super V, ? extends A> extractor, Map<A,Set<MutableTreeNode<K,V>>> entries) {
+		this.root = tree.getRoot();
+		this.extractor = extractor;
+		this.entries = entries;
+		Iterator<MutableTreeNode<K,V>> iter = root.preOrderEnumeration();
+		while (iter.hasNext()) {
+			add(iter.next());
+		}
+		root.addTreeListener(this);
+	}
+
+	/**
+	 * Creates a hash index for equality lookups on the tree that contains
+	 * <code>tree</code>.  O(n) to build.
+	 *
+	 * @param tree a node of the tree to index
+	 * @param extractor takes the attribute from a user object
+	 * @return the index, listening to the tree
+	 */
+	public static <K extends Serializable,V,A> TreeIndex<K,V,A> hashIndex(MutableTreeNode<K,V> tree,
+			Function<? super V, ? extends A> extractor) {
+		return new TreeIndex<>(tree, extractor, new HashMap<>());
+	}
+
+	/**
+	 * Creates a sorted index for equality and range lookups on the tree
+	 * that contains <code>tree</code>, ordering attributes naturally.
+	 * O(n log n) to build.
+	 *
+	 * @param tree a node of the tree to index
+	 * @param extractor takes the attribute from a user object
+	 * @return the index, listening to the tree
+	 */
+	public static <K extends Serializable,V,A extends Comparable<? super A>> TreeIndex<K,V,A> sortedIndex(MutableTreeNode<K,V> tree,
+			Function<? super V, ? extends A> extractor) {
+		return new TreeIndex<>(tree, extractor, new TreeMap<>());
+	}
+
+	/**
+	 * Creates a sorted index ordering attributes by <code>comparator</code>.
+	 *
+	 * @see #sortedIndex(MutableTreeNode, Function)
+	 */
+	public static <K extends Serializable,V,A> TreeIndex<K,V,A> sortedIndex(MutableTreeNode<K,V> tree,
+			Function<? super V, ? extends A> extractor, Comparator<? super A> comparator) {
+		return new TreeIndex<>(tree, extractor, new TreeMap<>(comparator));
+	}
+
+	/**
+	 * Stops maintaining the index.
+	 */
+	public void close() {
+		root.removeTreeListener(this);
+	}
+
+	/**
+	 * Returns the number of indexed nodes.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the nodes whose attribute equals <code>value</code>, in the
+	 * order they were indexed.
+	 */
+	public List<MutableTreeNode<K,V>> get(A value) {
+		Set<MutableTreeNode<K,V>> nodes = value == null ? null : entries.get(value);
+		return nodes == null ? Collections.emptyList() : new ArrayList<>(nodes);
+	}
+
+	/**
+	 * Returns the nodes in the subtree rooted at <code>subtree</code>
+	 * whose attribute equals <code>value</code>.
+	 *
+	 * @throws IllegalArgumentException if <code>subtree</code> is not in
+	 *         the indexed tree
+	 */
+	public List<MutableTreeNode<K,V>> get(A value, MutableTreeNode<K,V> subtree) {
+		Set<MutableTreeNode<K,V>> nodes = value == null ? null : entries.get(value);
+		return nodes == null ? Collections.emptyList() : within(Collections.singleton(nodes), subtree);
+	}
+
+	/**
+	 * Returns the nodes whose attribute is in the range, in attribute
+	 * order.
+	 *
+	 * @throws IllegalStateException if the index is not sorted
+	 */
+	public List<MutableTreeNode<K,V>> range(A from, boolean fromInclusive, A to, boolean toInclusive) {
+		List<MutableTreeNode<K,V>> result = new ArrayList<>();
+		for (Set<MutableTreeNode<K,V>> nodes : sorted().subMap(from, fromInclusive, to, toInclusive).values()) {
+			result.addAll(nodes);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the nodes in the subtree rooted at <code>subtree</code>
+	 * whose attribute is in the range, in attribute order.
+	 *
+	 * @throws IllegalStateException if the index is not sorted
+	 * @throws IllegalArgumentException if <code>subtree</code> is not in
+	 *         the indexed tree
+	 */
+	public List<MutableTreeNode<K,V>> range(A from, boolean fromInclusive, A to, boolean toInclusive,
+			MutableTreeNode<K,V> subtree) {
+		return within(sorted().subMap(from, fromInclusive, to, toInclusive).values(), subtree);
+	}
+
+	private NavigableMap<A,Set<MutableTreeNode<K,V>>> sorted() {
+		if (!(entries instanceof NavigableMap)) {
+			throw new IllegalStateException(INDEX_IS_NOT_SORTED);
+		}
+		return (NavigableMap<A,Set<MutableTreeNode<K,V>>>) entries;
+	}
+
+	/**
+	 * Returns the nodes of <code>groups</code> that fall in the interval
+	 * of <code>subtree</code>.
+	 */
+	private List<MutableTreeNode<K,V>> within(Collection<Set<MutableTreeNode<K,V>>> groups, MutableTreeNode<K,V> subtree) {
+		int[] scope = labels().get(subtree);
+		if (scope == null) {
+			throw new IllegalArgumentException(NODE_NOT_IN_TREE);
+		}
+		List<MutableTreeNode<K,V>> result = new ArrayList<>();
+		for (Set<MutableTreeNode<K,V>> nodes : groups) {
+			for (MutableTreeNode<K,V> node : nodes) {
+				int number = labels.get(node)[0];
+				if (number >= scope[0] && number < scope[1]) {
+					result.add(node);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Numbers the nodes in preorder; the interval of a node runs from its
+	 * number to the number after its last descendant.
+	 */
+	private Map<MutableTreeNode<K,V>,int[]> labels() {
+		if (labels == null) {
+			TreeMetrics metrics = TreeMetrics.active();
+			long start = metrics == null ? 0 : metrics.start();
+			Map<MutableTreeNode<K,V>,int[]> numbering = new IdentityHashMap<>();
+			List<MutableTreeNode<K,V>> preorder = new ArrayList<>();
+			Iterator<MutableTreeNode<K,V>> iter = root.preOrderEnumeration();
+			while (iter.hasNext()) {
+				MutableTreeNode<K,V> node = iter.next();
+				numbering.put(node, new int[] {preorder.size(), preorder.size() + 1});
+				preorder.add(node);
+			}
+			// descendants come after their ancestor, so backwards the last
+			// child's interval is complete before its parent's
+			for (int i = preorder.size() - 1; i >= 0; i--) {
+				MutableTreeNode<K,V> node = preorder.get(i);
+				if (!node.isLeaf()) {
+					numbering.get(node)[1] = numbering.get(node.getLastChild())[1];
+				}
+			}
+			labels = numbering;
+			if (metrics != null) {
+				metrics.record(TreeMetrics.Operation.REBUILD, preorder.size(), start);
+			}
+		}
+		return labels;
+	}
+
+	private void add(MutableTreeNode<K,V> node) {
+		V userObject = node.getUserObject();
+		A value = userObject == null ? null : extractor.apply(userObject);
+		if (value != null && entries.computeIfAbsent(value, v -> new LinkedHashSet<>()).add(node)) {
+			size++;
+		}
+	}
+
+	private void remove(MutableTreeNode<K,V> node, V userObject) {
+		A value = userObject == null ? null : extractor.apply(userObject);
+		Set<MutableTreeNode<K,V>> nodes = value == null ? null : entries.get(value);
+		if (nodes != null && nodes.remove(node)) {
+			size--;
+			if (nodes.isEmpty()) {
+				entries.remove(value);
+			}
+		}
+	}
+
+	private boolean inTree(MutableTreeNode<K,V> node) {
+		return node.getRoot() == root;
+	}
+
+	//
+	//  TreeListener
+	//
+
+	@Override
+	public void nodeInserted(MutableTreeNode<K,V> parent, MutableTreeNode<K,V> child, int index) {
+		if (!inTree(parent)) {
+			return;
+		}
+		labels = null;
+		Iterator<MutableTreeNode<K,V>> iter = child.preOrderEnumeration();
+		while (iter.hasNext()) {
+			add(iter.next());
+		}
+	}
+
+	@Override
+	public void nodeRemoved(MutableTreeNode<K,V> parent, MutableTreeNode<K,V> child, int index) {
+		if (!inTree(parent)) {
+			return;
+		}
+		labels = null;
+		Iterator<MutableTreeNode<K,V>> iter = child.preOrderEnumeration();
+		while (iter.hasNext()) {
+			MutableTreeNode<K,V> node = iter.next();
+			remove(node, node.getUserObject());
+		}
+	}
+
+	@Override
+	public void userObjectChanged(MutableTreeNode<K,V> node, V oldUserObject) {
+		if (inTree(node)) {
+			remove(node, oldUserObject);
+			add(node);
+		}
+	}
+
+	@Override
+	public void childrenReordered(MutableTreeNode<K,V> parent) {
+		if (inTree(parent)) {
+			labels = null;
+		}
+	}
+
+	@Override
+	public void childrenReplaced(MutableTreeNode<K,V> parent, List<MutableTreeNode<K,V>> oldChildren) {
+		if (!inTree(parent)) {
+			return;
+		}
+		labels = null;
+		Set<MutableTreeNode<K,V>> old = Collections.newSetFromMap(new IdentityHashMap<>());
+		old.addAll(oldChildren);
+		Iterator<MutableTreeNode<K,V>> children = parent.iterator();
+		while (children.hasNext()) {
+			MutableTreeNode<K,V> child = children.next();
+			if (!old.remove(child)) {
+				Iterator<MutableTreeNode<K,V>> iter = child.preOrderEnumeration();
+				while (iter.hasNext()) {
+					add(iter.next());
+				}
+			}
+		}
+		for (MutableTreeNode<K,V> child : old) {
+			Iterator<MutableTreeNode<K,V>> iter = child.preOrderEnumeration();
+			while (iter.hasNext()) {
+				MutableTreeNode<K,V> node = iter.next();
+				remove(node, node.getUserObject());
+			}
+		}
+	}
+}
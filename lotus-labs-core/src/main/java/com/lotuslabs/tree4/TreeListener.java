@@ -0,0 +1,73 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Listener for changes to a tree of <code>MutableTreeNode</code>s.
+ * A listener is added to a whole tree (see
+ * <code>MutableTreeNode.addTreeListener</code>) and hears about every
+ * node in it, including nodes inserted later.
+ *
+ * Every change to a node is announced by <code>nodeWillChange</code>
+ * before it happens, and followed by exactly one of the other
+ * notifications for the same node once it is done.
+ *
+ * Subtrees removed from the tree keep reporting to the tree's listeners
+ * until they are inserted into another tree; listeners that only care
+ * about the live tree should check the root of the node they are given.
+ *
+ * Listeners are called on the thread that modifies the tree. They must
+ * not modify the tree and should not throw.
+ *
+ * @author psurti
+ */
+public interface TreeListener<K extends Serializable,V> {
+
+	/**
+	 * The child array or the user object of <code>node</code>
+	 * is about to change
+	 */
+	default void nodeWillChange(MutableTreeNode<K,V> node) {
+	}
+
+	/**
+	 * <code>child</code> was inserted at <code>index</code> of
+	 * <code>parent</code>'s child array
+	 */
+	default void nodeInserted(MutableTreeNode<K,V> parent, MutableTreeNode<K,V> child, int index) {
+	}
+
+	/**
+	 * <code>child</code> was removed from <code>index</code> of
+	 * <code>parent</code>'s child array
+	 */
+	default void nodeRemoved(MutableTreeNode<K,V> parent, MutableTreeNode<K,V> child, int index) {
+	}
+
+	/**
+	 * the user object of <code>node</code> was replaced
+	 */
+	default void userObjectChanged(MutableTreeNode<K,V> node, V oldUserObject) {
+	}
+
+	/**
+	 * the children of <code>parent</code> were put in a new order,
+	 * e.g. sorted by a new key comparator
+	 */
+	default void childrenReordered(MutableTreeNode<K,V> parent) {
+	}
+
+	/**
+	 * the child array of <code>parent</code>, which held
+	 * <code>oldChildren</code>, was replaced at once by a batch (see
+	 * <code>MutableTreeNode.batch</code>).  Children in only the old array
+	 * were removed, children in only the new one inserted.  A batch first
+	 * reports every parent its nodes leave, deepest first, then every
+	 * parent they arrive at, once it is in the tree; so a node moved
+	 * within the tree is reported removed and then inserted, and every
+	 * report is about a parent that is still, or already, in the tree.
+	 */
+	default void childrenReplaced(MutableTreeNode<K,V> parent, List<MutableTreeNode<K,V>> oldChildren) {
+	}
+}
@@ -0,0 +1,185 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The listeners of one tree. Every node of the tree refers to the
+ * same list, so adding a listener is O(1) once the list is in place.
+ *
+ * Copy-on-write: firing reads a snapshot of the listener array and
+ * never locks.
+ *
+ * @author psurti
+ */
+final class TreeListenerList<K extends Serializable,V> {
+
+	@SuppressWarnings("rawtypes")
+	private static final TreeListener[] NO_LISTENERS = new TreeListener[0];
+
+	@SuppressWarnings("unchecked")
+	private volatile TreeListener<K,V>[] listeners = NO_LISTENERS;
+
+	/** the node <code>insert()</code> is moving within the tree, or null; writer thread only */
+	private MutableTreeNode<K,V> moving;
+	/** the number of batches applied to the tree; writer thread only */
+	private long batches;
+	/** the version tracking of the open snapshots, null while none is open */
+	private volatile TreeVersions<K,V> versions;
+	/** the versions locked by the change in progress; writer thread only */
+	private TreeVersions<K,V> locked;
+	/** counts the starts and ends of changes, odd during a change */
+	private volatile long changes;
+
+	synchronized void add(TreeListener<K,V> listener) {
+		TreeListener<K,V>[] current = listeners;
+		TreeListener<K,V>[] next = Arrays.copyOf(current, current.length + 1);
+		next[current.length] = listener;
+		listeners = next;
+	}
+
+	synchronized boolean remove(TreeListener<K,V> listener) {
+		TreeListener<K,V>[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == listener) {
+				@SuppressWarnings({"unchecked", "rawtypes"})
+				TreeListener<K,V>[] next = new TreeListener[current.length - 1];
+				System.arraycopy(current, 0, next, 0, i);
+				System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+				listeners = next;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	TreeListener<K,V>[] getListeners() {
+		return listeners;
+	}
+
+	/**
+	 * Returns true if <code>node</code> is being moved from one parent in
+	 * the tree to another, i.e. its removal and insertion are one change.
+	 */
+	boolean isMoving(MutableTreeNode<K,V> node) {
+		return moving == node;
+	}
+
+	void setMoving(MutableTreeNode<K,V> node) {
+		moving = node;
+	}
+
+	/**
+	 * Returns the number of the batch being applied to the tree, so that
+	 * listeners can tell the <code>childrenReplaced</code> of one batch
+	 * from those of the next.
+	 */
+	long batch() {
+		return batches;
+	}
+
+	void beginBatch() {
+		batches++;
+	}
+
+	TreeVersions<K,V> getVersions() {
+		return versions;
+	}
+
+	/**
+	 * Installs version tracking, or returns the one installed.  A change
+	 * that started without it is waited out, so that snapshots opened on
+	 * the new tracking never see half of a change.
+	 */
+	TreeVersions<K,V> installVersions() {
+		TreeVersions<K,V> installed;
+		synchronized (this) {
+			installed = versions;
+			if (installed != null) {
+				return installed;
+			}
+			installed = new TreeVersions<>(this);
+			versions = installed;
+		}
+		// the writer counts a change before it reads the versions, so it
+		// either sees the tracking or is seen here in the middle of a change
+		long count = changes;
+		if ((count & 1) != 0) {
+			while (changes == count) {
+				Thread.yield();
+			}
+		}
+		return installed;
+	}
+
+	/**
+	 * Removes the version tracking once its last snapshot is closed.
+	 */
+	synchronized void uninstallVersions(TreeVersions<K,V> retired) {
+		if (versions == retired) {
+			versions = null;
+		}
+	}
+
+	/**
+	 * Starts a change to <code>node</code>, locking out the snapshots
+	 * while it is in progress.  Writer thread only.
+	 */
+	void beginChange(MutableTreeNode<K,V> node) {
+		changes++;
+		TreeVersions<K,V> current = versions;
+		if (current != null) {
+			current.beginChange(node);
+		}
+		locked = current;
+	}
+
+	/**
+	 * Ends the change in progress.  Writer thread only.
+	 */
+	void endChange() {
+		TreeVersions<K,V> current = locked;
+		locked = null;
+		if (current != null) {
+			current.endChange();
+		}
+		changes++;
+	}
+
+	void fireNodeWillChange(MutableTreeNode<K,V> node) {
+		for (TreeListener<K,V> listener : listeners) {
+			listener.nodeWillChange(node);
+		}
+	}
+
+	void fireNodeInserted(MutableTreeNode<K,V> parent, MutableTreeNode<K,V> child, int index) {
+		for (TreeListener<K,V> listener : listeners) {
+			listener.nodeInserted(parent, child, index);
+		}
+	}
+
+	void fireNodeRemoved(MutableTreeNode<K,V> parent, MutableTreeNode<K,V> child, int index) {
+		for (TreeListener<K,V> listener : listeners) {
+			listener.nodeRemoved(parent, child, index);
+		}
+	}
+
+	void fireUserObjectChanged(MutableTreeNode<K,V> node, V oldUserObject) {
+		for (TreeListener<K,V> listener : listeners) {
+			listener.userObjectChanged(node, oldUserObject);
+		}
+	}
+
+	void fireChildrenReordered(MutableTreeNode<K,V> parent) {
+		for (TreeListener<K,V> listener : listeners) {
+			listener.childrenReordered(parent);
+		}
+	}
+
+	void fireChildrenReplaced(MutableTreeNode<K,V> parent, List<MutableTreeNode<K,V>> oldChildren) {
+		for (TreeListener<K,V> listener : listeners) {
+			listener.childrenReplaced(parent, oldChildren);
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package com.lotuslabs.tree4;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional counters and latency histograms for the operations on trees,
+ * to tell which lookups are expensive and whether indexes are used.
+ *
+ * Metrics are off until <code>enable</code> installs an instance, and
+ * are collected for every tree of the class loader until
+ * <code>disable</code>.  While they are off an instrumented operation
+ * costs one read of a volatile field.  While they are on every call is
+ * counted, with the number of nodes it visited, in <code>LongAdder</code>s
+ * that threads update without contending; one call in
+ * <code>sampleInterval</code> is also timed into a histogram of
+ * power-of-two buckets and passed to the sink, if there is one.
+ *
+ * The operations counted are:
+ * <ul>
+ * <li>FIND: <code>find</code>, visiting the nodes whose keys it compares
+ * <li>GET: <code>get(TreePath)</code>, visiting one node per level it
+ * descends
+ * <li>ENUMERATION: the creation of a preorder, postorder or breadth-first
+ * enumeration
+ * <li>MUTATION: <code>insert</code>, <code>remove</code>,
+ * <code>setUserObject</code>, and a batch applied at once, which visits
+ * the nodes it changes
+ * <li>REBUILD: recomputing the subtree sizes of a
+ * <code>MutableTreeNode</code> or the preorder labels of a
+ * <code>TreeIndex</code>, visiting the nodes it recomputes
+ * </ul>
+ *
+ * @author psurti
+ */
+public final class TreeMetrics {
+
+	private static final String SAMPLE_INTERVAL_IS_NOT_POSITIVE = "sample interval is not positive";
+	private static final String PERCENTILE_OUT_OF_RANGE = "percentile out of range: ";
+
+	/** the default number of calls per timed call */
+	public static final int DEFAULT_SAMPLE_INTERVAL = 64;
+
+	/** the start of a call that is not timed */
+	private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+	/** the number of histogram buckets, one per bit length of a latency */
+	private static final int BUCKETS = 64;
+
+	/**
+	 * The operations counted.
+	 */
+	public enum Operation {
+		FIND, GET, ENUMERATION, MUTATION, REBUILD
+	}
+
+	/**
+	 * Receives the timed calls, on the thread that made them.  A sink
+	 * must be thread-safe and fast, and should not throw.
+	 */
+	@FunctionalInterface
+	public interface Sink {
+
+		/**
+		 * A timed call of <code>operation</code> visited
+		 * <code>nodesVisited</code> nodes in <code>nanos</code>
+		 * nanoseconds.
+		 */
+		void record(Operation operation, long nodesVisited, long nanos);
+	}
+
+	/** the counters of one operation */
+	private static final class Counters {
+		final LongAdder calls = new LongAdder();
+		final LongAdder nodesVisited = new LongAdder();
+		final LongAdder sampled = new LongAdder();
+		final LongAdder[] latencies = new LongAdder[BUCKETS];
+
+		Counters() {
+			for (int i = 0; i < BUCKETS; i++) {
+				latencies[i] = new LongAdder();
+			}
+		}
+
+		void reset() {
+			calls.reset();
+			nodesVisited.reset();
+			sampled.reset();
+			for (LongAdder bucket : latencies) {
+				bucket.reset();
+			}
+		}
+	}
+
+	private static volatile TreeMetrics active;
+
+	private final int sampleInterval;
+	private final Sink sink;
+	private final Map<Operation,Counters> counters = new EnumMap<>(Operation.class);
+
+	private TreeMetrics(int sampleInterval, Sink sink) {
+		this.sampleInterval = sampleInterval;
+		this.sink = sink;
+		for (Operation operation : Operation.values()) {
+			counters.put(operation, new Counters());
+		}
+	}
+
+	/**
+	 * Starts collecting metrics, timing one call in
+	 * <code>DEFAULT_SAMPLE_INTERVAL</code>, without a sink.
+	 *
+	 * @return the metrics, replacing any installed before
+	 */
+	public static TreeMetrics enable() {
+		return enable(DEFAULT_SAMPLE_INTERVAL, null);
+	}
+
+	/**
+	 * Starts collecting metrics.
+	 *
+	 * @param sampleInterval the number of calls per timed call, 1 to time
+	 *        every call
+	 * @param sink receives the timed calls, or null
+	 * @return the metrics, replacing any installed before
+	 * @exception IllegalArgumentException if <code>sampleInterval</code>
+	 *            is not positive
+	 */
+	public static TreeMetrics enable(int sampleInterval, Sink sink) {
+		if (sampleInterval <= 0) {
+			throw new IllegalArgumentException(SAMPLE_INTERVAL_IS_NOT_POSITIVE);
+		}
+		TreeMetrics metrics = new TreeMetrics(sampleInterval, sink);
+		active = metrics;
+		return metrics;
+	}
+
+	/**
+	 * Stops collecting metrics.  The instance that was installed keeps
+	 * its counts.
+	 */
+	public static void disable() {
+		active = null;
+	}
+
+	/**
+	 * Returns the installed metrics, or null if metrics are off.
+	 */
+	public static TreeMetrics active() {
+		return active;
+	}
+
+	/**
+	 * Returns the start of a call: the time if the call is to be timed.
+	 */
+	long start() {
+		if (sampleInterval > 1 && ThreadLocalRandom.current().nextInt(sampleInterval) != 0) {
+			return NOT_SAMPLED;
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Counts a call of <code>operation</code> that started at
+	 * <code>start</code>.
+	 */
+	void record(Operation operation, long nodesVisited, long start) {
+		Counters c = counters.get(operation);
+		c.calls.increment();
+		c.nodesVisited.add(nodesVisited);
+		if (start != NOT_SAMPLED) {
+			long nanos = Math.max(0, System.nanoTime() - start);
+			c.sampled.increment();
+			c.latencies[bucket(nanos)].increment();
+			if (sink != null) {
+				sink.record(operation, nodesVisited, nanos);
+			}
+		}
+	}
+
+	/** bucket i holds latencies of i bits, [2^(i-1), 2^i) nanoseconds */
+	private static int bucket(long nanos) {
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+	}
+
+	/**
+	 * Returns the number of calls of <code>operation</code>.
+	 */
+	public long count(Operation operation) {
+		return counters.get(operation).calls.sum();
+	}
+
+	/**
+	 * Returns the number of nodes visited by the calls of
+	 * <code>operation</code>.
+	 */
+	public long nodesVisited(Operation operation) {
+		return counters.get(operation).nodesVisited.sum();
+	}
+
+	/**
+	 * Returns the mean number of nodes visited per call of
+	 * <code>operation</code>, NaN if there were none.
+	 */
+	public double meanNodesVisited(Operation operation) {
+		long calls = count(operation);
+		return calls == 0 ? Double.NaN : (double) nodesVisited(operation) / calls;
+	}
+
+	/**
+	 * Returns the number of timed calls of <code>operation</code>.
+	 */
+	public long sampled(Operation operation) {
+		return counters.get(operation).sampled.sum();
+	}
+
+	/**
+	 * Returns the latency histogram of <code>operation</code>: element
+	 * <code>i</code> is the number of timed calls that took from
+	 * 2^(i-1) up to 2^i nanoseconds, element 0 those that took none.
+	 */
+	public long[] latencies(Operation operation) {
+		LongAdder[] buckets = counters.get(operation).latencies;
+		long[] histogram = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			histogram[i] = buckets[i].sum();
+		}
+		return histogram;
+	}
+
+	/**
+	 * Returns a bound on the given percentile of the latency of
+	 * <code>operation</code>: the upper end, in nanoseconds, of the
+	 * bucket the percentile falls in; 0 if no call was timed.
+	 *
+	 * @param percentile from 0 to 100
+	 */
+	public long latencyPercentile(Operation operation, double percentile) {
+		if (!(percentile >= 0 && percentile <= 100)) {
+			throw new IllegalArgumentException(PERCENTILE_OUT_OF_RANGE + percentile);
+		}
+		long[] histogram = latencies(operation);
+		long total = 0;
+		for (long n : histogram) {
+			total += n;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += histogram[i];
+			if (seen >= rank) {
+				return i == 0 ? 0 : (1L << i) - 1;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Sets every count to zero.
+	 */
+	public void reset() {
+		for (Counters c : counters.values()) {
+			c.reset();
+		}
+	}
+
+	/**
+	 * Returns one line per operation with its calls, mean nodes visited
+	 * and median and 99th percentile latencies.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Operation operation : Operation.values()) {
+			sb.append(operation)
+				.append(": calls=").append(count(operation))
+				.append(" nodes/call=").append(String.format("%.1f", meanNodesVisited(operation)))
+				.append(" p50<=").append(latencyPercentile(operation, 50)).append("ns")
+				.append(" p99<=").append(latencyPercentile(operation, 99)).append("ns")
+				.append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -4,7 +4,11 @@
 package com.lotuslabs.tree4;
 
 import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * A node of a tree interface that
@@ -28,6 +32,25 @@ public interface TreeNode<K extends Serializable,V> {
 	 */
 	<T extends TreeNode<K,V>> T getChildAt(int childIndex);
 
+	/**
+	 * Returns the first child whose key equals <code>key</code>.
+	 * The default implementation scans the children in order.
+	 *
+	 * @param key the child key
+	 * @return null if there is no such child
+	 */
+	default <T extends TreeNode<K,V>> T getChild(K key) {
+		if (key == null)
+			return null;
+		Iterator<T> iter = iterator();
+		while (iter.hasNext()) {
+			T child = iter.next();
+			if (key.equals(child.getKey()))
+				return child;
+		}
+		return null;
+	}
+
 	/**
 	 * Return the next sibling for this node
 	 * @return null if does not exist
@@ -139,13 +162,26 @@ public interface TreeNode<K extends Serializable,V> {
 	/**
 	 * Returns the tree-node based on the tree-path
 	 * if the path is not found it will return null
-	 * It defaults to breadth-first enumeration
+	 * The first path component is the key of this node
 	 *
 	 * @param path
 	 * @return
 	 */
 	<T extends TreeNode<K,V>> T get(TreePath<K> path);
 
+	/**
+	 * Returns the tree-nodes of many tree-paths, in the order of
+	 * the paths, with null for a path that is not found.  The paths
+	 * are resolved in one descent that walks a shared prefix once.
+	 * The returned list is fixed-size.
+	 *
+	 * @param paths tree-paths whose first component is the key of this node
+	 * @return the nodes, one per path
+	 */
+	default <T extends TreeNode<K,V>> List<T> getAll(Collection<? extends TreePath<K>> paths) {
+		return TreePathTrie.resolve(this, paths);
+	}
+
 	/**
 	 * Returns the tree-node based on the tree-path
 	 * if the the path is not found it will return null
@@ -158,6 +194,56 @@ public interface TreeNode<K extends Serializable,V> {
 	 */
 	<T extends TreeNode<K,V>> T get(TreePath<K> path, SearchStrategy strategy);
 
+	/**
+	 * Walks the subtree rooted at this node depth-first, calling
+	 * <code>visitor</code> on entering and leaving each node and
+	 * following what it returns.  The walk does not recurse; siblings of
+	 * this node are never visited.
+	 *
+	 * @param visitor the visitor
+	 * @return the node whose callback returned <code>TERMINATE</code>, or
+	 *         null if the walk went to the end
+	 */
+	@SuppressWarnings("unchecked")
+	default <T extends TreeNode<K,V>> T walk(TreeVisitor<T> visitor) {
+		T start = (T) this;
+		TreeVisitor.VisitResult result = visitor.enter(start);
+		if (result == TreeVisitor.VisitResult.TERMINATE) {
+			return start;
+		} else if (result != TreeVisitor.VisitResult.CONTINUE) {
+			return null;
+		}
+		Deque<T> nodes = new ArrayDeque<>();
+		Deque<Iterator<T>> children = new ArrayDeque<>();
+		nodes.push(start);
+		children.push(start.iterator());
+		boolean skipSiblings = false;
+		while (!nodes.isEmpty()) {
+			Iterator<T> iter = children.peek();
+			if (!skipSiblings && iter.hasNext()) {
+				T child = iter.next();
+				result = visitor.enter(child);
+				if (result == TreeVisitor.VisitResult.TERMINATE) {
+					return child;
+				} else if (result == TreeVisitor.VisitResult.CONTINUE) {
+					nodes.push(child);
+					children.push(child.iterator());
+				} else {
+					skipSiblings = result == TreeVisitor.VisitResult.SKIP_SIBLINGS;
+				}
+				continue;
+			}
+			children.pop();
+			T node = nodes.pop();
+			result = visitor.leave(node);
+			if (result == TreeVisitor.VisitResult.TERMINATE) {
+				return node;
+			}
+			skipSiblings = result == TreeVisitor.VisitResult.SKIP_SIBLINGS;
+		}
+		return null;
+	}
+
 	/**
 	 * Returns the tree-node based on an unique key
 	 * in the entire tree. If the tree node is not found
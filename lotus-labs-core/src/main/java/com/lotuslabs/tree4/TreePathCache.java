@@ -0,0 +1,182 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the conversions between the nodes of a tree and
+ * their tree paths, for callers that translate between the two on every
+ * request.  <code>get(path)</code> otherwise searches the tree and
+ * <code>getTreePath(node)</code> builds a new path from the node's
+ * ancestors.
+ *
+ * Both directions are least-recently-used caches of at most
+ * <code>capacity</code> entries.  An entry is stamped when it is cached
+ * and is valid while neither the node nor any of its ancestors has been
+ * given a new parent since (see <code>MutableTreeNode.attachStamp</code>),
+ * so a change to a subtree invalidates exactly the entries of that
+ * subtree, and a hit costs a walk to the root without allocating.  The
+ * cache does not listen to the tree.
+ *
+ * Keys are assumed to be unique among siblings: a path resolved to one
+ * node stays resolved to it while that node is in place, even if a
+ * sibling with the same key is inserted before it.  Lookups that find
+ * nothing are not cached.
+ *
+ * The cache may be shared by threads reading the tree; it is not a
+ * substitute for synchronizing readers with the writer of the tree.
+ *
+ * @author psurti
+ */
+public final class TreePathCache<K extends Serializable,V> {
+
+	private static final String CAPACITY_IS_NOT_POSITIVE = "capacity is not positive";
+
+	/** a cached conversion and the attach clock when it was cached */
+	private static final class Cached<K extends Serializable,V> {
+		final MutableTreeNode<K,V> node;
+		final TreePath<K> path;
+		final long stamp;
+
+		Cached(MutableTreeNode<K,V> node, TreePath<K> path, long stamp) {
+			this.node = node;
+			this.path = path;
+			this.stamp = stamp;
+		}
+	}
+
+	private final MutableTreeNode<K,V> root;
+	private final Map<TreePath<K>,Cached<K,V>> byPath;
+	private final Map<MutableTreeNode<K,V>,Cached<K,V>> byNode;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates a cache for the tree that contains <code>tree</code>.
+	 *
+	 * @param tree a node of the tree
+	 * @param capacity the maximum number of entries in each direction
+	 * @exception IllegalArgumentException if <code>capacity</code> is not
+	 *            positive
+	 */
+	public TreePathCache(MutableTreeNode<K,V> tree, int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException(CAPACITY_IS_NOT_POSITIVE);
+		}
+		this.root = tree.getRoot();
+		this.byPath = lru(capacity);
+		this.byNode = lru(capacity);
+	}
+
+	private static <T,K extends Serializable,V> Map<T,Cached<K,V>> lru(final int capacity) {
+		return new LinkedHashMap<T,Cached<K,V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<T,Cached<K,V>> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the node of the tree at <code>path</code>, or null if there
+	 * is none.
+	 *
+	 * @see MutableTreeNode#get(TreePath)
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends MutableTreeNode<K,V>> T get(TreePath<K> path) {
+		synchronized (this) {
+			Cached<K,V> entry = byPath.get(path);
+			if (entry != null) {
+				if (isValid(entry)) {
+					hits++;
+					return (T) entry.node;
+				}
+				byPath.remove(path);
+			}
+			misses++;
+		}
+		long stamp = MutableTreeNode.attachClock();
+		MutableTreeNode<K,V> node = root.get(path);
+		if (node != null) {
+			Cached<K,V> entry = new Cached<>(node, path, stamp);
+			synchronized (this) {
+				byPath.put(path, entry);
+				byNode.put(node, entry);
+			}
+		}
+		return (T) node;
+	}
+
+	/**
+	 * Returns the tree path of <code>node</code>.
+	 *
+	 * @see MutableTreeNode#getTreePath()
+	 */
+	public TreePath<K> getTreePath(MutableTreeNode<K,V> node) {
+		synchronized (this) {
+			Cached<K,V> entry = byNode.get(node);
+			if (entry != null) {
+				if (isValid(entry)) {
+					hits++;
+					return entry.path;
+				}
+				byNode.remove(node);
+			}
+			misses++;
+		}
+		long stamp = MutableTreeNode.attachClock();
+		TreePath<K> path = node.getTreePath();
+		Cached<K,V> entry = new Cached<>(node, path, stamp);
+		synchronized (this) {
+			byNode.put(node, entry);
+			if (node.getRoot() == root) {
+				byPath.put(path, entry);
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * True if no node from the entry's node to the root of the tree has
+	 * been attached since the entry was cached.
+	 */
+	private boolean isValid(Cached<K,V> entry) {
+		MutableTreeNode<K,V> node = entry.node;
+		while (true) {
+			if (node.attachStamp() > entry.stamp) {
+				return false;
+			}
+			MutableTreeNode<K,V> parent = node.getParent();
+			if (parent == null) {
+				return node == root;
+			}
+			node = parent;
+		}
+	}
+
+	/**
+	 * Removes every entry.
+	 */
+	public synchronized void clear() {
+		byPath.clear();
+		byNode.clear();
+	}
+
+	/**
+	 * Returns the number of lookups answered from the cache.
+	 */
+	public synchronized long hitCount() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that went to the tree.
+	 */
+	public synchronized long missCount() {
+		return misses;
+	}
+}
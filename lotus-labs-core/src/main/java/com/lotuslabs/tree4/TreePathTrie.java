@@ -0,0 +1,111 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves many tree paths in one descent.  The paths are merged into a
+ * trie, so a prefix shared by several paths is walked once, and the tree
+ * and the trie are then descended together.
+ *
+ * Where only one path continues below a node its child is looked up with
+ * <code>getChild</code>; where several do, and the children are not
+ * sorted, the children are scanned once for all of them instead of once
+ * per path.
+ *
+ * @author psurti
+ */
+final class TreePathTrie<K extends Serializable> {
+
+	private static final int[] NO_ENDS = new int[0];
+
+	/** the next path components, null if none */
+	private Map<K,TreePathTrie<K>> children;
+	/** positions of the paths that end here */
+	private int[] ends = NO_ENDS;
+
+	private TreePathTrie() {
+		super();
+	}
+
+	private TreePathTrie<K> child(K key) {
+		if (children == null) {
+			children = new HashMap<>();
+		}
+		return children.computeIfAbsent(key, k -> new TreePathTrie<>());
+	}
+
+	private void addEnd(int position) {
+		ends = Arrays.copyOf(ends, ends.length + 1);
+		ends[ends.length - 1] = position;
+	}
+
+	/**
+	 * Returns the nodes at <code>paths</code> below <code>start</code>, in
+	 * the order of the paths, null for a path that is not found.  The
+	 * first component of every path must be the key of <code>start</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	static <K extends Serializable,V,T extends TreeNode<K,V>> List<T> resolve(TreeNode<K,V> start,
+			Collection<? extends TreePath<K>> paths) {
+		TreePathTrie<K> top = new TreePathTrie<>();
+		int position = 0;
+		for (TreePath<K> path : paths) {
+			TreePathTrie<K> trie = top;
+			for (K key : path.getPath()) {
+				trie = trie.child(key);
+			}
+			trie.addEnd(position++);
+		}
+
+		Object[] results = new Object[position];
+		TreePathTrie<K> first = top.children == null ? null : top.children.get(start.getKey());
+		if (first != null) {
+			Deque<Object[]> stack = new ArrayDeque<>(); // tree node, trie
+			stack.push(new Object[] {start, first});
+			while (!stack.isEmpty()) {
+				Object[] entry = stack.pop();
+				TreeNode<K,V> node = (TreeNode<K,V>) entry[0];
+				TreePathTrie<K> trie = (TreePathTrie<K>) entry[1];
+				for (int end : trie.ends) {
+					results[end] = node;
+				}
+				if (trie.children != null) {
+					descend(node, trie.children, stack);
+				}
+			}
+		}
+		return (List<T>) (List<?>) Arrays.asList(results);
+	}
+
+	private static <K extends Serializable,V> void descend(TreeNode<K,V> node, Map<K,TreePathTrie<K>> next,
+			Deque<Object[]> stack) {
+		boolean sorted = node instanceof MutableTreeNode && ((MutableTreeNode<K,V>) node).getKeyComparator() != null;
+		if (next.size() == 1 || sorted) {
+			for (Map.Entry<K,TreePathTrie<K>> e : next.entrySet()) {
+				TreeNode<K,V> child = node.getChild(e.getKey());
+				if (child != null) {
+					stack.push(new Object[] {child, e.getValue()});
+				}
+			}
+			return;
+		}
+		// the first child with each key, as getChild finds it
+		Map<K,TreePathTrie<K>> pending = new HashMap<>(next);
+		Iterator<TreeNode<K,V>> iter = node.iterator();
+		while (iter.hasNext() && !pending.isEmpty()) {
+			TreeNode<K,V> child = iter.next();
+			TreePathTrie<K> trie = child.getKey() == null ? null : pending.remove(child.getKey());
+			if (trie != null) {
+				stack.push(new Object[] {child, trie});
+			}
+		}
+	}
+}
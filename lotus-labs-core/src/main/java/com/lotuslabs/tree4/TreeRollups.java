@@ -0,0 +1,168 @@
+package com.lotuslabs.tree4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import tech.tablesaw.api.DoubleColumn;
+import tech.tablesaw.api.IntColumn;
+import tech.tablesaw.api.NumericColumn;
+import tech.tablesaw.api.Table;
+
+/**
+ * Subtree rollups of a per-node metric over a tree exported by
+ * <code>TreeTables.toTable</code>.  For every node the sum, the count of
+ * present values and the mean of the metric over its subtree are computed
+ * at once, in one pass over primitive arrays in reverse preorder: each
+ * node adds its totals to its parent's, which comes earlier.
+ *
+ * Since every subtree is a contiguous range of rows, the subtrees of the
+ * children of the root are rolled up in parallel when the tree is large,
+ * and the root adds up their totals.
+ *
+ * @author psurti
+ */
+public final class TreeRollups {
+
+	public static final String SUM = "sum";
+	public static final String COUNT = "count";
+	public static final String MEAN = "mean";
+
+	/** trees with fewer nodes than this are rolled up on the calling thread */
+	private static final int SEQUENTIAL_THRESHOLD = 1 << 16;
+
+	private static final String SIZE_MISMATCH = "metric and tree differ in size";
+	private static final String NOT_IN_PREORDER = "rows are not in preorder";
+
+	private TreeRollups() {
+		super();
+	}
+
+	/**
+	 * Rolls up <code>metric</code> on the common pool.
+	 *
+	 * @see #rollup(Table, NumericColumn, ForkJoinPool)
+	 */
+	public static Table rollup(Table tree, NumericColumn metric) {
+		return rollup(tree, metric, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Rolls up <code>metric</code>, one value per row of <code>tree</code>,
+	 * over every subtree.  Missing values are left out of the sums and
+	 * counts; the mean of a subtree without values is missing.
+	 *
+	 * @param tree a table with the <code>parent</code> and
+	 *        <code>size</code> columns of <code>TreeTables.toTable</code>,
+	 *        rows in preorder
+	 * @param metric the metric of each node
+	 * @param pool the pool that rolls up large trees
+	 * @return a table with the columns <code>sum</code>, <code>count</code>
+	 *         and <code>mean</code>, prefixed with the metric name, one row
+	 *         per row of <code>tree</code>
+	 * @exception IllegalArgumentException if the metric and the tree differ
+	 *            in size, or if the rows are not in preorder: the subtree
+	 *            of a row, from the row on for <code>size</code> rows,
+	 *            must lie within the subtree of its parent
+	 */
+	public static Table rollup(Table tree, NumericColumn metric, ForkJoinPool pool) {
+		int count = tree.rowCount();
+		if (metric.size() != count) {
+			throw new IllegalArgumentException(SIZE_MISMATCH);
+		}
+		int[] parents = tree.intColumn(TreeTables.PARENT).toIntArray();
+		int[] sizes = tree.intColumn(TreeTables.SIZE).toIntArray();
+		checkPreorder(parents, sizes, count);
+
+		double[] sums = values(metric);
+		int[] counts = new int[count];
+		for (int i = 0; i < count; i++) {
+			if (Double.isNaN(sums[i])) {
+				sums[i] = 0;
+			} else {
+				counts[i] = 1;
+			}
+		}
+
+		if (count > 0) {
+			List<int[]> ranges = new ArrayList<>();   // the subtrees of the children of the root
+			for (int child = 1; child < count; child += sizes[child]) {
+				ranges.add(new int[] {child, child + sizes[child]});
+			}
+			if (count < SEQUENTIAL_THRESHOLD || ranges.size() < 2) {
+				ranges.forEach(r -> rollup(parents, sums, counts, r[0], r[1]));
+			} else {
+				pool.submit(() -> ranges.parallelStream().forEach(r -> rollup(parents, sums, counts, r[0], r[1])))
+					.join();
+			}
+			for (int[] range : ranges) {
+				sums[0] += sums[range[0]];
+				counts[0] += counts[range[0]];
+			}
+		}
+
+		double[] means = new double[count];
+		for (int i = 0; i < count; i++) {
+			means[i] = counts[i] == 0 ? DoubleColumn.MISSING_VALUE : sums[i] / counts[i];
+		}
+		String prefix = metric.name() + ".";
+		return Table.create(metric.name() + " rollup",
+				new DoubleColumn(prefix + SUM, sums),
+				new IntColumn(prefix + COUNT, counts),
+				new DoubleColumn(prefix + MEAN, means));
+	}
+
+	/**
+	 * Checks that the subtree of every row is a range of rows within the
+	 * subtree of its parent, and that its parent is the innermost range
+	 * open at the row, so that the walk over the children of the root
+	 * ends and the ranges rolled up in parallel do not share rows.
+	 */
+	private static void checkPreorder(int[] parents, int[] sizes, int count) {
+		if (count == 0) {
+			return;
+		} else if (sizes[0] != count) {
+			throw new IllegalArgumentException(NOT_IN_PREORDER);
+		}
+		// the rows whose ranges are open, innermost on top
+		int[] open = new int[count];
+		int top = 0;
+		for (int i = 1; i < count; i++) {
+			while (open[top] + sizes[open[top]] <= i) {
+				top--;
+			}
+			int parent = open[top];
+			if (parents[i] != parent || sizes[i] < 1 || i + sizes[i] > parent + sizes[parent]) {
+				throw new IllegalArgumentException(NOT_IN_PREORDER);
+			}
+			open[++top] = i;
+		}
+	}
+
+	/**
+	 * Adds up the subtree rooted at row <code>from</code>, which ends
+	 * before row <code>to</code>, into row <code>from</code>.
+	 */
+	private static void rollup(int[] parents, double[] sums, int[] counts, int from, int to) {
+		for (int i = to - 1; i > from; i--) {
+			int parent = parents[i];
+			sums[parent] += sums[i];
+			counts[parent] += counts[i];
+		}
+	}
+
+	/**
+	 * Returns the values of <code>metric</code> with missing values as NaN.
+	 */
+	private static double[] values(NumericColumn metric) {
+		if (metric instanceof IntColumn) {
+			int[] ints = ((IntColumn) metric).toIntArray();
+			double[] values = new double[ints.length];
+			for (int i = 0; i < ints.length; i++) {
+				values[i] = ints[i] == IntColumn.MISSING_VALUE ? Double.NaN : ints[i];
+			}
+			return values;
+		}
+		return metric.toDoubleArray();
+	}
+}
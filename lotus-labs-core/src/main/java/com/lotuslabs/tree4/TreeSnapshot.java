@@ -0,0 +1,174 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+
+/**
+ * A read-only view of a tree fixed at the version it was opened at.
+ * Readers of a snapshot see a consistent tree without taking locks while
+ * the writer goes on changing the live tree.
+ *
+ * Snapshots are opened with <code>MutableTreeNode.openSnapshot()</code>
+ * and must be closed, otherwise the tree keeps saving old states for
+ * them.  Closing any node of a snapshot closes the snapshot.
+ *
+ * Nodes of a snapshot are created as it is navigated; two of them are
+ * equal if they stand for the same tree node in the same snapshot.
+ * Levels and tree paths are relative to the node the snapshot was
+ * opened on.
+ *
+ * Nodes moved from this tree into another tree are not versioned any
+ * more; their later changes show through.
+ *
+ * @author psurti
+ */
+public final class TreeSnapshot<K extends Serializable,V> extends AbstractTreeNode<K,V> implements AutoCloseable {
+
+	private static final String SNAPSHOT_IS_CLOSED = "snapshot is closed";
+
+	/** what the nodes of one snapshot share */
+	private static final class Session<K extends Serializable,V> {
+		final TreeVersions<K,V> versions;
+		final long version;
+		volatile boolean closed;
+
+		Session(MutableTreeNode<K,V> root) {
+			TreeVersions<K,V> opened;
+			long at;
+			do {
+				// versions retired by a concurrent close are replaced
+				opened = TreeVersions.of(root);
+				at = opened.open();
+			} while (at < 0);
+			this.versions = opened;
+			this.version = at;
+		}
+	}
+
+	private final Session<K,V> session;
+	private final MutableTreeNode<K,V> node;
+	private final TreeSnapshot<K,V> parent;
+	private final int index;
+	/** the node's state in this snapshot, resolved on first use */
+	private TreeVersions.NodeVersion<K,V> state;
+
+	/**
+	 * Opens a snapshot of the subtree rooted at <code>root</code>.
+	 */
+	TreeSnapshot(MutableTreeNode<K,V> root) {
+		this(new Session<>(root), root, null, 0);
+	}
+
+	private TreeSnapshot(Session<K,V> session, MutableTreeNode<K,V> node, TreeSnapshot<K,V> parent, int index) {
+		super();
+		this.session = session;
+		this.node = node;
+		this.parent = parent;
+		this.index = index;
+	}
+
+	private TreeVersions.NodeVersion<K,V> state() {
+		if (session.closed) {
+			throw new IllegalStateException(SNAPSHOT_IS_CLOSED);
+		}
+		TreeVersions.NodeVersion<K,V> current = state;
+		if (current == null) {
+			current = session.versions.stateAt(node, session.version);
+			state = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Returns the live tree node this snapshot node stands for.
+	 */
+	MutableTreeNode<K,V> getNode() {
+		return node;
+	}
+
+	/**
+	 * Returns the version of the tree this snapshot shows.
+	 */
+	public long getVersion() {
+		return session.version;
+	}
+
+	/**
+	 * Returns true once the snapshot has been closed.
+	 */
+	public boolean isClosed() {
+		return session.closed;
+	}
+
+	/**
+	 * Closes the snapshot and lets the tree drop the old states kept for
+	 * it.  Closing a closed snapshot does nothing.
+	 */
+	@Override
+	public void close() {
+		if (!session.closed) {
+			session.closed = true;
+			session.versions.release(session.version);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T extends TreeNode<K,V>> T getChildAt(int childIndex) {
+		Object[] children = state().children;
+		if (childIndex < 0 || childIndex >= children.length) {
+			throw new ArrayIndexOutOfBoundsException(childIndex);
+		}
+		return (T) new TreeSnapshot<>(session, (MutableTreeNode<K,V>) children[childIndex], this, childIndex);
+	}
+
+	@Override
+	public int childCount() {
+		return state().children.length;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T extends TreeNode<K,V>> T getParent() {
+		return (T) parent;
+	}
+
+	@Override
+	public int getIndex(TreeNode<K,V> aChild) {
+		if (aChild == null) {
+			throw new IllegalArgumentException("argument is null");
+		}
+		return isNodeChild(aChild) ? ((TreeSnapshot<?,?>) aChild).index : -1;
+	}
+
+	@Override
+	public boolean getAllowsChildren() {
+		return node.getAllowsChildren();
+	}
+
+	@Override
+	public V getUserObject() {
+		return state().userObject;
+	}
+
+	@Override
+	public K getKey() {
+		return node.getKey();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (!(o instanceof TreeSnapshot)) {
+			return false;
+		}
+		TreeSnapshot<?,?> other = (TreeSnapshot<?,?>) o;
+		return other.session == session && other.node == node;
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(node);
+	}
+}
@@ -0,0 +1,272 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.Function;
+
+import tech.tablesaw.api.CategoryColumn;
+import tech.tablesaw.api.IntColumn;
+import tech.tablesaw.api.Table;
+
+/**
+ * Converts between trees and tablesaw tables with one row per node, for
+ * handing hierarchies to columnar analytics.
+ *
+ * An exported table has the columns
+ * <ul>
+ * <li><code>id</code>: the preorder index of the node, 0 for the root
+ * <li><code>parent</code>: the id of the parent, missing for the root
+ * <li><code>level</code>: the depth below the root
+ * <li><code>size</code>: the number of nodes in the subtree of the node,
+ *     so the subtree is the rows <code>id</code> to
+ *     <code>id + size - 1</code>
+ * <li><code>key</code> and <code>value</code>: the key and user object as
+ *     strings, missing if null
+ * </ul>
+ * The columns are filled in a single preorder walk into arrays allocated
+ * at their final size, and wrapped without copying row by row.
+ *
+ * A tree is rebuilt from any table with the <code>id</code>,
+ * <code>parent</code>, <code>key</code> and <code>value</code> columns, in
+ * any row order; the children of a node keep the order of their rows.
+ * Building is linear in the number of rows.
+ *
+ * @author psurti
+ */
+public final class TreeTables {
+
+	public static final String ID = "id";
+	public static final String PARENT = "parent";
+	public static final String LEVEL = "level";
+	public static final String SIZE = "size";
+	public static final String KEY = "key";
+	public static final String VALUE = "value";
+
+	private static final String NO_SINGLE_ROOT = "no single root";
+	private static final String DUPLICATE_ID = "duplicate id";
+	private static final String UNKNOWN_PARENT = "unknown parent";
+	private static final String NODES_NOT_CONNECTED = "nodes are not connected to the root";
+
+	private TreeTables() {
+	}
+
+	/**
+	 * Exports the subtree rooted at <code>root</code>, writing user
+	 * objects with <code>String.valueOf</code>.
+	 *
+	 * @see #toTable(TreeNode, String, Function)
+	 */
+	public static <K extends Serializable,V> Table toTable(TreeNode<K,V> root, String name) {
+		return toTable(root, name, String::valueOf);
+	}
+
+	/**
+	 * Exports the subtree rooted at <code>root</code> to a table.
+	 *
+	 * @param root the root of the subtree
+	 * @param name the name of the table
+	 * @param format writes a user object that is not null as a string
+	 * @return the table, one row per node in preorder
+	 */
+	public static <K extends Serializable,V> Table toTable(TreeNode<K,V> root, String name,
+			Function<? super V, String> format) {
+		int count = root.totalCount();
+		int[] ids = new int[count];
+		int[] parents = new int[count];
+		int[] levels = new int[count];
+		int[] sizes = new int[count];
+		String[] keys = new String[count];
+		String[] values = new String[count];
+		int[][] path = {new int[16]}; // ids of the nodes entered and not left
+		int[] next = new int[1];
+		int[] depth = new int[1];
+
+		root.walk(new TreeVisitor<TreeNode<K,V>>() {
+			@Override
+			public VisitResult enter(TreeNode<K,V> node) {
+				int id = next[0]++;
+				int level = depth[0];
+				ids[id] = id;
+				parents[id] = level == 0 ? IntColumn.MISSING_VALUE : path[0][level - 1];
+				levels[id] = level;
+				K key = node.getKey();
+				keys[id] = key == null ? CategoryColumn.MISSING_VALUE : key.toString();
+				V value = node.getUserObject();
+				values[id] = value == null ? CategoryColumn.MISSING_VALUE : format.apply(value);
+				if (level == path[0].length) {
+					path[0] = Arrays.copyOf(path[0], level * 2);
+				}
+				path[0][depth[0]++] = id;
+				return VisitResult.CONTINUE;
+			}
+
+			@Override
+			public VisitResult leave(TreeNode<K,V> node) {
+				int id = path[0][--depth[0]];
+				sizes[id] = next[0] - id;
+				return VisitResult.CONTINUE;
+			}
+		});
+
+		return Table.create(name,
+				new IntColumn(ID, ids),
+				new IntColumn(PARENT, parents),
+				new IntColumn(LEVEL, levels),
+				new IntColumn(SIZE, sizes),
+				new CategoryColumn(KEY, keys),
+				new CategoryColumn(VALUE, values));
+	}
+
+	/**
+	 * Rebuilds a tree from a table with <code>String</code> user objects.
+	 *
+	 * @see #fromTable(Table, Function)
+	 */
+	public static MutableTreeNode<String,String> fromTable(Table table) {
+		return fromTable(table, Function.identity());
+	}
+
+	/**
+	 * Rebuilds a tree from the <code>id</code>, <code>parent</code>,
+	 * <code>key</code> and <code>value</code> columns of a table.  Keys are
+	 * read as strings; missing keys and values become null.  Other columns
+	 * are ignored.
+	 *
+	 * @param table the table, one row per node
+	 * @param parse reads a value that is not missing as a user object
+	 * @return the root, the one row with a missing parent
+	 * @exception IllegalArgumentException if the table has no root or
+	 *            several, if an id is repeated, if a parent id is not an
+	 *            id of the table, or if some rows are not connected to
+	 *            the root
+	 */
+	public static <V> MutableTreeNode<String,V> fromTable(Table table, Function<String, ? extends V> parse) {
+		IntColumn ids = table.intColumn(ID);
+		IntColumn parents = table.intColumn(PARENT);
+		CategoryColumn keys = table.categoryColumn(KEY);
+		CategoryColumn values = table.categoryColumn(VALUE);
+		int count = table.rowCount();
+
+		// exported tables number their rows 0..count-1, so an array maps
+		// ids to rows; other ids go to an open-addressing table
+		int[] dense = denseRows(ids, count);
+		SparseRows sparse = dense == null ? new SparseRows(ids, count) : null;
+		int[] parentRows = new int[count];
+		int[] childCounts = new int[count];
+		int rootRow = -1;
+		for (int row = 0; row < count; row++) {
+			int parentId = parents.get(row);
+			if (parentId == IntColumn.MISSING_VALUE) {
+				if (rootRow >= 0) {
+					throw new IllegalArgumentException(NO_SINGLE_ROOT);
+				}
+				rootRow = row;
+				parentRows[row] = -1;
+				continue;
+			}
+			int parentRow;
+			if (dense != null) {
+				parentRow = parentId >= 0 && parentId < count ? dense[parentId] : -1;
+			} else {
+				parentRow = sparse.rowOf(parentId);
+			}
+			if (parentRow < 0) {
+				throw new IllegalArgumentException(UNKNOWN_PARENT);
+			}
+			parentRows[row] = parentRow;
+			childCounts[parentRow]++;
+		}
+		if (rootRow < 0) {
+			throw new IllegalArgumentException(NO_SINGLE_ROOT);
+		}
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		MutableTreeNode<String,V>[] nodes = new MutableTreeNode[count];
+		for (int row = 0; row < count; row++) {
+			String key = keys.get(row);
+			String value = values.get(row);
+			nodes[row] = new MutableTreeNode<>(missing(key) ? null : key, missing(value) ? null : parse.apply(value));
+		}
+		for (int row = 0; row < count; row++) {
+			int parentRow = parentRows[row];
+			if (parentRow >= 0) {
+				nodes[parentRow].appendChild(nodes[row], childCounts[parentRow]);
+			}
+		}
+		// rows on a cycle are linked to each other but not to the root
+		if (nodes[rootRow].totalCount() != count) {
+			throw new IllegalArgumentException(NODES_NOT_CONNECTED);
+		}
+		return nodes[rootRow];
+	}
+
+	/**
+	 * Returns the row of each id if the ids are 0 to count - 1, or null.
+	 */
+	private static int[] denseRows(IntColumn ids, int count) {
+		int[] rows = new int[count];
+		Arrays.fill(rows, -1);
+		for (int row = 0; row < count; row++) {
+			int id = ids.get(row);
+			if (id < 0 || id >= count) {
+				return null;
+			} else if (rows[id] >= 0) {
+				throw new IllegalArgumentException(DUPLICATE_ID);
+			}
+			rows[id] = row;
+		}
+		return rows;
+	}
+
+	/**
+	 * The row of each id, found by linear probing.  A slot holds a row
+	 * plus one, 0 if empty; the id is read back from the column.
+	 */
+	private static final class SparseRows {
+		private final IntColumn ids;
+		private final int[] slots;
+		private final int mask;
+
+		SparseRows(IntColumn ids, int count) {
+			this.ids = ids;
+			// at most half full
+			int capacity = Integer.highestOneBit(Math.max(count, 1)) << 2;
+			this.slots = new int[capacity];
+			this.mask = capacity - 1;
+			for (int row = 0; row < count; row++) {
+				int id = ids.get(row);
+				int slot = slot(id);
+				while (slots[slot] != 0) {
+					if (ids.get(slots[slot] - 1) == id) {
+						throw new IllegalArgumentException(DUPLICATE_ID);
+					}
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = row + 1;
+			}
+		}
+
+		/**
+		 * Returns the row of <code>id</code>, or -1 if it is not in the table.
+		 */
+		int rowOf(int id) {
+			for (int slot = slot(id); slots[slot] != 0; slot = (slot + 1) & mask) {
+				int row = slots[slot] - 1;
+				if (ids.get(row) == id) {
+					return row;
+				}
+			}
+			return -1;
+		}
+
+		private int slot(int id) {
+			// spreads ids that differ in their high bits only
+			int h = id * 0x9E3779B9;
+			return (h ^ (h >>> 16)) & mask;
+		}
+	}
+
+	private static boolean missing(String s) {
+		return s == null || CategoryColumn.MISSING_VALUE.equals(s);
+	}
+}
@@ -0,0 +1,243 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Multi-version support for the snapshots of one tree.
+ *
+ * Every change to the tree gets the next version number.  While a
+ * snapshot is open, the writer saves the old child array and user object
+ * of a node before changing it, but only if an open snapshot can still
+ * see that state.  Snapshot readers take the newest saved state that is
+ * older than their version, or the live state if the node has not
+ * changed since.  Live state is read optimistically and validated against
+ * the writer's stamp, so readers never block the writer.
+ *
+ * Saved states are dropped once the snapshots that can see them are
+ * closed.  When the last snapshot closes the versions are retired and
+ * taken off the tree, which then changes without locking until the next
+ * snapshot installs new versions.
+ *
+ * The writer locks the versions through its listener list in
+ * <code>beginChange</code> and unlocks them in <code>endChange</code>,
+ * which it calls in a finally block, so a change or a listener that
+ * throws cannot leave the snapshots locked.
+ *
+ * Assumes a single writer, as <code>MutableTreeNode</code> is not
+ * thread-safe.
+ *
+ * @author psurti
+ */
+final class TreeVersions<K extends Serializable,V> {
+
+	/**
+	 * The state of a node, seen by the snapshots with a version lower
+	 * than <code>until</code>.  Immutable except for dropping the tail.
+	 */
+	static final class NodeVersion<K extends Serializable,V> {
+		final long until;
+		final Object[] children;
+		final V userObject;
+		NodeVersion<K,V> older;
+
+		NodeVersion(long until, Object[] children, V userObject, NodeVersion<K,V> older) {
+			this.until = until;
+			this.children = children;
+			this.userObject = userObject;
+			this.older = older;
+		}
+	}
+
+	/** saved states of a node, newest first */
+	private static final class History<K extends Serializable,V> {
+		/** version of the latest change to the node */
+		long changed;
+		volatile NodeVersion<K,V> newest;
+	}
+
+	private final TreeListenerList<K,V> list;
+	private final Map<MutableTreeNode<K,V>,History<K,V>> histories = new ConcurrentHashMap<>();
+	private final StampedLock lock = new StampedLock();
+	/** open snapshot versions and how many snapshots use each, guarded by itself */
+	private final TreeMap<Long,Integer> open = new TreeMap<>();
+	private volatile long version;
+	private volatile long newestOpen = -1;
+	private long writeStamp;
+	/** set once the last snapshot closed, guarded by <code>open</code> */
+	private boolean retired;
+
+	TreeVersions(TreeListenerList<K,V> list) {
+		this.list = list;
+	}
+
+	/**
+	 * Returns the versions of the tree containing <code>node</code>,
+	 * installing them if no snapshot is open.
+	 */
+	static <K extends Serializable,V> TreeVersions<K,V> of(MutableTreeNode<K,V> node) {
+		return node.installListenerList().installVersions();
+	}
+
+	/**
+	 * Registers a snapshot at the current version.  Waits for a change in
+	 * progress to finish so the snapshot never sees half of it.
+	 *
+	 * @return  the version, or -1 if these versions are retired and the
+	 *          snapshot must be opened on new ones
+	 */
+	long open() {
+		long stamp = lock.readLock();
+		try {
+			synchronized (open) {
+				if (retired) {
+					return -1;
+				}
+				long current = version;
+				open.merge(current, 1, Integer::sum);
+				newestOpen = open.lastKey();
+				return current;
+			}
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Unregisters a snapshot and drops the saved states no open snapshot
+	 * can see any more.
+	 */
+	void release(long snapshotVersion) {
+		long stamp = lock.readLock();
+		try {
+			synchronized (open) {
+				Integer count = open.get(snapshotVersion);
+				if (count == null) {
+					return;
+				} else if (count > 1) {
+					open.put(snapshotVersion, count - 1);
+				} else {
+					open.remove(snapshotVersion);
+				}
+				if (open.isEmpty()) {
+					newestOpen = -1;
+					histories.clear();
+					retired = true;
+					list.uninstallVersions(this);
+				} else {
+					newestOpen = open.lastKey();
+					prune(open.firstKey());
+				}
+			}
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Drops the states that only snapshots older than
+	 * <code>oldest</code> could see.
+	 */
+	private void prune(long oldest) {
+		Iterator<History<K,V>> iter = histories.values().iterator();
+		while (iter.hasNext()) {
+			History<K,V> history = iter.next();
+			NodeVersion<K,V> state = history.newest;
+			if (state == null || state.until <= oldest) {
+				if (history.changed <= oldest) {
+					iter.remove();
+				} else {
+					history.newest = null;
+				}
+				continue;
+			}
+			while (state.older != null && state.older.until > oldest) {
+				state = state.older;
+			}
+			state.older = null;
+		}
+	}
+
+	/**
+	 * Returns the number of nodes that have saved states.
+	 */
+	int historySize() {
+		return histories.size();
+	}
+
+	/**
+	 * Returns the state of <code>node</code> as seen by the snapshot at
+	 * <code>snapshotVersion</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	NodeVersion<K,V> stateAt(MutableTreeNode<K,V> node, long snapshotVersion) {
+		long stamp = lock.tryOptimisticRead();
+		NodeVersion<K,V> saved = savedStateAt(node, snapshotVersion);
+		if (saved != null) {
+			return saved;
+		}
+		if (stamp != 0L) {
+			try {
+				NodeVersion<K,V> live = new NodeVersion<>(Long.MAX_VALUE, node.childArray(), node.getUserObject(), null);
+				if (lock.validate(stamp)) {
+					return live;
+				}
+			} catch (RuntimeException e) {
+				// torn read of the child array, the writer was in progress
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			saved = savedStateAt(node, snapshotVersion);
+			if (saved != null) {
+				return saved;
+			}
+			return new NodeVersion<>(Long.MAX_VALUE, node.childArray(), node.getUserObject(), null);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	private NodeVersion<K,V> savedStateAt(MutableTreeNode<K,V> node, long snapshotVersion) {
+		History<K,V> history = histories.get(node);
+		if (history == null) {
+			return null;
+		}
+		NodeVersion<K,V> found = null;
+		for (NodeVersion<K,V> state = history.newest; state != null && state.until > snapshotVersion; state = state.older) {
+			found = state;
+		}
+		return found;
+	}
+
+	/**
+	 * Locks out the snapshots for a change to <code>node</code> and saves
+	 * its state if an open snapshot can still see it.
+	 */
+	void beginChange(MutableTreeNode<K,V> node) {
+		writeStamp = lock.writeLock();
+		long changing = ++version;
+		long newest = newestOpen;
+		if (newest < 0) {
+			return;
+		}
+		History<K,V> history = histories.get(node);
+		if (history == null) {
+			history = new History<>();
+			histories.put(node, history);
+		} else if (newest < history.changed) {
+			history.changed = changing;
+			return;
+		}
+		history.newest = new NodeVersion<>(changing, node.childArray(), node.getUserObject(), history.newest);
+		history.changed = changing;
+	}
+
+	void endChange() {
+		lock.unlockWrite(writeStamp);
+	}
+}
@@ -0,0 +1,328 @@
+package com.lotuslabs.tree4;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A lazy, read-only view of a tree that leaves out nodes, cuts the tree
+ * at a depth or projects the user objects, without copying the tree.
+ * Searches and enumerations run over the view as over any other
+ * <code>TreeNode</code>.
+ *
+ * <ul>
+ * <li>A filter decides for each node below the root of the view whether
+ * it is shown; a node that is left out is left out with its subtree.
+ * <li>A depth limit hides the nodes more than <code>maxDepth</code>
+ * levels below the root of the view.
+ * <li>A projection maps the user object of each node when it is read;
+ * null user objects are not mapped.
+ * </ul>
+ *
+ * The view reads through to the source tree, so changes to the tree show
+ * through.  Enumerating the children of a filtered node tests each child
+ * once, but random access (<code>getChildAt</code>,
+ * <code>childCount</code>, <code>getIndex</code>) tests all of them on
+ * every call.  A view of a <code>MutableTreeNode</code> can instead be
+ * <code>memoized()</code>: filtered child lists are then kept until the
+ * tree changes, and the view must be closed to stop listening to the tree.
+ *
+ * Nodes of a view are created as it is navigated; two of them are equal
+ * if they stand for the same source node in the same view.  Levels and
+ * tree paths are relative to the root of the view.
+ *
+ * @author psurti
+ */
+public final class TreeView<K extends Serializable,V,W> extends AbstractTreeNode<K,W> implements AutoCloseable {
+
+	private static final String NOT_A_MUTABLE_TREE = "source is not a MutableTreeNode";
+	private static final String DEPTH_IS_NEGATIVE = "depth is negative";
+
+	/** the settings and memo the nodes of one view share */
+	private static final class Spec<K extends Serializable,V,W> implements TreeListener<K,V> {
+		final Predicate<? super TreeNode<K,V>> filter;
+		final int maxDepth;
+		final Function<? super V, ? extends W> projection;
+		/** filtered child indexes by source node; null if not memoized */
+		final Map<TreeNode<K,V>,int[]> memo;
+		MutableTreeNode<K,V> listenedTo;
+
+		Spec(Predicate<? super TreeNode<K,V>> filter, int maxDepth, Function<? super V, ? extends W> projection,
+				boolean memoized) {
+			this.filter = filter;
+			this.maxDepth = maxDepth;
+			this.projection = projection;
+			this.memo = memoized ? new ConcurrentHashMap<>() : null;
+		}
+
+		/** every change, user objects included, may change what a filter shows */
+		@Override
+		public void nodeWillChange(MutableTreeNode<K,V> node) {
+			memo.clear();
+		}
+	}
+
+	private final Spec<K,V,W> spec;
+	private final TreeNode<K,V> source;
+	private final TreeView<K,V,W> parent;
+	/** index of the source node in its source parent */
+	private final int sourceIndex;
+	private final int level;
+
+	private TreeView(Spec<K,V,W> spec, TreeNode<K,V> source, TreeView<K,V,W> parent, int sourceIndex) {
+		super();
+		this.spec = spec;
+		this.source = source;
+		this.parent = parent;
+		this.sourceIndex = sourceIndex;
+		this.level = parent == null ? 0 : parent.level + 1;
+	}
+
+	/**
+	 * Returns a view of the subtree rooted at <code>root</code> showing
+	 * the nodes accepted by <code>filter</code>.  The root is always
+	 * shown; a node that is rejected hides its subtree.
+	 */
+	public static <K extends Serializable,V> TreeView<K,V,V> filtered(TreeNode<K,V> root,
+			Predicate<? super TreeNode<K,V>> filter) {
+		return of(root, filter, Integer.MAX_VALUE, Function.identity());
+	}
+
+	/**
+	 * Returns a view of the subtree rooted at <code>root</code> down to
+	 * <code>maxDepth</code> levels below it; 0 shows the root only.
+	 */
+	public static <K extends Serializable,V> TreeView<K,V,V> depthLimited(TreeNode<K,V> root, int maxDepth) {
+		return of(root, null, maxDepth, Function.identity());
+	}
+
+	/**
+	 * Returns a view of the subtree rooted at <code>root</code> whose
+	 * user objects are mapped by <code>projection</code>.
+	 */
+	public static <K extends Serializable,V,W> TreeView<K,V,W> projected(TreeNode<K,V> root,
+			Function<? super V, ? extends W> projection) {
+		return of(root, null, Integer.MAX_VALUE, projection);
+	}
+
+	/**
+	 * Returns a view of the subtree rooted at <code>root</code> that
+	 * filters, cuts and projects at once.
+	 *
+	 * @param root the root of the view
+	 * @param filter the nodes to show, or null to show all
+	 * @param maxDepth the number of levels to show below the root
+	 * @param projection maps the user objects
+	 * @exception IllegalArgumentException if <code>maxDepth</code> is
+	 *            negative
+	 */
+	public static <K extends Serializable,V,W> TreeView<K,V,W> of(TreeNode<K,V> root,
+			Predicate<? super TreeNode<K,V>> filter, int maxDepth, Function<? super V, ? extends W> projection) {
+		if (maxDepth < 0) {
+			throw new IllegalArgumentException(DEPTH_IS_NEGATIVE);
+		}
+		return new TreeView<>(new Spec<>(filter, maxDepth, projection, false), root, null, 0);
+	}
+
+	/**
+	 * Returns a view like this one, rooted at this node, that keeps the
+	 * filtered child lists until the tree changes.
+	 *
+	 * @exception IllegalStateException if the source of this view is not
+	 *            a <code>MutableTreeNode</code>
+	 */
+	public TreeView<K,V,W> memoized() {
+		if (!(source instanceof MutableTreeNode)) {
+			throw new IllegalStateException(NOT_A_MUTABLE_TREE);
+		}
+		int remaining = spec.maxDepth == Integer.MAX_VALUE ? Integer.MAX_VALUE : spec.maxDepth - level;
+		Spec<K,V,W> memoized = new Spec<>(spec.filter, remaining, spec.projection, true);
+		memoized.listenedTo = (MutableTreeNode<K,V>) source;
+		memoized.listenedTo.addTreeListener(memoized);
+		return new TreeView<>(memoized, source, null, 0);
+	}
+
+	/**
+	 * Stops a memoized view listening to the tree; afterwards it reads
+	 * through like a view that is not memoized.  Does nothing otherwise.
+	 */
+	@Override
+	public void close() {
+		MutableTreeNode<K,V> tree = spec.listenedTo;
+		if (tree != null) {
+			spec.listenedTo = null;
+			tree.removeTreeListener(spec);
+		}
+	}
+
+	/**
+	 * Returns the source node this view node stands for.
+	 */
+	public TreeNode<K,V> getSource() {
+		return source;
+	}
+
+	private boolean isCut() {
+		return level >= spec.maxDepth;
+	}
+
+	private boolean isShown(TreeNode<K,V> child) {
+		return spec.filter == null || spec.filter.test(child);
+	}
+
+	/**
+	 * Returns the source indexes of the children shown, from the memo if
+	 * there is one; only called for a filtered view.
+	 */
+	private int[] shownIndexes() {
+		if (spec.memo != null && spec.listenedTo != null) {
+			int[] indexes = spec.memo.get(source);
+			if (indexes == null) {
+				indexes = computeShownIndexes();
+				spec.memo.put(source, indexes);
+			}
+			return indexes;
+		}
+		return computeShownIndexes();
+	}
+
+	private int[] computeShownIndexes() {
+		int[] indexes = new int[source.childCount()];
+		int count = 0;
+		int i = 0;
+		Iterator<TreeNode<K,V>> iter = source.iterator();
+		while (iter.hasNext()) {
+			if (isShown(iter.next())) {
+				indexes[count++] = i;
+			}
+			i++;
+		}
+		return count == indexes.length ? indexes : Arrays.copyOf(indexes, count);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T extends TreeNode<K,W>> T getChildAt(int childIndex) {
+		int at = childIndex;
+		if (spec.filter != null && !isCut()) {
+			int[] indexes = shownIndexes();
+			if (childIndex < 0 || childIndex >= indexes.length) {
+				throw new ArrayIndexOutOfBoundsException(childIndex);
+			}
+			at = indexes[childIndex];
+		} else if (childIndex < 0 || childIndex >= childCount()) {
+			throw new ArrayIndexOutOfBoundsException(childIndex);
+		}
+		return (T) new TreeView<>(spec, source.getChildAt(at), this, at);
+	}
+
+	@Override
+	public int childCount() {
+		if (isCut()) {
+			return 0;
+		}
+		return spec.filter == null ? source.childCount() : shownIndexes().length;
+	}
+
+	/**
+	 * Enumerates the children shown, testing each source child once.
+	 */
+	@Override
+	public <T extends TreeNode<K,W>> Iterator<T> iterator() {
+		final Iterator<TreeNode<K,V>> children = isCut() ? null : source.iterator();
+		return new Iterator<T>() {
+			private TreeNode<K,V> next;
+			private int nextIndex = -1;
+			private int index = -1;
+
+			@Override
+			public boolean hasNext() {
+				while (next == null && children != null && children.hasNext()) {
+					TreeNode<K,V> child = children.next();
+					index++;
+					if (isShown(child)) {
+						next = child;
+						nextIndex = index;
+					}
+				}
+				return next != null;
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public T next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				TreeNode<K,V> child = next;
+				next = null;
+				return (T) new TreeView<>(spec, child, TreeView.this, nextIndex);
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T extends TreeNode<K,W>> T getParent() {
+		return (T) parent;
+	}
+
+	@Override
+	public int getIndex(TreeNode<K,W> aChild) {
+		if (aChild == null) {
+			throw new IllegalArgumentException("argument is null");
+		}
+		if (!isNodeChild(aChild)) {
+			return -1;
+		}
+		int at = ((TreeView<?,?,?>) aChild).sourceIndex;
+		if (spec.filter == null) {
+			return at;
+		}
+		int index = Arrays.binarySearch(shownIndexes(), at);
+		return index < 0 ? -1 : index;
+	}
+
+	@Override
+	public int getLevel() {
+		return level;
+	}
+
+	@Override
+	public boolean getAllowsChildren() {
+		return source.getAllowsChildren();
+	}
+
+	@Override
+	public W getUserObject() {
+		V userObject = source.getUserObject();
+		return userObject == null ? null : spec.projection.apply(userObject);
+	}
+
+	@Override
+	public K getKey() {
+		return source.getKey();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (!(o instanceof TreeView)) {
+			return false;
+		}
+		TreeView<?,?,?> other = (TreeView<?,?,?>) o;
+		return other.spec == spec && other.source.equals(source);
+	}
+
+	@Override
+	public int hashCode() {
+		return source.hashCode();
+	}
+}
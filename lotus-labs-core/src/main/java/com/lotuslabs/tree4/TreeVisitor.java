@@ -0,0 +1,56 @@
+package com.lotuslabs.tree4;
+
+/**
+ * A visitor of the nodes of a tree, for <code>TreeNode.walk</code>.  The
+ * walk is depth-first: <code>enter</code> is called on a node before its
+ * children and <code>leave</code> after them, so the same visitor can
+ * search top-down and roll up bottom-up.  What the callbacks return
+ * steers the walk, letting it skip what the caller knows is irrelevant.
+ *
+ * @author psurti
+ *
+ * @param <T> the type of the nodes
+ */
+@FunctionalInterface
+public interface TreeVisitor<T> {
+
+	/**
+	 * What the walk does after a callback.
+	 */
+	enum VisitResult {
+		/** go on with the walk */
+		CONTINUE,
+		/**
+		 * from <code>enter</code>: skip the children of the node, and do
+		 * not call <code>leave</code> on it
+		 */
+		SKIP_SUBTREE,
+		/**
+		 * skip the siblings after the node; from <code>enter</code>, also
+		 * skip its children and do not call <code>leave</code> on it
+		 */
+		SKIP_SIBLINGS,
+		/** end the walk */
+		TERMINATE,
+	}
+
+	/**
+	 * Called on a node before its children.
+	 *
+	 * @param node the node
+	 * @return how to go on
+	 */
+	VisitResult enter(T node);
+
+	/**
+	 * Called on a node after its children, if <code>enter</code> returned
+	 * <code>CONTINUE</code>.  <code>SKIP_SUBTREE</code> is the same as
+	 * <code>CONTINUE</code> here.
+	 *
+	 * @param node the node
+	 * @return how to go on
+	 */
+	default VisitResult leave(T node) {
+		return VisitResult.CONTINUE;
+	}
+}
@@ -0,0 +1,100 @@
+package com.lotuslabs.tree4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding of keys and user objects for the files trees
+ * are saved to.  Strings and boxed primitives are written with a type
+ * tag, anything else with Java serialization.
+ *
+ * @author psurti
+ */
+final class ValueCodec {
+
+	private static final byte NULL_VALUE = 0;
+	private static final byte STRING_VALUE = 1;
+	private static final byte INTEGER_VALUE = 2;
+	private static final byte LONG_VALUE = 3;
+	private static final byte BOOLEAN_VALUE = 4;
+	private static final byte DOUBLE_VALUE = 5;
+	private static final byte SERIALIZED_VALUE = 9;
+
+	private ValueCodec() {
+		super();
+	}
+
+	/**
+	 * Writes <code>value</code>, which may be null.
+	 */
+	static void write(DataOutput out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL_VALUE);
+		} else if (value instanceof String) {
+			byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+			out.writeByte(STRING_VALUE);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		} else if (value instanceof Integer) {
+			out.writeByte(INTEGER_VALUE);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(LONG_VALUE);
+			out.writeLong((Long) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(BOOLEAN_VALUE);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE_VALUE);
+			out.writeDouble((Double) value);
+		} else {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+				objects.writeObject(value);
+			}
+			out.writeByte(SERIALIZED_VALUE);
+			out.writeInt(bytes.size());
+			out.write(bytes.toByteArray());
+		}
+	}
+
+	/**
+	 * Reads a value written by <code>write</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T read(DataInput in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case NULL_VALUE:
+			return null;
+		case STRING_VALUE:
+			byte[] chars = new byte[in.readInt()];
+			in.readFully(chars);
+			return (T) new String(chars, StandardCharsets.UTF_8);
+		case INTEGER_VALUE:
+			return (T) Integer.valueOf(in.readInt());
+		case LONG_VALUE:
+			return (T) Long.valueOf(in.readLong());
+		case BOOLEAN_VALUE:
+			return (T) Boolean.valueOf(in.readBoolean());
+		case DOUBLE_VALUE:
+			return (T) Double.valueOf(in.readDouble());
+		case SERIALIZED_VALUE:
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+				return (T) objects.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+		default:
+			throw new IOException("unknown value type " + type);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to surti-labs under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Surti-labs licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.lotuslabs.tree4.types;
+
+import java.io.ObjectStreamException;
+import java.util.Arrays;
+
+import com.lotuslabs.tree4.TreePath;
+
+/**
+ * A <code>TreePath</code> of String keys held as the codes of a
+ * <code>KeyDictionary</code>.  Two coded paths of the same dictionary
+ * compare their codes; keys are looked up only when asked for.
+ *
+ * Parent paths share the code array.  A coded path is serialized as a
+ * plain <code>TreePath</code>.
+ *
+ * @author psurti
+ */
+public class CodedTreePath extends TreePath<String> {
+
+	private static final long serialVersionUID = 5183224915366742118L;
+
+	private final transient KeyDictionary dictionary;
+	private final transient int[] codes;
+	private final transient int length;
+
+	CodedTreePath(KeyDictionary dictionary, int[] codes, int length) {
+		super();
+		this.dictionary = dictionary;
+		this.codes = codes;
+		this.length = length;
+	}
+
+	/**
+	 * Returns the dictionary of the codes.
+	 */
+	public KeyDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Returns the code of the path element at <code>index</code>.
+	 */
+	public int getCode(int index) {
+		if (index < 0 || index >= length) {
+			throw new IllegalArgumentException("Index " + index +
+					" is out of the specified range");
+		}
+		return codes[index];
+	}
+
+	@Override
+	public String[] getPath() {
+		String[] path = new String[length];
+		for (int i = 0; i < length; i++) {
+			path[i] = dictionary.key(codes[i]);
+		}
+		return path;
+	}
+
+	@Override
+	public String getLastPathComponent() {
+		return dictionary.key(codes[length - 1]);
+	}
+
+	@Override
+	public int getPathCount() {
+		return length;
+	}
+
+	@Override
+	public String getPathComponent(int index) {
+		return dictionary.key(getCode(index));
+	}
+
+	@Override
+	public TreePath<String> getParentPath() {
+		return length == 1 ? null : new CodedTreePath(dictionary, codes, length - 1);
+	}
+
+	@Override
+	public TreePath<String> pathByAddingChild(String child) {
+		if (child == null)
+			throw new NullPointerException("Null child not allowed");
+		int[] childCodes = Arrays.copyOf(codes, length + 1);
+		childCodes[length] = dictionary.code(child);
+		return new CodedTreePath(dictionary, childCodes, length + 1);
+	}
+
+	/**
+	 * Compares codes if <code>o</code> is a coded path of the same
+	 * dictionary, and keys otherwise.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof CodedTreePath && ((CodedTreePath) o).dictionary == dictionary) {
+			CodedTreePath other = (CodedTreePath) o;
+			return other.length == length && isPrefix(other);
+		}
+		return super.equals(o);
+	}
+
+	@Override
+	public int hashCode() {
+		return getLastPathComponent().hashCode();
+	}
+
+	@Override
+	public boolean isDescendant(TreePath<String> aTreePath) {
+		if (aTreePath instanceof CodedTreePath && ((CodedTreePath) aTreePath).dictionary == dictionary) {
+			CodedTreePath other = (CodedTreePath) aTreePath;
+			return other.length >= length && isPrefix(other);
+		}
+		return super.isDescendant(aTreePath);
+	}
+
+	/** true if the first <code>length</code> codes of both paths are equal */
+	private boolean isPrefix(CodedTreePath other) {
+		for (int i = length - 1; i >= 0; i--) {
+			if (codes[i] != other.codes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Object writeReplace() throws ObjectStreamException {
+		return new TreePath<>(getPath());
+	}
+}
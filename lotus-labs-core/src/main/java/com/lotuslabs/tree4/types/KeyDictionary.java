@@ -0,0 +1,138 @@
+/*
+ * Licensed to surti-labs under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Surti-labs licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.lotuslabs.tree4.types;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of String keys.  Every distinct key is stored once and gets
+ * an int code, assigned 0, 1, 2, ... in the order keys are first seen.
+ *
+ * Trees built with a dictionary (see
+ * <code>SVMutableTreeNode.withPaths(Map, char, KeyDictionary)</code>)
+ * share one canonical String per distinct key instead of holding a
+ * substring per node, and key comparisons between canonical keys succeed
+ * on the identity check.  Paths made by <code>path</code> hold the codes
+ * and compare with int compares.
+ *
+ * Codes are never reused; a dictionary only grows.  Thread-safe; lookups
+ * of known keys do not lock.
+ *
+ * @author psurti
+ */
+public final class KeyDictionary {
+
+	private static final KeyDictionary GLOBAL = new KeyDictionary();
+
+	private final Map<String,Integer> codes = new ConcurrentHashMap<>();
+	/** keys by code, grown under the lock */
+	private volatile String[] keys = new String[16];
+	private int size;
+
+	/**
+	 * Returns the dictionary shared by the whole application.
+	 */
+	public static KeyDictionary global() {
+		return GLOBAL;
+	}
+
+	/**
+	 * Returns the code of <code>key</code>, adding the key if it is new.
+	 *
+	 * @param key the key, not null
+	 * @return the code of the key
+	 */
+	public int code(String key) {
+		Integer code = codes.get(key);
+		return code != null ? code : add(key);
+	}
+
+	private synchronized int add(String key) {
+		Integer code = codes.get(key);
+		if (code != null) {
+			return code;
+		}
+		String[] current = keys;
+		if (size == current.length) {
+			current = Arrays.copyOf(current, size * 2);
+		}
+		current[size] = key;
+		keys = current;
+		codes.put(key, size);
+		return size++;
+	}
+
+	/**
+	 * Returns the code of <code>key</code>, or -1 if the key is not in the
+	 * dictionary.
+	 */
+	public int codeOf(String key) {
+		Integer code = codes.get(key);
+		return code == null ? -1 : code;
+	}
+
+	/**
+	 * Returns the key of <code>code</code>.
+	 *
+	 * @throws IllegalArgumentException if no key has that code
+	 */
+	public String key(int code) {
+		String[] current = keys;
+		String key = code >= 0 && code < current.length ? current[code] : null;
+		if (key == null) {
+			throw new IllegalArgumentException("unknown key code " + code);
+		}
+		return key;
+	}
+
+	/**
+	 * Returns the canonical instance of <code>key</code>, adding the key
+	 * if it is new.
+	 */
+	public String intern(String key) {
+		return key(code(key));
+	}
+
+	/**
+	 * Returns the number of keys in the dictionary.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a path of the given keys that holds their codes.
+	 *
+	 * @param path the keys from the root, not empty
+	 * @return the path
+	 */
+	public CodedTreePath path(String... path) {
+		if (path == null || path.length == 0) {
+			throw new IllegalArgumentException("path in TreePath must be non null and not empty.");
+		}
+		int[] pathCodes = new int[path.length];
+		for (int i = 0; i < path.length; i++) {
+			pathCodes[i] = code(path[i]);
+		}
+		return new CodedTreePath(this, pathCodes, pathCodes.length);
+	}
+}
@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
+import com.lotuslabs.tree4.Forest;
 import com.lotuslabs.tree4.MutableTreeNode;
 
 /**
@@ -194,35 +195,83 @@ public class SVMutableTreeNode<V> extends MutableTreeNode<String, V> {
 
 
 	public static <V> SVMutableTreeNode<V> withPaths(Map<String,V> propertyMap, char delimiter) {
+		return withPaths(propertyMap, delimiter, null);
+	}
+
+	/**
+	 * Construct tree node based on delimited paths and their values, with
+	 * the keys taken from a dictionary so that every distinct path segment
+	 * is stored once however many nodes use it
+	 *
+	 * @param propertyMap paths and the values of their last nodes
+	 * @param delimiter path segment delimiter
+	 * @param dictionary key dictionary, or null to keep each segment
+	 * @return a mutable treenode
+	 */
+	public static <V> SVMutableTreeNode<V> withPaths(Map<String,V> propertyMap, char delimiter, KeyDictionary dictionary) {
+		SVMutableTreeNode<V> root = pathTrees(propertyMap, delimiter, dictionary);
+		if (root.childCount() > 1 )
+			throw new IllegalArgumentException( "no single root" );
+
+		SVMutableTreeNode<V> newRoot = root.getFirstChild();
+		if (newRoot != null ) newRoot.removeFromParent();
+		return newRoot;
+
+	}
+
+	/**
+	 * Construct a forest based on delimited paths and their values, one
+	 * tree per distinct first segment
+	 *
+	 * @param propertyMap paths and the values of their last nodes
+	 * @param delimiter path segment delimiter
+	 * @param dictionary key dictionary shared by the trees, or null to
+	 *        keep each segment
+	 * @return a forest of mutable treenodes
+	 */
+	public static <V> Forest<String,V> forestWithPaths(Map<String,V> propertyMap, char delimiter, KeyDictionary dictionary) {
+		SVMutableTreeNode<V> root = pathTrees(propertyMap, delimiter, dictionary);
+		Forest<String,V> forest = new Forest<>();
+		while (root.childCount() > 0) {
+			SVMutableTreeNode<V> tree = root.getFirstChild();
+			tree.removeFromParent();
+			forest.add(tree);
+		}
+		return forest;
+	}
+
+	/**
+	 * Builds the paths under a synthetic root
+	 */
+	private static <V> SVMutableTreeNode<V> pathTrees(Map<String,V> propertyMap, char delimiter, KeyDictionary dictionary) {
 		SVMutableTreeNode<V> root = new SVMutableTreeNode<>();
 		Set<String> keySet = propertyMap.keySet();
 		for (String singlePath : keySet) {
 			SVMutableTreeNode<V> matchNode = root;
 			String[] strTreePaths = singlePath.split("\\"+delimiter);
 			for (int j = 0; j < strTreePaths.length; j++) {
-				SVMutableTreeNode<V> foundNode = matchNode.find(strTreePaths[j], matchNode.iterator());
+				String segment = dictionary == null ? strTreePaths[j] : dictionary.intern(strTreePaths[j]);
+				SVMutableTreeNode<V> foundNode = matchNode.getChild(segment);
 				if (foundNode == null) {
-					foundNode = new SVMutableTreeNode<>(strTreePaths[j], null);
+					foundNode = new SVMutableTreeNode<>(segment, null);
 					matchNode.add(foundNode);
 				}
 				matchNode = foundNode;
 			}
 			matchNode.setUserObject(propertyMap.get(singlePath));
 		}
-		if (root.childCount() > 1 )
-			throw new IllegalArgumentException( "no single root" );
-
-		SVMutableTreeNode<V> newRoot = root.getFirstChild();
-		if (newRoot != null ) newRoot.removeFromParent();
-		return newRoot;
-
+		return root;
 	}
 
 	public static <V> SVMutableTreeNode<V> withPaths(String[] paths, char delimiter) {
+		return withPaths(paths, delimiter, null);
+	}
+
+	public static <V> SVMutableTreeNode<V> withPaths(String[] paths, char delimiter, KeyDictionary dictionary) {
 		Map<String,V> propertyMap = new HashMap<>();
 		for (int i = 0; i < paths.length; i++) {
 			propertyMap.put(paths[i], null);
 		}
-		return SVMutableTreeNode.<V>withPaths(propertyMap, delimiter);
+		return SVMutableTreeNode.<V>withPaths(propertyMap, delimiter, dictionary);
 	}
 }
@@ -0,0 +1,56 @@
+package com.lotuslabs.tree4;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.lotuslabs.tree4.types.SVMutableTreeNode;
+
+@RunWith(JUnit4.class)
+public class CompressedTreeTest {
+
+	private static String describe(TreeNode<String,String> node) {
+		StringBuilder actuals = new StringBuilder();
+		Iterator<TreeNode<String,String>> iter = node.preOrderEnumeration();
+		while (iter.hasNext()) {
+			TreeNode<String,String> next = iter.next();
+			TreeNode<String,String> parent = next.getParent();
+			actuals.append(next.getTreePath()).append('=').append(next.getUserObject())
+			.append(':').append(next.getLevel())
+			.append('@').append(parent == null ? -1 : parent.getIndex(next))
+			.append(next.isLeaf() ? " leaf" : "").append('\n');
+		}
+		return actuals.toString();
+	}
+
+	@Test
+	public void testLogicalTree() {
+		Map<String,String> paths = new HashMap<>();
+		paths.put("usr/local/lib/java/jdk/bin/javac", "compiler");
+		paths.put("usr/local/lib/java/jdk/bin/java", "launcher");
+		paths.put("usr/local/lib/python/site-packages", null);
+		paths.put("usr/share/doc/readme", "docs");
+		SVMutableTreeNode<String> tree = SVMutableTreeNode.withPaths(paths, '/');
+		CompressedTree<String,String> compressed = CompressedTree.of(tree);
+
+		Assert.assertEquals(tree.totalCount(), compressed.size());
+		Assert.assertEquals(7, compressed.segmentCount());
+		TreeNode<String,String> root = compressed.getRoot();
+		Assert.assertEquals(describe(tree), describe(root));
+
+		TreeNode<String,String> javac = root.get(new TreePath<>(new String[] {"usr", "local", "lib", "java", "jdk", "bin", "javac"}));
+		Assert.assertEquals("compiler", javac.getUserObject());
+		Assert.assertEquals(6, javac.getLevel());
+		Assert.assertEquals("java", javac.getPreviousSibling().getKey());
+		Assert.assertEquals("bin", javac.getParent().getKey());
+		Assert.assertEquals(javac.getParent(), root.get(javac.getParent().getTreePath()));
+		Assert.assertNull(root.get(new TreePath<>(new String[] {"usr", "local", "bin"})));
+		Assert.assertEquals("python", root.getChild("local").getChild("lib").getChild("python").getKey());
+		Assert.assertEquals(5, root.getChild("local").getDepth());
+	}
+}
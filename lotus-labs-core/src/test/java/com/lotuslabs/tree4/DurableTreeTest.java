@@ -0,0 +1,185 @@
+package com.lotuslabs.tree4;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DurableTreeTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String contents(TreeNode<String,Integer> node) {
+		StringBuilder actuals = new StringBuilder();
+		Iterator<TreeNode<String,Integer>> iter = node.preOrderEnumeration();
+		while (iter.hasNext()) {
+			TreeNode<String,Integer> next = iter.next();
+			actuals.append("/" + next.getKey() + "=" + next.getUserObject() + ":" + next.getLevel());
+		}
+		return actuals.toString();
+	}
+
+	@Test
+	public void testRecovery() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		String expected;
+		try (DurableTree<String,Integer> tree = DurableTree.open(dir)) {
+			MutableTreeNode<String,Integer> root = tree.getRoot();
+			MutableTreeNode<String,Integer> a = new MutableTreeNode<>("A", 1);
+			a.add(new MutableTreeNode<>("A1", 11));
+			root.add(a);
+			MutableTreeNode<String,Integer> b = new MutableTreeNode<>("B", 2);
+			root.add(b);
+			b.add(a.getChildAt(0));                 // move
+			a.setUserObject(100);
+			root.remove(b);
+			b.setUserObject(200);                   // changed while detached
+			root.insert(b, 0);
+			root.add(new MutableTreeNode<>("C", null, false));
+			expected = contents(root);
+		}
+		try (DurableTree<String,Integer> tree = DurableTree.open(dir)) {
+			Assert.assertEquals(expected, contents(tree.getRoot()));
+			Assert.assertFalse(tree.<MutableTreeNode<String,Integer>>getRoot().getChildAt(2).getAllowsChildren());
+		}
+	}
+
+	@Test
+	public void testBatchRecovery() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		String expected;
+		try (DurableTree<String,Integer> tree = DurableTree.create(dir, TestTrees.small())) {
+			MutableTreeNode<String,Integer> root = tree.getRoot();
+			MutableTreeNode<String,Integer> a = root.getChildAt(0);
+			MutableTreeNode<String,Integer> x = new MutableTreeNode<>("X", 9);
+			root.batch(batch -> batch
+					.move(a, root.getChildAt(1).getChildAt(0))
+					.insert(a, x, 0)
+					.move(a.getChildAt(1), x, 0)
+					.remove(a.getChildAt(0)));
+			root.batch(batch -> batch
+					.move(a, root, 0)
+					.move(x.getChildAt(0), root));
+			a.setUserObject(100);
+			expected = contents(root);
+		}
+		Assert.assertEquals("/R=0:0/A=100:1/X=9:2/B=2:1/E=5:2/D=4:1", expected);
+		try (DurableTree<String,Integer> tree = DurableTree.open(dir)) {
+			Assert.assertEquals(expected, contents(tree.getRoot()));
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testDeepRecovery() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		MutableTreeNode<String,Integer> chain = new MutableTreeNode<>("K99999", 99999);
+		for (int i = 99998; i >= 0; i--) {
+			MutableTreeNode<String,Integer> parent = new MutableTreeNode<>("K" + i, i);
+			parent.add(chain);
+			chain = parent;
+		}
+		DurableTree.create(dir, chain).close();
+		try (DurableTree<String,Integer> tree = DurableTree.open(dir)) {
+			MutableTreeNode<String,Integer> root = tree.getRoot();
+			Assert.assertEquals(100000, root.totalCount());
+			Assert.assertEquals(99999, root.getDepth());
+			Assert.assertEquals(Integer.valueOf(99999), root.getLastLeaf().getUserObject());
+		}
+	}
+
+	@Test
+	public void testCheckpointAndTail() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		String expected;
+		try (DurableTree<String,Integer> tree = DurableTree.open(dir)) {
+			tree.setGroupCommitSize(8);
+			tree.setCheckpointInterval(100);
+			MutableTreeNode<String,Integer> root = tree.getRoot();
+			for (int i = 0; i < 250; i++) {
+				MutableTreeNode<String,Integer> parent = i < 10 ? root : root.getChildAt(i % 10);
+				parent.add(new MutableTreeNode<>("K" + i, i));
+			}
+			expected = contents(root);
+		}
+		Assert.assertTrue(Files.exists(dir.resolve("tree.2.ckpt")));
+		Assert.assertFalse(Files.exists(dir.resolve("tree.1.ckpt")));
+		Assert.assertEquals(50, countRecords(dir.resolve("tree.2.log")));
+		try (DurableTree<String,Integer> tree = DurableTree.open(dir)) {
+			Assert.assertEquals(expected, contents(tree.getRoot()));
+		}
+	}
+
+	@Test
+	public void testTornTail() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		Path log = dir.resolve("tree.0.log");
+		String expected;
+		try (DurableTree<String,Integer> tree = DurableTree.create(dir, new MutableTreeNode<>("R", 0))) {
+			MutableTreeNode<String,Integer> root = tree.getRoot();
+			root.add(new MutableTreeNode<>("A", 1));
+			root.add(new MutableTreeNode<>("B", 2));
+			expected = contents(root);
+		}
+		long size = Files.size(log);
+		Files.write(log, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+		try (DurableTree<String,Integer> tree = DurableTree.open(dir)) {
+			Assert.assertEquals(expected, contents(tree.getRoot()));
+			Assert.assertEquals(size, Files.size(log));
+			tree.<MutableTreeNode<String,Integer>>getRoot().add(new MutableTreeNode<>("C", 3));
+		}
+		try (DurableTree<String,Integer> tree = DurableTree.open(dir)) {
+			Assert.assertEquals("/R=0:0/A=1:1/B=2:1/C=3:1", contents(tree.getRoot()));
+		}
+	}
+
+	@Test
+	public void testZeroFilledTail() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		Path log = dir.resolve("tree.0.log");
+		try (DurableTree<String,Integer> tree = DurableTree.create(dir, new MutableTreeNode<>("R", 0))) {
+			tree.<MutableTreeNode<String,Integer>>getRoot().add(new MutableTreeNode<>("A", 1));
+		}
+		long size = Files.size(log);
+		Files.write(log, new byte[16], StandardOpenOption.APPEND);
+		try (DurableTree<String,Integer> tree = DurableTree.open(dir)) {
+			Assert.assertEquals("/R=0:0/A=1:1", contents(tree.getRoot()));
+			Assert.assertEquals(size, Files.size(log));
+		}
+	}
+
+	@Test
+	public void testGarbageLength() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		Path log = dir.resolve("tree.0.log");
+		try (DurableTree<String,Integer> tree = DurableTree.create(dir, new MutableTreeNode<>("R", 0))) {
+			tree.<MutableTreeNode<String,Integer>>getRoot().add(new MutableTreeNode<>("A", 1));
+		}
+		long size = Files.size(log);
+		Files.write(log, new byte[] {0x7f, -1, -1, -1, 0, 0, 0, 0, 1, 2}, StandardOpenOption.APPEND);
+		try (DurableTree<String,Integer> tree = DurableTree.open(dir)) {
+			Assert.assertEquals("/R=0:0/A=1:1", contents(tree.getRoot()));
+			Assert.assertEquals(size, Files.size(log));
+		}
+	}
+
+	private static int countRecords(Path log) throws IOException {
+		byte[] bytes = Files.readAllBytes(log);
+		int count = 0;
+		for (int offset = 0; offset < bytes.length; count++) {
+			int length = ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16)
+					| ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+			offset += 8 + length;
+		}
+		return count;
+	}
+}
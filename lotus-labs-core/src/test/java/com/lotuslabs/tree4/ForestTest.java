@@ -0,0 +1,68 @@
+package com.lotuslabs.tree4;
+
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.lotuslabs.tree4.types.KeyDictionary;
+import com.lotuslabs.tree4.types.SVMutableTreeNode;
+
+@RunWith(JUnit4.class)
+public class ForestTest {
+
+	@Test
+	public void testValueOf() {
+		@SuppressWarnings("unchecked")
+		TreePath<String>[] paths = (TreePath<String>[]) Array.newInstance(TreePath.class, 3);
+		paths[0] = new TreePath<>(new String[] {"t1", "a", "b"});
+		paths[1] = new TreePath<>(new String[] {"t2", "a", "c"});
+		paths[2] = new TreePath<>(new String[] {"t1", "a", "d"});
+		Forest<String,Integer> forest = Forest.valueOf(paths);
+		Assert.assertEquals(2, forest.treeCount());
+		Assert.assertEquals(7, forest.totalCount());
+		Assert.assertEquals("c", forest.get(paths[1]).getKey());
+		Assert.assertNull(forest.get(new TreePath<>(new String[] {"t3", "a"})));
+		Assert.assertEquals(2, forest.findAll("a").size());
+		Assert.assertSame(forest.getTree("t1").getChildAt(0).getKey(), forest.getTree("t2").getChildAt(0).getKey());
+
+		MutableTreeNode<String,Integer> d = forest.find("d");
+		forest.getTree("t2").add(d);                  // move across trees
+		Assert.assertEquals("t2", d.getRoot().getKey());
+		Assert.assertSame(d, forest.find("d"));
+		d.removeFromParent();
+		Assert.assertNull(forest.find("d"));
+
+		Assert.assertEquals(3, forest.remove("t1").totalCount());
+		Assert.assertNull(forest.find("b"));
+		Assert.assertEquals(1, forest.findAll("a").size());
+		try {
+			forest.add(new MutableTreeNode<>("t2", null));
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testForestWithPaths() {
+		Map<String,Integer> paths = new HashMap<>();
+		paths.put("acme/users/alice", 1);
+		paths.put("acme/users/bob", 2);
+		paths.put("globex/users/carol", 3);
+		KeyDictionary dictionary = new KeyDictionary();
+		Forest<String,Integer> forest = SVMutableTreeNode.forestWithPaths(paths, '/', dictionary);
+		Assert.assertEquals(2, forest.treeCount());
+		Assert.assertEquals(Integer.valueOf(3), forest.find("carol").getUserObject());
+		Assert.assertEquals(4 * 64 + 2 * 40 + 3 * 4, forest.memoryEstimate("acme"));
+
+		AtomicInteger nodes = new AtomicInteger();
+		forest.parallelForEach(tree -> nodes.addAndGet(tree.totalCount()));
+		Assert.assertEquals(7, nodes.get());
+	}
+}
@@ -0,0 +1,75 @@
+package com.lotuslabs.tree4;
+
+import java.util.Iterator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class HashConsedTreeTest {
+
+	@Test
+	public void testSharing() {
+		HashConsedTree<String,Integer> tree = HashConsedTree.of(TestTrees.catalog(100));
+		Assert.assertEquals(401, tree.size());
+		// the settings block and its two leaves, one node per region, the root
+		Assert.assertEquals(3 + 100 + 1, tree.distinctCount());
+
+		MutableTreeNode<String,Integer> changed = TestTrees.catalog(3);
+		MutableTreeNode<String,Integer> settings = changed.getChildAt(1).getChildAt(0);
+		MutableTreeNode<String,Integer> timeout = settings.getChildAt(0);
+		timeout.setUserObject(60);
+		// the changed leaf and the settings block above it are no longer shared
+		Assert.assertEquals(3 + 2 + 3 + 1, HashConsedTree.of(changed).distinctCount());
+	}
+
+	@Test
+	public void testNavigation() {
+		MutableTreeNode<String,Integer> source = TestTrees.catalog(3);
+		HashConsedTree<String,Integer> tree = HashConsedTree.of(source);
+		TreeNode<String,Integer> root = tree.getRoot();
+		Assert.assertEquals(13, root.totalCount());
+		Assert.assertEquals(3, root.childCount());
+
+		TreeNode<String,Integer> timeout = root.getChildAt(2).getChildAt(0).getChildAt(0);
+		Assert.assertEquals("timeout", timeout.getKey());
+		Assert.assertEquals(Integer.valueOf(30), timeout.getUserObject());
+		Assert.assertEquals(3, timeout.getLevel());
+		Assert.assertEquals("r2", timeout.getParent().getParent().getKey());
+		Assert.assertEquals(source.getChildAt(2).getChildAt(0).getChildAt(0).getTreePath(), timeout.getTreePath());
+		Assert.assertEquals(timeout, root.get(timeout.getTreePath()));
+		Assert.assertEquals(0, root.getChildAt(1).getIndex(root.getChildAt(1).getChildAt(0)));
+
+		Iterator<TreeNode<String,Integer>> expected = source.preOrderEnumeration();
+		Iterator<TreeNode<String,Integer>> actual = root.preOrderEnumeration();
+		while (expected.hasNext()) {
+			TreeNode<String,Integer> e = expected.next();
+			TreeNode<String,Integer> a = actual.next();
+			Assert.assertEquals(e.getKey(), a.getKey());
+			Assert.assertEquals(e.getLevel(), a.getLevel());
+		}
+		Assert.assertFalse(actual.hasNext());
+	}
+
+	@Test
+	public void testOccurrences() {
+		HashConsedTree<String,Integer> tree = HashConsedTree.of(TestTrees.catalog(3));
+		TreeNode<String,Integer> root = tree.getRoot();
+		TreeNode<String,Integer> first = root.getChildAt(0).getChildAt(0);
+		TreeNode<String,Integer> second = root.getChildAt(1).getChildAt(0);
+		Assert.assertEquals(first.getKey(), second.getKey());
+		Assert.assertNotEquals(first, second);
+		Assert.assertEquals(first, root.getChildAt(0).getChildAt(0));
+		Assert.assertEquals(first.hashCode(), root.getChildAt(0).getChildAt(0).hashCode());
+		Assert.assertEquals(-1, root.getChildAt(0).getIndex(second));
+		Assert.assertNotEquals(root, HashConsedTree.of(TestTrees.catalog(3)).getRoot());
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void testChildOutOfRange() {
+		HashConsedTree<String,Integer> tree = HashConsedTree.of(TestTrees.catalog(1));
+		tree.getRoot().getChildAt(1);
+	}
+}
@@ -107,6 +107,50 @@ public class MutableTreeNodePerfTest {
 		System.out.println( "PreO find time(ms): " + (stop-start));
 	}
 
+	@Test(timeout=500)
+	public void testSiblingWalk_wide() {
+		MutableTreeNode<String,String> wide = new MutableTreeNode<>("W", "W");
+		for (int i = 0; i < 100000; i++) {
+			wide.add(new MutableTreeNode<>("K" + i, null));
+		}
+		long start = System.currentTimeMillis();
+		int count = 0;
+		for (MutableTreeNode<String,String> node = wide.getFirstChild(); node != null; node = node.getNextSibling()) {
+			count++;
+		}
+		long stop = System.currentTimeMillis();
+		Assert.assertEquals(100000, count);
+		System.out.println( "sibling walk time(ms): " + (stop-start));
+	}
+
+	@Test(timeout=3000)
+	@Repeat(10)
+	public void testBatch_move() {
+		MutableTreeNode<String,String> root = new MutableTreeNode<>("R", "R");
+		MutableTreeNode<String,String> from = new MutableTreeNode<>("P", "P");
+		MutableTreeNode<String,String> to = new MutableTreeNode<>("Q", "Q");
+		root.add(from);
+		root.add(to);
+		TreeIndex<String,String,String> index = TreeIndex.hashIndex(root, v -> v);
+		int n = 100000;
+		for (int i = 0; i < n; i++) {
+			from.add(new MutableTreeNode<>("K" + i, "K" + i));
+		}
+		long start = System.currentTimeMillis();
+		root.batch(batch -> {
+			for (int i = 0; i < n; i++) {
+				batch.move(from.getChildAt(i), to, 0);
+			}
+		});
+		long stop = System.currentTimeMillis();
+		Assert.assertEquals(0, from.childCount());
+		Assert.assertEquals(n, to.childCount());
+		Assert.assertEquals("K" + (n - 1), to.getChildAt(n - 1).getUserObject());
+		Assert.assertEquals(n - 1, to.getIndex(to.getChildAt(n - 1)));
+		Assert.assertEquals(1, index.get("K7", to).size());
+		System.out.println( "batch move time(ms): " + (stop-start) + " nodes:" + n);
+	}
+
 	public static void main(String[] args) {
 		MutableTreeNodePerfTest perfTest = new MutableTreeNodePerfTest();
 		perfTest.setUp();
@@ -8,6 +8,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
@@ -112,6 +114,29 @@ public class MutableTreeNodeTest {
 		Assert.assertEquals("/H/F/G/A/B/C/E/D/Z/Y/X/0", actuals.toString());
 	}
 
+	@Test
+	public void testPostOrderEnumeration_deep() {
+		MutableTreeNode<String,String> chain = new MutableTreeNode<>("K99999", null);
+		for (int i = 99998; i >= 0; i--) {
+			MutableTreeNode<String,String> parent = new MutableTreeNode<>("K" + i, null);
+			parent.add(chain);
+			parent.add(new MutableTreeNode<>("L" + i, null));
+			chain = parent;
+		}
+		Iterator<MutableTreeNode<String,String>> iter = chain.depthFirstEnumeration();
+		Assert.assertEquals("K99999", iter.next().getKey());
+		Assert.assertEquals("L99998", iter.next().getKey());
+		Assert.assertEquals("K99998", iter.next().getKey());
+		int count = 3;
+		MutableTreeNode<String,String> last = null;
+		while (iter.hasNext()) {
+			last = iter.next();
+			count++;
+		}
+		Assert.assertEquals(chain.totalCount(), count);
+		Assert.assertSame(chain, last);
+	}
+
 	@Test
 	public void testBreadthFirstEnumeration() {
 		StringBuilder actuals = new StringBuilder();
@@ -152,6 +177,35 @@ public class MutableTreeNodeTest {
 		Assert.assertNull("Invalid path beyond depth of tree", node);
 	}
 
+	@Test
+	public void testGet_otherBranch() {
+		TreeNode<String,String> node = mutableTreeNode.get(new TreePath<>(new String[] {"K0","KX","KG"}));
+		Assert.assertNull("Key found under another branch", node);
+		MutableTreeNode<String,String> d = mutableTreeNode.getChildAt(0);
+		Assert.assertSame(d.getChildAt(0), d.get(new TreePath<>(new String[] {"KD","KG"}), TreeNode.SearchStrategy.PRE_ORDER));
+	}
+
+	@Test
+	public void testGetAll() {
+		List<TreePath<String>> paths = new ArrayList<>(Arrays.asList(treePathParameters()));
+		paths.add(new TreePath<>(new String[] {"K0","KD","KE","KC","KB"}));
+		paths.add(new TreePath<>(new String[] {"K0"}));
+		paths.add(new TreePath<>(new String[] {"K0","KX","KG"}));
+		paths.add(new TreePath<>(new String[] {"K0","KD","KG","KH"}));
+		paths.add(new TreePath<>(new String[] {"KD"}));
+		paths.add(treePathParameters()[0]);
+		List<TreeNode<String,String>> nodes = mutableTreeNode.getAll(paths);
+		Assert.assertEquals(paths.size(), nodes.size());
+		for (int i = 0; i < paths.size(); i++) {
+			Assert.assertSame(paths.get(i).toString(), mutableTreeNode.get(paths.get(i)), nodes.get(i));
+		}
+		Assert.assertEquals("B", nodes.get(3).getUserObject());
+		Assert.assertSame(nodes.get(0), nodes.get(8));
+
+		mutableTreeNode.setKeyComparator(Comparator.naturalOrder());
+		Assert.assertEquals(nodes, mutableTreeNode.getAll(paths));
+	}
+
 	@Test
 	public void testValueOf() {
 		TreePath<String>[] treePaths = treePathParameters();
@@ -159,6 +213,204 @@ public class MutableTreeNodeTest {
 		Assert.assertEquals(2, root.childCount());
 	}
 
+	@Test
+	public void testSiblingNavigation() {
+		MutableTreeNode<String,String> parent = new MutableTreeNode<>("P", "P");
+		MutableTreeNode<String,String> a = new MutableTreeNode<>("A", "A");
+		MutableTreeNode<String,String> b = new MutableTreeNode<>("B", "B");
+		MutableTreeNode<String,String> c = new MutableTreeNode<>("C", "C");
+		parent.add(a);
+		parent.add(c);
+		parent.insert(b, 1);
+		Assert.assertEquals(1, parent.getIndex(b));
+		Assert.assertEquals(2, parent.getIndex(c));
+		Assert.assertSame(b, a.getNextSibling());
+		Assert.assertSame(a, b.getPreviousSibling());
+		Assert.assertSame(c, parent.getChildAfter(b));
+		Assert.assertNull(c.getNextSibling());
+
+		parent.remove(a);
+		Assert.assertEquals(-1, parent.getIndex(a));
+		Assert.assertEquals(0, parent.getIndex(b));
+		Assert.assertEquals(1, parent.getIndex(c));
+		Assert.assertNull(b.getPreviousSibling());
+
+		parent.add(b); // move to the end
+		Assert.assertEquals(0, parent.getIndex(c));
+		Assert.assertEquals(1, parent.getIndex(b));
+		Assert.assertSame(c, b.getPreviousSibling());
+	}
+
+	@Test
+	public void testSortedChildren() {
+		MutableTreeNode<String,String> root = new MutableTreeNode<>("R", "R");
+		for (String k : new String[] {"d", "b", "e", "a"}) {
+			root.add(new MutableTreeNode<>(k, k));
+		}
+		MutableTreeNode<String,String> d = root.getChildAt(0);
+		d.add(new MutableTreeNode<>("z", "z"));
+		d.add(new MutableTreeNode<>("y", "y"));
+		root.setKeyComparator(Comparator.naturalOrder());
+		root.add(new MutableTreeNode<>("c", "c"));
+
+		List<String> actuals = new ArrayList<>();
+		Iterator<MutableTreeNode<String,String>> iter = root.iterator();
+		while (iter.hasNext()) {
+			actuals.add(iter.next().getKey());
+		}
+		Assert.assertEquals(Arrays.asList("a", "b", "c", "d", "e"), actuals);
+		Assert.assertEquals("c", root.getChild("c").getUserObject());
+		Assert.assertNull(root.getChild("x"));
+		Assert.assertEquals("y", root.get(new TreePath<>(new String[] {"R", "d", "y"})).getUserObject());
+
+		actuals.clear();
+		iter = root.childRange("b", "d");
+		while (iter.hasNext()) {
+			actuals.add(iter.next().getKey());
+		}
+		Assert.assertEquals(Arrays.asList("b", "c"), actuals);
+		try {
+			root.insert(new MutableTreeNode<>("f", "f"), 0);
+			Assert.fail("insert out of key order");
+		} catch (IllegalArgumentException e) {
+			Assert.assertEquals(5, root.childCount());
+		}
+	}
+
+	private static String preOrder(MutableTreeNode<String,String> node) {
+		StringBuilder actuals = new StringBuilder();
+		Iterator<MutableTreeNode<String,String>> iter = node.preOrderEnumeration();
+		while (iter.hasNext()) {
+			MutableTreeNode<String,String> elem = iter.next();
+			actuals.append("/" + elem + ":" + elem.getLevel());
+		}
+		return actuals.toString();
+	}
+
+	@Test
+	public void testDeepCopy() {
+		String before = preOrder(mutableTreeNode);
+		MutableTreeNode<String,String> copy = mutableTreeNode.deepCopy();
+		Assert.assertEquals(before, preOrder(copy));
+		Assert.assertTrue(copy instanceof SVMutableTreeNode);
+		MutableTreeNode<String,String> d = copy.getChildAt(0);
+		Assert.assertSame(copy, d.getParent());
+		Assert.assertEquals(1, copy.getIndex(copy.getChildAt(1)));
+		d.removeFromParent();
+		Assert.assertEquals(before, preOrder(mutableTreeNode));
+
+		MutableTreeNode<String,String> chain = new MutableTreeNode<>("K99999", null);
+		for (int i = 99998; i >= 0; i--) {
+			MutableTreeNode<String,String> parent = new MutableTreeNode<>("K" + i, null);
+			parent.add(chain);                  // built bottom-up, add() checks the ancestors
+			chain = parent;
+		}
+		MutableTreeNode<String,String> deepCopy = chain.deepCopy();
+		Assert.assertEquals(100000, deepCopy.totalCount());
+		Assert.assertEquals(99999, deepCopy.getDepth());
+	}
+
+	@Test
+	public void testFork() {
+		String before = preOrder(mutableTreeNode);
+		TreeFork<String,String> handle = mutableTreeNode.fork();
+		MutableTreeNode<String,String> fork = handle.getRoot();
+		MutableTreeNode<String,String> d = mutableTreeNode.getChildAt(0);
+		d.setUserObject("D2");
+		d.remove(0);
+		MutableTreeNode<String,String> x = mutableTreeNode.getChildAt(1);
+		x.add(new MutableTreeNode<>("KN", "N"));
+		Assert.assertEquals(before, preOrder(fork));
+
+		MutableTreeNode<String,String> forkD = fork.getChildAt(0);
+		forkD.setUserObject("D3");
+		forkD.remove(0);
+		Assert.assertEquals("/0:0/D3:1/E:2/A:3/C:3/B:4/X:1/Y:2/Z:3", preOrder(fork));
+		Assert.assertEquals("/0:0/D2:1/E:2/A:3/C:3/B:4/X:1/Y:2/Z:3/N:2", preOrder(mutableTreeNode));
+		Assert.assertNull("versions dropped once the fork is copied",
+				mutableTreeNode.listenerList().getVersions());
+		Assert.assertTrue(handle.isClosed());
+
+		TreeFork<String,String> lazyFork = mutableTreeNode.fork();
+		lazyFork.materialize();
+		MutableTreeNode<String,String> lazy = lazyFork.getRoot();
+		d.setUserObject("D4");
+		Assert.assertNull(mutableTreeNode.listenerList().getVersions());
+		Assert.assertEquals("D2", lazy.getChildAt(0).toString());
+	}
+
+	@Test
+	public void testForkClose() {
+		MutableTreeNode<String,String> root = new MutableTreeNode<>("R", "R");
+		for (int i = 0; i < 100; i++) {
+			MutableTreeNode<String,String> child = new MutableTreeNode<>("C" + i, "C");
+			child.add(new MutableTreeNode<>("G" + i, "G"));
+			root.add(child);
+		}
+		MutableTreeNode<String,String> forkC1;
+		MutableTreeNode<String,String> forkC2;
+		try (TreeFork<String,String> fork = root.fork()) {
+			MutableTreeNode<String,String> forkRoot = fork.getRoot();
+			forkC1 = forkRoot.getChildAt(1);
+			forkC2 = forkRoot.getChildAt(2);
+			forkRoot.remove(forkC2);                // removed before it was copied
+			Assert.assertEquals("C1", forkC1.getKey());
+			Assert.assertFalse(fork.isClosed());
+		}
+		for (int i = 0; i < 100; i++) {
+			MutableTreeNode<String,String> child = root.getChildAt(i);
+			child.add(new MutableTreeNode<>("H" + i, "H"));
+		}
+		Assert.assertNull(root.listenerList().getVersions());
+		// closing copied the rest as it was when forked
+		Assert.assertEquals(1, forkC1.childCount());
+		Assert.assertEquals("G1", forkC1.getChildAt(0).getKey());
+		Assert.assertEquals("G2", forkC2.getChildAt(0).getKey());
+	}
+
+	private static void assertPreorderPositions(MutableTreeNode<String,String> root) {
+		int index = 0;
+		Iterator<MutableTreeNode<String,String>> iter = root.preOrderEnumeration();
+		while (iter.hasNext()) {
+			MutableTreeNode<String,String> node = iter.next();
+			Assert.assertSame(node, root.getPreorderNode(index));
+			Assert.assertEquals(index, node.getPreorderIndex());
+			index++;
+		}
+		Assert.assertEquals(index, root.totalCount());
+	}
+
+	@Test
+	public void testPreorderPositions() {
+		assertPreorderPositions(mutableTreeNode);
+		MutableTreeNode<String,String> d = mutableTreeNode.getChildAt(0);
+		MutableTreeNode<String,String> x = mutableTreeNode.getChildAt(1);
+		x.add(d.getChildAt(0));                 // move
+		assertPreorderPositions(mutableTreeNode);
+		d.add(new MutableTreeNode<>("N", "N"));
+		assertPreorderPositions(mutableTreeNode);
+		mutableTreeNode.setKeyComparator(Comparator.reverseOrder());
+		assertPreorderPositions(mutableTreeNode);
+		x.removeFromParent();
+		assertPreorderPositions(mutableTreeNode);
+		assertPreorderPositions(x);
+		try {
+			x.getPreorderNode(x.totalCount());
+			Assert.fail();
+		} catch (ArrayIndexOutOfBoundsException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testPreorderPositions_appendChild() {
+		int before = mutableTreeNode.totalCount();
+		MutableTreeNode<String,String> d = mutableTreeNode.getChildAt(0);
+		d.appendChild(new MutableTreeNode<>("KN", "N"), d.childCount() + 1);
+		Assert.assertEquals(before + 1, mutableTreeNode.totalCount());
+		assertPreorderPositions(mutableTreeNode);
+	}
+
 	public static TreePath<String>[] treePathParameters() {
 		@SuppressWarnings("unchecked")
 		TreePath<String>[] px = (TreePath<String>[]) Array.newInstance(TreePath.class,3);
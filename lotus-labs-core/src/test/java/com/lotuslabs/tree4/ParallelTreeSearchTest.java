@@ -0,0 +1,86 @@
+package com.lotuslabs.tree4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ParallelTreeSearchTest {
+
+	static MutableTreeNode<Integer,Integer> root;
+
+	/** 1 + 50 + 50*50 + 50*50*40 nodes, user object = number in breadth-first order */
+	@BeforeClass
+	public static void setUp() {
+		root = new MutableTreeNode<>(0, 0);
+		int[] fanout = {50, 50, 40};
+		List<MutableTreeNode<Integer,Integer>> level = Collections.singletonList(root);
+		int next = 1;
+		for (int width : fanout) {
+			List<MutableTreeNode<Integer,Integer>> children = new ArrayList<>();
+			for (MutableTreeNode<Integer,Integer> parent : level) {
+				for (int i = 0; i < width; i++) {
+					MutableTreeNode<Integer,Integer> child = new MutableTreeNode<>(next, next++);
+					parent.add(child);
+					children.add(child);
+				}
+			}
+			level = children;
+		}
+	}
+
+	@Test
+	public void testFindMatchesBreadthFirstOrder() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (int mod : new int[] {7, 997, 4999, 99991}) {
+				TreeNode<Integer,Integer> expected = null;
+				Iterator<TreeNode<Integer,Integer>> iter = root.breadthFirstEnumeration();
+				while (iter.hasNext()) {
+					TreeNode<Integer,Integer> node = iter.next();
+					if (node.getUserObject() > 0 && node.getUserObject() % mod == 0) {
+						expected = node;
+						break;
+					}
+				}
+				MutableTreeNode<Integer,Integer> found = ParallelTreeSearch.find(root,
+						node -> node.getUserObject() > 0 && node.getUserObject() % mod == 0, pool);
+				Assert.assertSame("mod " + mod, expected, found);
+			}
+			Assert.assertNull(ParallelTreeSearch.find(root, node -> node.getUserObject() < 0, pool));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testForEachLevel() {
+		AtomicIntegerArray counts = new AtomicIntegerArray(4);
+		AtomicInteger levels = new AtomicInteger();
+		ParallelTreeSearch.forEachLevel(root, new ParallelTreeSearch.LevelVisitor<MutableTreeNode<Integer,Integer>>() {
+			@Override
+			public void visit(MutableTreeNode<Integer,Integer> node, int level) {
+				Assert.assertEquals(level, node.getLevel());
+				counts.incrementAndGet(level);
+			}
+
+			@Override
+			public boolean levelDone(int level, int width) {
+				Assert.assertEquals(width, counts.get(level));
+				return levels.incrementAndGet() < 3;
+			}
+		});
+		Assert.assertEquals(3, levels.get());
+		Assert.assertEquals("[1, 50, 2500, 0]", counts.toString());
+	}
+}
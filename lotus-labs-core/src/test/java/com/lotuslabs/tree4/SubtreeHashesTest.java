@@ -0,0 +1,65 @@
+package com.lotuslabs.tree4;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SubtreeHashesTest {
+
+	private static MutableTreeNode<String,Integer> catalog() {
+		return TestTrees.catalog("us", "eu", "ap");
+	}
+
+	@Test
+	public void testSameStructure() {
+		SubtreeHashes<String,Integer> a = SubtreeHashes.of(catalog());
+		SubtreeHashes<String,Integer> b = SubtreeHashes.of(catalog());
+		Assert.assertEquals(13, a.size());
+		Assert.assertTrue(a.sameStructure(b));
+		Assert.assertEquals(a.rootHash(), b.rootHash());
+
+		MutableTreeNode<String,Integer> changed = catalog();
+		MutableTreeNode<String,Integer> apSettings = changed.getChildAt(2).getChildAt(0);
+		apSettings.remove(1);
+		Assert.assertFalse(a.sameStructure(SubtreeHashes.of(changed)));
+
+		MutableTreeNode<String,Integer> reordered = catalog();
+		MutableTreeNode<String,Integer> settings = reordered.getChildAt(0).getChildAt(0);
+		settings.insert(settings.getChildAt(1), 0);
+		Assert.assertFalse(a.sameStructure(SubtreeHashes.of(reordered)));
+		Assert.assertTrue(a.sameStructure(5, SubtreeHashes.of(reordered), 5));   // the eu region
+	}
+
+	@Test
+	public void testDuplicates() {
+		SubtreeHashes<String,Integer> hashes = SubtreeHashes.of(catalog());
+		List<List<TreeNode<String,Integer>>> groups = hashes.duplicates(2);
+		Assert.assertEquals(1, groups.size());
+		Assert.assertEquals(3, groups.get(0).size());
+		Assert.assertEquals("settings", groups.get(0).get(0).getKey());
+		Assert.assertEquals("eu", groups.get(0).get(1).getParent().getKey());
+
+		groups = hashes.duplicates(1);
+		Assert.assertEquals(3, groups.size());                       // settings, timeout, retries
+		Assert.assertEquals(4, hashes.subtreeSize(1));
+		Assert.assertEquals(1, hashes.parent(2));
+	}
+
+	@Test
+	public void testHashCollision() {
+		// "Aa" and "BB" have the same hashCode, so their regions hash alike
+		SubtreeHashes<String,Integer> hashes = SubtreeHashes.of(TestTrees.catalog("Aa", "BB"));
+		Assert.assertEquals(hashes.hash(1), hashes.hash(5));
+		Assert.assertFalse(hashes.sameStructure(1, hashes, 5));
+		Assert.assertTrue(hashes.sameStructure(2, hashes, 6));
+		Assert.assertFalse(hashes.sameStructure(SubtreeHashes.of(TestTrees.catalog("BB", "Aa"))));
+
+		List<List<TreeNode<String,Integer>>> groups = hashes.duplicates(2);
+		Assert.assertEquals(1, groups.size());
+		Assert.assertEquals("settings", groups.get(0).get(0).getKey());
+	}
+}
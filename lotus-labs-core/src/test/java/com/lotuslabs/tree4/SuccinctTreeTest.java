@@ -0,0 +1,107 @@
+package com.lotuslabs.tree4;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.lotuslabs.tree4.types.SVMutableTreeNode;
+
+@RunWith(JUnit4.class)
+public class SuccinctTreeTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String preOrder(TreeNode<String,String> node) {
+		StringBuilder actuals = new StringBuilder();
+		Iterator<TreeNode<String,String>> iter = node.preOrderEnumeration();
+		while (iter.hasNext()) {
+			TreeNode<String,String> next = iter.next();
+			actuals.append("/" + next.getKey() + "=" + next + ":" + next.getLevel() + "#" + next.totalCount());
+		}
+		return actuals.toString();
+	}
+
+	@Test
+	public void testNavigation() throws IOException {
+		MutableTreeNode<String,String> tree = SVMutableTreeNode.withStringValues((new String[] {
+				"H:G",
+				"F:G",
+				"G:D",
+				"E:D",
+				"A:E",
+				"B:C",
+				"C:E",
+				"D:0",
+				"Z:Y",
+				"Y:X",
+				"X:0"
+		}), null, ':');
+		SuccinctTree<String,String> succinct = SuccinctTree.of(tree);
+		Assert.assertEquals(12, succinct.size());
+		Assert.assertEquals(preOrder(tree), preOrder(succinct.getRoot()));
+
+		Path file = folder.newFile("tree.louds").toPath();
+		succinct.save(file);
+		SuccinctTree<String,String> loaded = SuccinctTree.load(file);
+		TreeNode<String,String> root = loaded.getRoot();
+		Assert.assertEquals(preOrder(tree), preOrder(root));
+		TreeNode<String,String> g = root.get(new TreePath<>(new String[] {"K0", "KD", "KG"}));
+		Assert.assertEquals("G", g.toString());
+		Assert.assertEquals("D", g.getParent().toString());
+		Assert.assertEquals("E", g.getNextSibling().toString());
+		Assert.assertNull(g.getPreviousSibling());
+		Assert.assertEquals(1, g.getParent().getIndex(g.getNextSibling()));
+		Assert.assertEquals(g, g.getParent().getChildAt(0));
+	}
+
+	@Test
+	public void testRandomTree() throws IOException {
+		Random random = new Random(42);
+		MutableTreeNode<Integer,Integer> root = new MutableTreeNode<>(0, 0);
+		List<MutableTreeNode<Integer,Integer>> nodes = new ArrayList<>();
+		nodes.add(root);
+		for (int i = 1; i < 20000; i++) {
+			MutableTreeNode<Integer,Integer> node = new MutableTreeNode<>(i, i * 10);
+			nodes.get(random.nextInt(nodes.size())).add(node);
+			nodes.add(node);
+		}
+		Path file = folder.newFile("random.louds").toPath();
+		SuccinctTree.of(root).save(file);
+		SuccinctTree<Integer,Integer> tree = SuccinctTree.load(file);
+
+		Iterator<MutableTreeNode<Integer,Integer>> expected = root.breadthFirstEnumeration();
+		for (int id = 0; id < tree.size(); id++) {
+			MutableTreeNode<Integer,Integer> node = expected.next();
+			Assert.assertEquals(node.getKey(), tree.key(id));
+			Assert.assertEquals(node.getUserObject(), tree.userObject(id));
+			Assert.assertEquals(node.childCount(), tree.childCount(id));
+			Assert.assertEquals(node.getLevel(), tree.level(id));
+			Assert.assertEquals(node.totalCount(), tree.subtreeSize(id));
+			int parent = tree.parent(id);
+			Assert.assertEquals(node.isRoot(), parent < 0);
+			if (parent >= 0) {
+				Assert.assertEquals(node.getParent().getKey(), tree.key(parent));
+				Assert.assertEquals(node.getParent().getIndex(node), tree.indexInParent(id));
+				Assert.assertEquals(node.getNextSibling() != null, tree.nextSibling(id) >= 0);
+				Assert.assertEquals(node.getPreviousSibling() != null, tree.previousSibling(id) >= 0);
+			}
+			if (!node.isLeaf()) {
+				Assert.assertEquals(node.getFirstChild().getKey(), tree.key(tree.firstChild(id)));
+				Assert.assertEquals(node.getLastChild().getKey(), tree.key(tree.child(id, node.childCount() - 1)));
+			} else {
+				Assert.assertEquals(-1, tree.firstChild(id));
+			}
+		}
+	}
+}
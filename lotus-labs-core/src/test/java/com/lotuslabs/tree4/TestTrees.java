@@ -0,0 +1,74 @@
+package com.lotuslabs.tree4;
+
+/** trees shared by the tests of this package */
+final class TestTrees {
+
+	private TestTrees() {
+	}
+
+	/**
+	 * Returns R(A(C, D), B(E)); the user objects of R, A, B, C, D and E
+	 * are 0 to 5.
+	 */
+	static MutableTreeNode<String,Integer> small() {
+		MutableTreeNode<String,Integer> root = new MutableTreeNode<>("R", 0);
+		MutableTreeNode<String,Integer> a = new MutableTreeNode<>("A", 1);
+		MutableTreeNode<String,Integer> b = new MutableTreeNode<>("B", 2);
+		root.add(a);
+		root.add(b);
+		a.add(new MutableTreeNode<>("C", 3));
+		a.add(new MutableTreeNode<>("D", 4));
+		b.add(new MutableTreeNode<>("E", 5));
+		return root;
+	}
+
+	/**
+	 * Returns a region with a settings block, the same under every
+	 * region: name(settings(timeout, retries)).
+	 */
+	static MutableTreeNode<String,Integer> region(String name) {
+		MutableTreeNode<String,Integer> region = new MutableTreeNode<>(name, 0);
+		MutableTreeNode<String,Integer> settings = new MutableTreeNode<>("settings", 1);
+		region.add(settings);
+		settings.add(new MutableTreeNode<>("timeout", 30));
+		settings.add(new MutableTreeNode<>("retries", 3));
+		return region;
+	}
+
+	/**
+	 * Returns a region shaped like <code>region(name)</code> whose nodes
+	 * all carry <code>value</code>, so that regions differ in their user
+	 * objects only.
+	 */
+	static MutableTreeNode<String,Integer> region(String name, int value) {
+		MutableTreeNode<String,Integer> region = new MutableTreeNode<>(name, value);
+		MutableTreeNode<String,Integer> settings = new MutableTreeNode<>("settings", value);
+		region.add(settings);
+		settings.add(new MutableTreeNode<>("timeout", value));
+		settings.add(new MutableTreeNode<>("retries", value));
+		return region;
+	}
+
+	/**
+	 * Returns a catalog of the regions with the given names; the nodes of
+	 * the n-th region carry n, counting from 1.
+	 */
+	static MutableTreeNode<String,Integer> catalog(String... regions) {
+		MutableTreeNode<String,Integer> root = new MutableTreeNode<>("catalog", 0);
+		for (int i = 0; i < regions.length; i++) {
+			root.add(region(regions[i], i + 1));
+		}
+		return root;
+	}
+
+	/**
+	 * Returns a catalog of the regions r0 to r(regions - 1).
+	 */
+	static MutableTreeNode<String,Integer> catalog(int regions) {
+		MutableTreeNode<String,Integer> root = new MutableTreeNode<>("catalog", 0);
+		for (int i = 0; i < regions; i++) {
+			root.add(region("r" + i));
+		}
+		return root;
+	}
+}
@@ -0,0 +1,73 @@
+package com.lotuslabs.tree4;
+
+import java.util.Iterator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TreeArenaTest {
+
+	@Test
+	public void testBuildAndRead() {
+		TreeArena<String,Integer> arena = new TreeArena<>();
+		int r = arena.addRoot("R", 0);
+		int a = arena.addChild(r, "A", 1);
+		int b = arena.addChild(r, "B", 2);
+		arena.addChild(a, "C", 3);
+		int d = arena.addChild(a, "D", 4);
+		arena.addChild(b, "E", 5);
+		Assert.assertEquals(6, arena.size());
+		Assert.assertEquals(6, arena.subtreeSize(r));
+		Assert.assertEquals(3, arena.subtreeSize(a));
+		Assert.assertEquals(1, arena.indexInParent(d));
+
+		TreeNode<String,Integer> root = arena.getRoot();
+		Assert.assertEquals(6, root.totalCount());
+		Assert.assertEquals(3, root.leafCount());
+		Assert.assertEquals("D", root.getChildAt(0).getChildAt(1).getKey());
+		Assert.assertEquals(Integer.valueOf(5), root.find("E").getUserObject());
+		Assert.assertEquals(2, root.find("D").getLevel());
+		Assert.assertEquals(root.getChildAt(1), root.getChildAt(0).getNextSibling());
+		Assert.assertEquals(1, root.getIndex(root.getChildAt(1)));
+		Assert.assertEquals("D", root.get(new TreePath<>(new String[] {"R", "A", "D"})).getKey());
+		String order = "";
+		Iterator<TreeNode<String,Integer>> iter = root.preOrderEnumeration();
+		while (iter.hasNext()) {
+			order += iter.next().getKey();
+		}
+		Assert.assertEquals("RACDBE", order);
+		try {
+			arena.addRoot("X", 9);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRelease() {
+		TreeArena<Integer,Integer> arena = new TreeArena<>();
+		for (int batch = 0; batch < 3; batch++) {
+			int root = arena.addRoot(0, null);
+			for (int i = 1; i < 10000; i++) {
+				arena.addChild((i - 1) / 8, i, i);         // 8-ary heap layout
+			}
+			Assert.assertEquals(10000, arena.<TreeNode<Integer,Integer>>getNode(root).totalCount());
+			Assert.assertEquals(4, arena.getNode(1234).getLevel());
+			TreeNode<Integer,Integer> node = arena.getNode(17);
+			int capacity = arena.capacity();
+			arena.release();
+			Assert.assertEquals(0, arena.size());
+			Assert.assertEquals(capacity, arena.capacity());
+			try {
+				node.getKey();
+				Assert.fail();
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		}
+	}
+}
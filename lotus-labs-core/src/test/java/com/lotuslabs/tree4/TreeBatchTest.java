@@ -0,0 +1,148 @@
+package com.lotuslabs.tree4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TreeBatchTest {
+
+	private static String shape(TreeNode<String,Integer> node) {
+		StringBuilder sb = new StringBuilder(node.getKey());
+		if (!node.isLeaf()) {
+			sb.append('(');
+			for (int i = 0; i < node.childCount(); i++) {
+				TreeNode<String,Integer> child = node.getChildAt(i);
+				Assert.assertSame(node, child.getParent());
+				Assert.assertEquals(i, node.getIndex(child));
+				sb.append(shape(child));
+			}
+			sb.append(')');
+		}
+		return sb.toString();
+	}
+
+	private static void restructure(MutableTreeNode<String,Integer> root) {
+		MutableTreeNode<String,Integer> a = root.getChildAt(0);
+		MutableTreeNode<String,Integer> b = root.getChildAt(1);
+		MutableTreeNode<String,Integer> c = a.getChildAt(0);
+		MutableTreeNode<String,Integer> d = a.getChildAt(1);
+		MutableTreeNode<String,Integer> e = b.getChildAt(0);
+		root.totalCount();
+		root.batch(batch -> batch
+				.move(d, b, 0)
+				.remove(c)
+				.insert(root, new MutableTreeNode<>("X", 9), 1)
+				.move(e, a));
+	}
+
+	@Test
+	public void testBatch() {
+		MutableTreeNode<String,Integer> root = TestTrees.small();
+		MutableTreeNode<String,Integer> c = root.getChildAt(0).getChildAt(0);
+		restructure(root);
+		Assert.assertEquals("R(A(E)XB(D))", shape(root));
+		Assert.assertEquals(6, root.totalCount());
+		Assert.assertNull(c.getParent());
+		Assert.assertEquals("R(A(E)XB(D))", shape(TreeTables.fromTable(TreeTables.toTable(root, "t"), Integer::valueOf)));
+	}
+
+	/**
+	 * Records each replaced child array as parent:old>new.
+	 */
+	private static List<String> listen(MutableTreeNode<String,Integer> root) {
+		List<String> events = new ArrayList<>();
+		root.addTreeListener(new TreeListener<String,Integer>() {
+			@Override
+			public void childrenReplaced(MutableTreeNode<String,Integer> parent, List<MutableTreeNode<String,Integer>> oldChildren) {
+				StringBuilder sb = new StringBuilder(parent.getKey()).append(':');
+				for (MutableTreeNode<String,Integer> child : oldChildren) {
+					sb.append(child.getKey());
+				}
+				sb.append('>');
+				for (int i = 0; i < parent.childCount(); i++) {
+					sb.append(parent.getChildAt(i).getKey());
+				}
+				events.add(sb.toString());
+			}
+		});
+		return events;
+	}
+
+	@Test
+	public void testBatch_withListener() {
+		MutableTreeNode<String,Integer> root = TestTrees.small();
+		List<String> events = listen(root);
+		TreeIndex<String,Integer,Integer> index = TreeIndex.hashIndex(root, v -> v);
+		try (TreeSnapshot<String,Integer> snapshot = root.openSnapshot()) {
+			restructure(root);
+			Assert.assertEquals("R(A(CD)B(E))", shape(snapshot));
+		}
+		Assert.assertEquals("R(A(E)XB(D))", shape(root));
+		// one event per parent, the parents left before those arrived at
+		Assert.assertEquals(Arrays.asList("A:CD>", "B:E>", "B:>D", "R:AB>AXB", "A:>E"), events);
+		Assert.assertTrue(index.get(3).isEmpty());
+		Assert.assertEquals(1, index.get(9).size());
+		Assert.assertEquals(1, index.get(4, root.getChildAt(2)).size());
+	}
+
+	@Test
+	public void testBatch_intoMovedSubtree() {
+		MutableTreeNode<String,Integer> root = TestTrees.small();
+		List<String> events = listen(root);
+		TreeIndex<String,Integer,Integer> index = TreeIndex.hashIndex(root, v -> v);
+		MutableTreeNode<String,Integer> a = root.getChildAt(0);
+		MutableTreeNode<String,Integer> x = new MutableTreeNode<>("X", 9);
+		root.batch(batch -> batch
+				.move(a, root.getChildAt(1).getChildAt(0))
+				.insert(a, x, 0)
+				.move(a.getChildAt(1), x, 0)
+				.remove(a.getChildAt(0)));
+		Assert.assertEquals("R(B(E(A(X(D)))))", shape(root));
+		// a subtree arrives before the nodes arriving inside it
+		Assert.assertEquals(Arrays.asList("A:CD>", "R:AB>B", "E:>A", "A:>X", "X:>D"), events);
+		Assert.assertEquals(6, index.size());
+		Assert.assertEquals(1, index.get(4, x).size());
+		Assert.assertTrue(index.get(3).isEmpty());
+	}
+
+	@Test
+	public void testBatch_cycle() {
+		MutableTreeNode<String,Integer> root = TestTrees.small();
+		MutableTreeNode<String,Integer> a = root.getChildAt(0);
+		MutableTreeNode<String,Integer> e = root.getChildAt(1).getChildAt(0);
+		try {
+			root.batch(batch -> batch.move(a, e).move(e, a.getChildAt(1)));
+			Assert.fail();
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+		try {
+			root.batch(batch -> batch.remove(e).move(root.getChildAt(1), a, 3));
+			Assert.fail();
+		} catch (ArrayIndexOutOfBoundsException expected) {
+			// expected
+		}
+		Assert.assertEquals("R(A(CD)B(E))", shape(root));
+		root.batch(batch -> batch.move(a, e));                     // a legal move under the old subtree of a sibling
+		Assert.assertEquals("R(B(E(A(CD))))", shape(root));
+	}
+
+	@Test
+	public void testBatch_sorted() {
+		MutableTreeNode<String,Integer> root = TestTrees.small();
+		root.setKeyComparator(Comparator.naturalOrder());
+		MutableTreeNode<String,Integer> b = root.getChildAt(1);
+		root.batch(batch -> batch
+				.insert(b, new MutableTreeNode<>("F", 6), 0)
+				.insert(b, new MutableTreeNode<>("A", 7), 0)
+				.move(root.getChildAt(0).getChildAt(1), b, 0));
+		Assert.assertEquals("R(A(C)B(ADEF))", shape(root));
+	}
+}
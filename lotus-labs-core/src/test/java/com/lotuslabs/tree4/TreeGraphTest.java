@@ -0,0 +1,59 @@
+package com.lotuslabs.tree4;
+
+import java.util.Arrays;
+
+import org.jgrapht.GraphPath;
+import org.jgrapht.alg.connectivity.ConnectivityInspector;
+import org.jgrapht.alg.scoring.BetweennessCentrality;
+import org.jgrapht.alg.shortestpath.DijkstraShortestPath;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TreeGraphTest {
+
+	@Test
+	public void testGraph() {
+		MutableTreeNode<String,Integer> root = TestTrees.small();
+		MutableTreeNode<String,Integer> a = root.getChildAt(0);
+		MutableTreeNode<String,Integer> d = a.getChildAt(1);
+		TreeGraph<String,Integer,MutableTreeNode<String,Integer>> graph = TreeGraph.of(root);
+		Assert.assertEquals(6, graph.vertexSet().size());
+		Assert.assertEquals(5, graph.edgeSet().size());
+		Assert.assertTrue(graph.containsEdge(root, a));
+		Assert.assertFalse(graph.containsEdge(a, root));
+		Assert.assertSame(a, graph.getEdgeSource(d));
+		Assert.assertEquals(0, graph.inDegreeOf(root));
+		Assert.assertEquals(3, graph.degreeOf(a));
+		Assert.assertEquals(3, graph.edgesOf(a).size());
+		Assert.assertFalse(graph.containsVertex(new MutableTreeNode<>("X", 9)));
+
+		GraphPath<MutableTreeNode<String,Integer>,MutableTreeNode<String,Integer>> path =
+				DijkstraShortestPath.findPathBetween(graph, root, d);
+		Assert.assertEquals(Arrays.asList(root, a, d), path.getVertexList());
+		Assert.assertNull(DijkstraShortestPath.findPathBetween(graph, d, root));
+		Assert.assertTrue(new ConnectivityInspector<>(graph).isConnected());
+		Assert.assertEquals(2, new BetweennessCentrality<>(graph).getVertexScore(a), 0);
+
+		a.add(new MutableTreeNode<>("F", 6));                 // reads through
+		Assert.assertEquals(7, graph.vertexSet().size());
+		try {
+			graph.addVertex(new MutableTreeNode<>("X", 9));
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testGraph_succinct() {
+		SuccinctTree<String,Integer> frozen = SuccinctTree.of(TestTrees.small());
+		TreeGraph<String,Integer,TreeNode<String,Integer>> graph = TreeGraph.of(frozen.getRoot());
+		Assert.assertEquals(6, graph.vertexSet().size());
+		TreeNode<String,Integer> e = graph.getRoot().getChildAt(1).getChildAt(0);
+		Assert.assertTrue(graph.containsVertex(e));
+		Assert.assertEquals(2, DijkstraShortestPath.findPathBetween(graph, graph.getRoot(), e).getLength());
+	}
+}
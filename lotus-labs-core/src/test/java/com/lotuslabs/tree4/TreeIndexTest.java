@@ -0,0 +1,93 @@
+package com.lotuslabs.tree4;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TreeIndexTest {
+
+	private static String keys(List<MutableTreeNode<String,Integer>> nodes) {
+		StringBuilder actuals = new StringBuilder();
+		for (MutableTreeNode<String,Integer> node : nodes) {
+			actuals.append(node.getKey());
+		}
+		return actuals.toString();
+	}
+
+	@Test
+	public void testHashIndex() {
+		MutableTreeNode<String,Integer> root = new MutableTreeNode<>("R", 0);
+		MutableTreeNode<String,Integer> a = new MutableTreeNode<>("A", 1);
+		MutableTreeNode<String,Integer> b = new MutableTreeNode<>("B", 2);
+		root.add(a);
+		root.add(b);
+		a.add(new MutableTreeNode<>("C", 3));
+		a.add(new MutableTreeNode<>("D", null));
+		TreeIndex<String,Integer,Boolean> even = TreeIndex.hashIndex(a, v -> v % 2 == 0);
+		Assert.assertEquals(4, even.size());
+		Assert.assertEquals("RB", keys(even.get(true)));
+		Assert.assertEquals("AC", keys(even.get(false)));
+
+		a.setUserObject(4);
+		Assert.assertEquals("RBA", keys(even.get(true)));
+		b.add(new MutableTreeNode<>("E", 6));
+		Assert.assertEquals("RBAE", keys(even.get(true)));
+		b.add(a);                                            // move
+		Assert.assertEquals("RBEA", keys(even.get(true)));
+		Assert.assertEquals("E", keys(even.get(true, b.getChildAt(0))));
+		Assert.assertEquals("BEA", keys(even.get(true, b)));
+		root.remove(b);
+		Assert.assertEquals("R", keys(even.get(true)));
+		Assert.assertEquals(1, even.size());
+		b.setUserObject(8);                                  // detached, not indexed
+		Assert.assertEquals("R", keys(even.get(true)));
+		root.add(b);
+		Assert.assertEquals(5, even.size());
+		Assert.assertEquals("RBEA", keys(even.get(true)));
+		Assert.assertEquals("A", keys(even.get(true, a)));
+
+		even.close();
+		root.add(new MutableTreeNode<>("F", 10));
+		Assert.assertEquals(5, even.size());
+	}
+
+	@Test
+	public void testSortedIndex() {
+		MutableTreeNode<String,Integer> root = new MutableTreeNode<>("R", 50);
+		for (String key : Arrays.asList("A", "B", "C")) {
+			MutableTreeNode<String,Integer> child = new MutableTreeNode<>(key, key.charAt(0) - 'A');
+			root.add(child);
+			for (int i = 0; i < 3; i++) {
+				child.add(new MutableTreeNode<>(key + i, (key.charAt(0) - 'A') * 10 + i));
+			}
+		}
+		TreeIndex<String,Integer,Integer> values = TreeIndex.sortedIndex(root, v -> v);
+		Assert.assertEquals(13, values.size());
+		Assert.assertEquals("AA0A1BA2C", keys(values.range(0, true, 3, false)));
+		Assert.assertEquals("B1B2C0", keys(values.range(11, true, 21, false)));
+		MutableTreeNode<String,Integer> c = root.getChild("C");
+		Assert.assertEquals("C0", keys(values.range(11, true, 21, false, c)));
+		c.add(root.getChild("B").getChildAt(2));             // move B2 under C
+		Assert.assertEquals("B2C0", keys(values.range(11, true, 21, false, c)));
+		Assert.assertEquals("C2R", keys(values.range(21, false, 50, true)));
+
+		TreeIndex<String,Integer,Integer> hash = TreeIndex.hashIndex(root, v -> v);
+		try {
+			hash.range(0, true, 1, true);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			values.get(0, new MutableTreeNode<>("X", 0));
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
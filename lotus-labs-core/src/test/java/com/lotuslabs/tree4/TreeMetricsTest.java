@@ -0,0 +1,122 @@
+package com.lotuslabs.tree4;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.lotuslabs.tree4.TreeMetrics.Operation;
+
+@RunWith(JUnit4.class)
+public class TreeMetricsTest {
+
+	private static MutableTreeNode<String,Integer> tree() {
+		MutableTreeNode<String,Integer> root = new MutableTreeNode<>("root", 0);
+		for (int i = 0; i < 3; i++) {
+			MutableTreeNode<String,Integer> child = new MutableTreeNode<>("c" + i, i);
+			root.add(child);
+			for (int j = 0; j < 3; j++) {
+				child.add(new MutableTreeNode<>("c" + i + "." + j, j));
+			}
+		}
+		return root;
+	}
+
+	@After
+	public void tearDown() {
+		TreeMetrics.disable();
+	}
+
+	@Test
+	public void testCounts() {
+		MutableTreeNode<String,Integer> root = tree();
+		List<Operation> timed = new ArrayList<>();
+		TreeMetrics metrics = TreeMetrics.enable(1, (operation, nodes, nanos) -> timed.add(operation));
+		Assert.assertSame(metrics, TreeMetrics.active());
+
+		Assert.assertEquals("c2.2", root.find("c2.2").getKey());
+		Assert.assertEquals(1, metrics.count(Operation.FIND));
+		Assert.assertEquals(13, metrics.nodesVisited(Operation.FIND));
+		Assert.assertEquals(1, metrics.count(Operation.ENUMERATION));
+
+		Assert.assertNotNull(root.get(new TreePath<>(new String[] {"root", "c1", "c1.0"})));
+		Assert.assertNull(root.get(new TreePath<>(new String[] {"other", "c1"})));
+		Assert.assertEquals(2, metrics.count(Operation.GET));
+		Assert.assertEquals(3 + 1, metrics.nodesVisited(Operation.GET));
+
+		MutableTreeNode<String,Integer> c0 = root.getChildAt(0);
+		c0.add(new MutableTreeNode<>("c0.3", 3));
+		c0.remove(0);
+		c0.setUserObject(7);
+		Assert.assertEquals(3, metrics.count(Operation.MUTATION));
+
+		Assert.assertEquals(13, root.totalCount());
+		Assert.assertEquals(1, metrics.count(Operation.REBUILD));
+		Assert.assertEquals(4, metrics.nodesVisited(Operation.REBUILD));
+		root.totalCount();
+		Assert.assertEquals(1, metrics.count(Operation.REBUILD));
+
+		Assert.assertEquals(metrics.count(Operation.FIND), metrics.sampled(Operation.FIND));
+		long[] histogram = metrics.latencies(Operation.FIND);
+		long sum = 0;
+		for (long n : histogram) {
+			sum += n;
+		}
+		Assert.assertEquals(1, sum);
+		Assert.assertTrue(metrics.latencyPercentile(Operation.FIND, 99) > 0);
+		Assert.assertEquals(8, timed.size());
+		Assert.assertEquals(Operation.ENUMERATION, timed.get(0));
+		Assert.assertEquals(Operation.FIND, timed.get(1));
+
+		metrics.reset();
+		Assert.assertEquals(0, metrics.count(Operation.FIND));
+		Assert.assertTrue(Double.isNaN(metrics.meanNodesVisited(Operation.FIND)));
+	}
+
+	@Test
+	public void testDisabled() {
+		TreeMetrics metrics = TreeMetrics.enable();
+		TreeMetrics.disable();
+		Assert.assertNull(TreeMetrics.active());
+		MutableTreeNode<String,Integer> root = tree();
+		root.find("c1");
+		Iterator<MutableTreeNode<String,Integer>> iter = root.preOrderEnumeration();
+		iter.next();
+		for (Operation operation : Operation.values()) {
+			Assert.assertEquals(0, metrics.count(operation));
+		}
+	}
+
+	@Test
+	public void testSampling() {
+		TreeMetrics metrics = TreeMetrics.enable(8, null);
+		MutableTreeNode<String,Integer> root = tree();
+		for (int i = 0; i < 10000; i++) {
+			root.find("c0");
+		}
+		Assert.assertEquals(10000, metrics.count(Operation.FIND));
+		Assert.assertEquals(2.0, metrics.meanNodesVisited(Operation.FIND), 0);
+		long sampled = metrics.sampled(Operation.FIND);
+		Assert.assertTrue(sampled > 800 && sampled < 1800);
+	}
+
+	@Test
+	public void testIndexRebuild() {
+		MutableTreeNode<String,Integer> root = tree();
+		TreeIndex<String,Integer,Integer> index = TreeIndex.hashIndex(root, v -> v);
+		TreeMetrics metrics = TreeMetrics.enable(1, null);
+		Assert.assertEquals(1, index.get(2, root.getChildAt(1)).size());
+		Assert.assertEquals(1, metrics.count(Operation.REBUILD));
+		Assert.assertEquals(13, metrics.nodesVisited(Operation.REBUILD));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadSampleInterval() {
+		TreeMetrics.enable(0, null);
+	}
+}
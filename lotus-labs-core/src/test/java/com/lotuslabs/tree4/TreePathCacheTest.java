@@ -0,0 +1,68 @@
+package com.lotuslabs.tree4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TreePathCacheTest {
+
+	private static TreePath<String> path(String... keys) {
+		return new TreePath<>(keys);
+	}
+
+	@Test
+	public void testInvalidation() {
+		MutableTreeNode<String,Integer> root = new MutableTreeNode<>("R", 0);
+		MutableTreeNode<String,Integer> a = new MutableTreeNode<>("A", 1);
+		MutableTreeNode<String,Integer> b = new MutableTreeNode<>("B", 2);
+		MutableTreeNode<String,Integer> c = new MutableTreeNode<>("C", 3);
+		root.add(a);
+		root.add(b);
+		a.add(c);
+		TreePathCache<String,Integer> cache = new TreePathCache<>(root, 16);
+
+		Assert.assertSame(c, cache.get(path("R", "A", "C")));
+		Assert.assertSame(c, cache.get(path("R", "A", "C")));
+		Assert.assertEquals(path("R", "A", "C"), cache.getTreePath(c));
+		Assert.assertEquals(path("R", "B"), cache.getTreePath(b));
+		Assert.assertSame(b, cache.get(path("R", "B")));
+		Assert.assertEquals(3, cache.hitCount());
+		Assert.assertEquals(2, cache.missCount());
+
+		b.add(a);                                   // moves the subtree of A only
+		Assert.assertEquals(path("R", "B"), cache.getTreePath(b));
+		Assert.assertEquals(4, cache.hitCount());
+		Assert.assertEquals(path("R", "B", "A", "C"), cache.getTreePath(c));
+		Assert.assertNull(cache.get(path("R", "A", "C")));
+		Assert.assertSame(c, cache.get(path("R", "B", "A", "C")));
+		Assert.assertEquals(5, cache.hitCount());
+
+		root.remove(b);
+		Assert.assertNull(cache.get(path("R", "B")));
+		Assert.assertEquals(path("B", "A", "C"), cache.getTreePath(c));
+		root.add(b);
+		Assert.assertSame(c, cache.get(path("R", "B", "A", "C")));
+		Assert.assertEquals(path("R", "B", "A", "C"), cache.getTreePath(c));
+		Assert.assertEquals(6, cache.hitCount());
+	}
+
+	@Test
+	public void testEviction() {
+		MutableTreeNode<String,Integer> root = new MutableTreeNode<>("R", 0);
+		for (int i = 0; i < 10; i++) {
+			root.add(new MutableTreeNode<>("N" + i, i));
+		}
+		TreePathCache<String,Integer> cache = new TreePathCache<>(root, 4);
+		for (int i = 0; i < 10; i++) {
+			cache.get(path("R", "N" + i));
+		}
+		cache.get(path("R", "N9"));
+		cache.get(path("R", "N6"));
+		Assert.assertEquals(2, cache.hitCount());
+		cache.get(path("R", "N0"));
+		Assert.assertEquals(2, cache.hitCount());
+		Assert.assertEquals(11, cache.missCount());
+	}
+}
@@ -0,0 +1,103 @@
+package com.lotuslabs.tree4;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import tech.tablesaw.api.DoubleColumn;
+import tech.tablesaw.api.IntColumn;
+import tech.tablesaw.api.Table;
+
+@RunWith(JUnit4.class)
+public class TreeRollupsTest {
+
+	@Test
+	public void testRollup() {
+		MutableTreeNode<String,Integer> root = new MutableTreeNode<>("R", null);
+		MutableTreeNode<String,Integer> a = new MutableTreeNode<>("A", null);
+		MutableTreeNode<String,Integer> b = new MutableTreeNode<>("B", null);
+		root.add(a);
+		root.add(b);
+		a.add(new MutableTreeNode<>("C", 3));
+		a.add(new MutableTreeNode<>("D", 5));
+		b.add(new MutableTreeNode<>("E", 4));
+		Table tree = TreeTables.toTable(root, "t");         // R A C D B E
+
+		DoubleColumn metric = new DoubleColumn("m", new double[] {
+				DoubleColumn.MISSING_VALUE, 1, 3, 5, DoubleColumn.MISSING_VALUE, 4});
+		Table rollup = TreeRollups.rollup(tree, metric);
+		Assert.assertEquals(6, rollup.rowCount());
+		DoubleColumn sums = (DoubleColumn) rollup.column("m." + TreeRollups.SUM);
+		IntColumn counts = rollup.intColumn("m." + TreeRollups.COUNT);
+		DoubleColumn means = (DoubleColumn) rollup.column("m." + TreeRollups.MEAN);
+		Assert.assertEquals(13, sums.get(0), 0);
+		Assert.assertEquals(4, counts.get(0));
+		Assert.assertEquals(9, sums.get(1), 0);
+		Assert.assertEquals(3, means.get(1), 0);
+		Assert.assertEquals(4, means.get(4), 0);
+		Assert.assertEquals(1, counts.get(4));
+		Assert.assertEquals(5, sums.get(3), 0);
+		Assert.assertEquals(1, metric.get(1), 0);          // the metric is not changed
+
+		Table ints = TreeRollups.rollup(tree, new IntColumn("n", new int[] {
+				IntColumn.MISSING_VALUE, IntColumn.MISSING_VALUE, 3, 5, 0, 4}));
+		Assert.assertEquals(12, ((DoubleColumn) ints.column("n." + TreeRollups.SUM)).get(0), 0);
+		Assert.assertEquals(4, ints.intColumn("n." + TreeRollups.COUNT).get(0));
+		Assert.assertEquals(4, ((DoubleColumn) ints.column("n." + TreeRollups.MEAN)).get(1), 0);
+	}
+
+	@Test
+	public void testRollup_parallel() {
+		MutableTreeNode<Integer,Integer> root = new MutableTreeNode<>(0, null);
+		int n = 1;
+		for (int i = 0; i < 8; i++) {
+			MutableTreeNode<Integer,Integer> top = new MutableTreeNode<>(n++, null);
+			root.add(top);
+			for (int j = 0; j < 100; j++) {
+				MutableTreeNode<Integer,Integer> mid = new MutableTreeNode<>(n++, null);
+				top.add(mid);
+				for (int k = 0; k < 100; k++) {
+					mid.add(new MutableTreeNode<>(n++, null));
+				}
+			}
+		}
+		Table tree = TreeTables.toTable(root, "t");
+		double[] ones = new double[n];
+		Arrays.fill(ones, 1);
+		Table rollup = TreeRollups.rollup(tree, new DoubleColumn("m", ones), new ForkJoinPool(4));
+		IntColumn counts = rollup.intColumn("m." + TreeRollups.COUNT);
+		IntColumn sizes = tree.intColumn(TreeTables.SIZE);
+		for (int row = 0; row < n; row++) {
+			Assert.assertEquals(sizes.get(row), counts.get(row));
+		}
+		Assert.assertEquals(n, ((DoubleColumn) rollup.column("m." + TreeRollups.SUM)).get(0), 0);
+	}
+
+	@Test
+	public void testNotInPreorder() {
+		int missing = IntColumn.MISSING_VALUE;
+		int[][][] trees = {
+				{{missing, 0, 0}, {3, 0, 1}},           // a subtree of no rows
+				{{missing, 0, 0}, {3, 1, 5}},           // a subtree past the last row
+				{{missing, 0, 1, 0}, {4, 1, 1, 1}},     // a row outside its parent's subtree
+				{{missing, 0, 1, 0}, {4, 2, 2, 1}},     // a subtree running out of its parent's
+				{{missing, 0}, {1, 1}},                 // a root that is not the whole tree
+				{{missing, 0, 0}, {3, 2, 1}},           // a row whose parent is not the innermost range
+		};
+		for (int[][] t : trees) {
+			Table tree = Table.create("t",
+					new IntColumn(TreeTables.PARENT, t[0]),
+					new IntColumn(TreeTables.SIZE, t[1]));
+			try {
+				TreeRollups.rollup(tree, new DoubleColumn("m", new double[t[0].length]));
+				Assert.fail(Arrays.toString(t[1]));
+			} catch (IllegalArgumentException e) {
+				Assert.assertEquals("rows are not in preorder", e.getMessage());
+			}
+		}
+	}
+}
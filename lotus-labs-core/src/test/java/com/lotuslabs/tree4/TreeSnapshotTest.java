@@ -0,0 +1,158 @@
+package com.lotuslabs.tree4;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.lotuslabs.tree4.types.SVMutableTreeNode;
+
+@RunWith(JUnit4.class)
+public class TreeSnapshotTest {
+
+	MutableTreeNode<String,String> mutableTreeNode;
+
+	@Before
+	public void setUp() {
+		mutableTreeNode = SVMutableTreeNode.withStringValues((new String[] {
+				"H:G",
+				"F:G",
+				"G:D",
+				"E:D",
+				"A:E",
+				"B:C",
+				"C:E",
+				"D:0",
+				"Z:Y",
+				"Y:X",
+				"X:0"
+		}), null, ':');
+	}
+
+	private static String preOrder(TreeNode<String,String> node) {
+		StringBuilder actuals = new StringBuilder();
+		Iterator<TreeNode<String,String>> iter = node.preOrderEnumeration();
+		while (iter.hasNext()) {
+			actuals.append("/" + iter.next());
+		}
+		return actuals.toString();
+	}
+
+	@Test
+	public void testSnapshotIsolation() {
+		String before = preOrder(mutableTreeNode);
+		try (TreeSnapshot<String,String> snapshot = mutableTreeNode.openSnapshot()) {
+			MutableTreeNode<String,String> d = mutableTreeNode.getChildAt(0);
+			MutableTreeNode<String,String> x = mutableTreeNode.getChildAt(1);
+			x.add(d.getChildAt(0));                 // move G under X
+			d.setUserObject("D2");
+			d.add(new MutableTreeNode<>("KN", "N"));
+			mutableTreeNode.remove(x);
+
+			Assert.assertEquals(before, preOrder(snapshot));
+			Assert.assertEquals("/0/D2/E/A/C/B/N", preOrder(mutableTreeNode));
+			TreeNode<String,String> g = snapshot.get(new TreePath<>(new String[] {"K0", "KD", "KG"}));
+			Assert.assertEquals("G", g.getUserObject());
+			Assert.assertEquals("D", g.getParent().toString());
+
+			try (TreeSnapshot<String,String> later = mutableTreeNode.openSnapshot()) {
+				Assert.assertTrue(later.getVersion() > snapshot.getVersion());
+				Assert.assertEquals("/0/D2/E/A/C/B/N", preOrder(later));
+			}
+		}
+		Assert.assertNull("versions dropped after close", mutableTreeNode.listenerList().getVersions());
+	}
+
+	@Test(timeout = 10000)
+	public void testThrowingChange() throws InterruptedException {
+		MutableTreeNode<String,Integer> root = new MutableTreeNode<>("R", 0);
+		MutableTreeNode<String,Integer> a = new MutableTreeNode<>("A", 1);
+		MutableTreeNode<String,Integer> b = new MutableTreeNode<>("B", 2);
+		root.add(a);
+		root.add(b);
+		root.openSnapshot().close();
+		try {
+			root.setKeyComparator((k1, k2) -> {
+				throw new IllegalStateException("comparator");
+			});
+			Assert.fail();
+		} catch (IllegalStateException expected) {
+			// expected
+		}
+		TreeIndex.hashIndex(root, v -> {
+			if (v == 3) {
+				throw new IllegalArgumentException("extractor");
+			}
+			return v;
+		});
+		try (TreeSnapshot<String,Integer> snapshot = root.openSnapshot()) {
+			try {
+				a.setUserObject(3);
+				Assert.fail();
+			} catch (IllegalArgumentException expected) {
+				// expected
+			}
+			Thread writer = new Thread(() -> b.setUserObject(4));
+			writer.start();
+			writer.join();
+			Assert.assertEquals("/A=1/B=2", contents(snapshot));
+		}
+		Assert.assertEquals("/A=3/B=4", contents(root));
+		Assert.assertNull(root.listenerList().getVersions());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testClosedSnapshot() {
+		TreeSnapshot<String,String> snapshot = mutableTreeNode.openSnapshot();
+		snapshot.close();
+		snapshot.childCount();
+	}
+
+	private static String contents(TreeNode<String,Integer> snapshot) {
+		StringBuilder actuals = new StringBuilder();
+		Iterator<TreeNode<String,Integer>> iter = snapshot.iterator();
+		while (iter.hasNext()) {
+			TreeNode<String,Integer> node = iter.next();
+			actuals.append("/" + node.getKey() + "=" + node.getUserObject());
+		}
+		return actuals.toString();
+	}
+
+	@Test(timeout = 10000)
+	public void testConcurrentWriter() throws InterruptedException {
+		MutableTreeNode<String,Integer> root = new MutableTreeNode<>("R", 0);
+		for (int i = 0; i < 100; i++) {
+			root.add(new MutableTreeNode<>("K" + i, i));
+		}
+		root.openSnapshot().close(); // installs versioning on the writer thread
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicReference<String> failure = new AtomicReference<>();
+		Thread reader = new Thread(() -> {
+			while (!done.get()) {
+				try (TreeSnapshot<String,Integer> snapshot = root.openSnapshot()) {
+					String first = contents(snapshot);
+					Thread.yield();
+					String second = contents(snapshot);
+					if (!first.equals(second)) {
+						failure.set(first + " != " + second);
+					}
+				}
+			}
+		});
+		reader.start();
+		for (int round = 0; round < 20000; round++) {
+			MutableTreeNode<String,Integer> first = root.getFirstChild();
+			root.remove(0);
+			first.setUserObject(first.getUserObject() + 1);
+			root.add(first);
+		}
+		done.set(true);
+		reader.join();
+		Assert.assertNull(failure.get(), failure.get());
+	}
+}
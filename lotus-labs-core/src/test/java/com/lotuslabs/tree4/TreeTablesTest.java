@@ -0,0 +1,133 @@
+package com.lotuslabs.tree4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import tech.tablesaw.api.CategoryColumn;
+import tech.tablesaw.api.IntColumn;
+import tech.tablesaw.api.Table;
+
+@RunWith(JUnit4.class)
+public class TreeTablesTest {
+
+	/** the small tree, B without a user object */
+	private static MutableTreeNode<String,Integer> tree() {
+		MutableTreeNode<String,Integer> root = TestTrees.small();
+		MutableTreeNode<String,Integer> b = root.getChildAt(1);
+		b.setUserObject(null);
+		return root;
+	}
+
+	@Test
+	public void testToTable() {
+		Table table = TreeTables.toTable(tree(), "t");
+		Assert.assertEquals(6, table.rowCount());
+		IntColumn parents = table.intColumn(TreeTables.PARENT);
+		IntColumn levels = table.intColumn(TreeTables.LEVEL);
+		IntColumn sizes = table.intColumn(TreeTables.SIZE);
+		CategoryColumn keys = table.categoryColumn(TreeTables.KEY);
+		String order = "";
+		for (int row = 0; row < table.rowCount(); row++) {
+			Assert.assertEquals(row, table.intColumn(TreeTables.ID).get(row));
+			order += keys.get(row);
+		}
+		Assert.assertEquals("RACDBE", order);
+		Assert.assertEquals(IntColumn.MISSING_VALUE, parents.get(0));
+		Assert.assertEquals(1, parents.get(3));
+		Assert.assertEquals(4, parents.get(5));
+		Assert.assertEquals(2, levels.get(5));
+		Assert.assertEquals(6, sizes.get(0));
+		Assert.assertEquals(3, sizes.get(1));
+		Assert.assertEquals(2, sizes.get(4));
+		Assert.assertEquals(CategoryColumn.MISSING_VALUE, table.categoryColumn(TreeTables.VALUE).get(4));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		MutableTreeNode<String,Integer> copy = TreeTables.fromTable(TreeTables.toTable(tree(), "t"), Integer::valueOf);
+		Assert.assertEquals(6, copy.totalCount());
+		Assert.assertEquals("C", copy.getChildAt(0).getChildAt(0).getKey());
+		Assert.assertEquals(Integer.valueOf(4), copy.getChildAt(0).getChildAt(1).getUserObject());
+		Assert.assertNull(copy.getChildAt(1).getUserObject());
+		Assert.assertEquals(1, copy.getIndex(copy.getChildAt(1)));
+	}
+
+	@Test
+	public void testFromTable_anyRowOrder() {
+		Table table = Table.create("t",
+				new IntColumn(TreeTables.ID, new int[] {12, 7, 30, 5}),
+				new IntColumn(TreeTables.PARENT, new int[] {5, 5, 12, IntColumn.MISSING_VALUE}),
+				new CategoryColumn(TreeTables.KEY, new String[] {"a", "b", "c", "root"}),
+				new CategoryColumn(TreeTables.VALUE, new String[] {"1", "2", "3", "0"}));
+		MutableTreeNode<String,String> root = TreeTables.fromTable(table);
+		Assert.assertEquals("root", root.getKey());
+		Assert.assertEquals("a", root.getChildAt(0).getKey());
+		Assert.assertEquals("b", root.getChildAt(1).getKey());
+		Assert.assertEquals("3", root.getChildAt(0).getChildAt(0).getUserObject());
+		Assert.assertEquals(4, root.totalCount());
+	}
+
+	@Test
+	public void testFromTable_sparseIds() {
+		// ids that differ in their high bits only, negative ones included
+		int count = 1000;
+		int[] ids = new int[count];
+		int[] parents = new int[count];
+		String[] keys = new String[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = (i - count / 2) << 16;
+			parents[i] = i == 0 ? IntColumn.MISSING_VALUE : ids[i - 1];
+			keys[i] = "k" + i;
+		}
+		MutableTreeNode<String,String> root = TreeTables.fromTable(Table.create("t",
+				new IntColumn(TreeTables.ID, ids),
+				new IntColumn(TreeTables.PARENT, parents),
+				new CategoryColumn(TreeTables.KEY, keys),
+				new CategoryColumn(TreeTables.VALUE, keys)));
+		Assert.assertEquals(count, root.totalCount());
+		Assert.assertEquals(count - 1, root.getDepth());
+		Assert.assertEquals("k1", root.getFirstChild().getKey());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFromTable_cycle() {
+		Table table = Table.create("t",
+				new IntColumn(TreeTables.ID, new int[] {0, 1, 2}),
+				new IntColumn(TreeTables.PARENT, new int[] {IntColumn.MISSING_VALUE, 2, 1}),
+				new CategoryColumn(TreeTables.KEY, new String[] {"r", "a", "b"}),
+				new CategoryColumn(TreeTables.VALUE, new String[] {"0", "1", "2"}));
+		TreeTables.fromTable(table);
+	}
+
+	@Test
+	public void testFromTable_badIds() {
+		int[][] idSets = {{0, 1, 1}, {10, 20, 20}};
+		for (int[] ids : idSets) {
+			try {
+				TreeTables.fromTable(Table.create("t",
+						new IntColumn(TreeTables.ID, ids),
+						new IntColumn(TreeTables.PARENT, new int[] {IntColumn.MISSING_VALUE, ids[0], ids[0]}),
+						new CategoryColumn(TreeTables.KEY, new String[] {"r", "a", "b"}),
+						new CategoryColumn(TreeTables.VALUE, new String[] {"0", "1", "2"})));
+				Assert.fail("duplicate id " + ids[2]);
+			} catch (IllegalArgumentException e) {
+				Assert.assertEquals("duplicate id", e.getMessage());
+			}
+		}
+		int[][] unknownParents = {{0, 1, 5}, {10, 20, 30}};
+		for (int[] ids : unknownParents) {
+			try {
+				TreeTables.fromTable(Table.create("t",
+						new IntColumn(TreeTables.ID, new int[] {ids[0], ids[1]}),
+						new IntColumn(TreeTables.PARENT, new int[] {IntColumn.MISSING_VALUE, ids[2]}),
+						new CategoryColumn(TreeTables.KEY, new String[] {"r", "a"}),
+						new CategoryColumn(TreeTables.VALUE, new String[] {"0", "1"})));
+				Assert.fail("unknown parent " + ids[2]);
+			} catch (IllegalArgumentException e) {
+				Assert.assertEquals("unknown parent", e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.lotuslabs.tree4;
+
+import java.util.Iterator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TreeViewTest {
+
+	private static <V> String contents(TreeNode<String,V> node) {
+		StringBuilder actuals = new StringBuilder();
+		Iterator<TreeNode<String,V>> iter = node.preOrderEnumeration();
+		while (iter.hasNext()) {
+			TreeNode<String,V> next = iter.next();
+			TreeNode<String,V> parent = next.getParent();
+			actuals.append("/" + next.getKey() + "=" + next.getUserObject() + ":" + next.getLevel()
+					+ "@" + (parent == null ? -1 : parent.getIndex(next)));
+		}
+		return actuals.toString();
+	}
+
+	private static MutableTreeNode<String,Integer> tree() {
+		MutableTreeNode<String,Integer> root = new MutableTreeNode<>("R", 0);
+		MutableTreeNode<String,Integer> a = new MutableTreeNode<>("A", 1);
+		MutableTreeNode<String,Integer> b = new MutableTreeNode<>("B", -2);
+		MutableTreeNode<String,Integer> c = new MutableTreeNode<>("C", 3);
+		root.add(a);
+		root.add(b);
+		root.add(c);
+		a.add(new MutableTreeNode<>("A1", -11));
+		a.add(new MutableTreeNode<>("A2", 12));
+		b.add(new MutableTreeNode<>("B1", 21));
+		c.add(new MutableTreeNode<>("C1", 31));
+		return root;
+	}
+
+	@Test
+	public void testFiltered() {
+		MutableTreeNode<String,Integer> root = tree();
+		TreeView<String,Integer,Integer> view = TreeView.filtered(root, n -> n.getUserObject() >= 0);
+		Assert.assertEquals("/R=0:0@-1/A=1:1@0/A2=12:2@0/C=3:1@1/C1=31:2@0", contents(view));
+		Assert.assertEquals(2, view.childCount());
+		Assert.assertEquals("C", view.getChildAt(1).getKey());
+		Assert.assertNull(view.find("B1"));
+		Assert.assertEquals("A2", view.get(new TreePath<>(new String[] {"R", "A", "A2"})).getKey());
+		Assert.assertEquals(5, view.totalCount());
+
+		root.<MutableTreeNode<String,Integer>>getChildAt(1).setUserObject(2);                // shows through
+		Assert.assertEquals(3, view.childCount());
+		Assert.assertEquals("B1", view.find("B1").getKey());
+	}
+
+	@Test
+	public void testDepthLimitedAndProjected() {
+		MutableTreeNode<String,Integer> root = tree();
+		Assert.assertEquals("/R=0:0@-1/A=1:1@0/B=-2:1@1/C=3:1@2", contents(TreeView.depthLimited(root, 1)));
+		Assert.assertEquals("/R=0:0@-1", contents(TreeView.depthLimited(root, 0)));
+		TreeView<String,Integer,String> hex = TreeView.projected(root.getChildAt(0), Integer::toHexString);
+		Assert.assertEquals("/A=1:0@-1/A1=fffffff5:1@0/A2=c:1@1", contents(hex));
+		TreeView<String,Integer,String> both = TreeView.of(root, n -> !n.getKey().startsWith("B"), 1, v -> "v" + v);
+		Assert.assertEquals("/R=v0:0@-1/A=v1:1@0/C=v3:1@1", contents(both));
+		Assert.assertEquals("/R=v0:0@-1/A=v1:1@0/C=v3:1@1", contents(TreeView.projected(both, v -> v)));
+	}
+
+	@Test
+	public void testMemoized() {
+		MutableTreeNode<String,Integer> root = tree();
+		int[] tests = new int[1];
+		try (TreeView<String,Integer,Integer> view = TreeView.filtered(root, n -> {
+			tests[0]++;
+			return n.getUserObject() >= 0;
+		}).memoized()) {
+			Assert.assertEquals("/R=0:0@-1/A=1:1@0/A2=12:2@0/C=3:1@1/C1=31:2@0", contents(view));
+			int first = tests[0];
+			Assert.assertEquals("/R=0:0@-1/A=1:1@0/A2=12:2@0/C=3:1@1/C1=31:2@0", contents(view));
+			Assert.assertEquals(first + 6, tests[0]);          // the enumeration itself still tests
+			tests[0] = 0;
+			view.getChildAt(1);
+			view.childCount();
+			view.getIndex(view.getChildAt(0));
+			Assert.assertEquals(0, tests[0]);
+
+			root.<MutableTreeNode<String,Integer>>getChildAt(1).setUserObject(2);
+			Assert.assertEquals(3, view.childCount());
+			Assert.assertEquals(3, tests[0]);
+		}
+		Assert.assertEquals(0, root.getTreeListeners().length);
+	}
+}
@@ -0,0 +1,96 @@
+package com.lotuslabs.tree4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.lotuslabs.tree4.TreeVisitor.VisitResult;
+
+@RunWith(JUnit4.class)
+public class TreeVisitorTest {
+
+	/** records the walk; the result of each callback comes from the key */
+	private static final class Recorder<T extends TreeNode<String,Integer>> implements TreeVisitor<T> {
+		final StringBuilder trace = new StringBuilder();
+
+		@Override
+		public VisitResult enter(T node) {
+			trace.append('+').append(node.getKey());
+			return node.getKey().endsWith("x") ? VisitResult.SKIP_SUBTREE
+					: node.getKey().endsWith("s") ? VisitResult.SKIP_SIBLINGS
+					: node.getKey().endsWith("t") ? VisitResult.TERMINATE
+					: VisitResult.CONTINUE;
+		}
+
+		@Override
+		public VisitResult leave(T node) {
+			trace.append('-').append(node.getKey());
+			return node.getKey().endsWith("l") ? VisitResult.SKIP_SIBLINGS : VisitResult.CONTINUE;
+		}
+	}
+
+	@SafeVarargs
+	private static MutableTreeNode<String,Integer> node(String key, MutableTreeNode<String,Integer>... children) {
+		MutableTreeNode<String,Integer> node = new MutableTreeNode<>(key, 0);
+		for (MutableTreeNode<String,Integer> child : children) {
+			node.add(child);
+		}
+		return node;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String walk(MutableTreeNode<String,Integer> root, String expected) {
+		Recorder<MutableTreeNode<String,Integer>> direct = new Recorder<>();
+		MutableTreeNode<String,Integer> stop = root.walk(direct);
+		Recorder<TreeView<String,Integer,Integer>> viewed = new Recorder<>();
+		TreeView<String,Integer,Integer> viewStop = TreeView.depthLimited(root, Integer.MAX_VALUE).walk(viewed);
+		Assert.assertEquals(expected, direct.trace.toString());
+		Assert.assertEquals(expected, viewed.trace.toString());
+		Assert.assertEquals(stop == null ? null : stop.getKey(), viewStop == null ? null : viewStop.getKey());
+		return stop == null ? null : stop.getKey();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testWalk() {
+		Assert.assertNull(walk(node("R", node("A", node("A1"), node("A2")), node("B")),
+				"+R+A+A1-A1+A2-A2-A+B-B-R"));
+		Assert.assertNull(walk(node("R", node("Ax", node("A1")), node("B")),
+				"+R+Ax+B-B-R"));
+		Assert.assertNull(walk(node("R", node("A", node("A1s"), node("A2")), node("B")),
+				"+R+A+A1s-A+B-B-R"));
+		Assert.assertNull(walk(node("R", node("Al", node("A1")), node("B")),
+				"+R+Al+A1-A1-Al-R"));
+		Assert.assertEquals("A2t", walk(node("R", node("A", node("A1"), node("A2t")), node("B")),
+				"+R+A+A1-A1+A2t"));
+		Assert.assertNull(walk(node("Rx", node("A")), "+Rx"));
+	}
+
+	@Test
+	public void testDeepWalk() {
+		MutableTreeNode<String,Integer> chain = new MutableTreeNode<>("K99999", 1);
+		for (int i = 99998; i >= 0; i--) {
+			MutableTreeNode<String,Integer> parent = new MutableTreeNode<>("K" + i, 1);
+			parent.add(chain);
+			chain = parent;
+		}
+		int[] sums = new int[2];
+		Assert.assertNull(chain.walk(new TreeVisitor<MutableTreeNode<String,Integer>>() {
+			@Override
+			public VisitResult enter(MutableTreeNode<String,Integer> node) {
+				sums[0] += node.getUserObject();
+				return VisitResult.CONTINUE;
+			}
+
+			@Override
+			public VisitResult leave(MutableTreeNode<String,Integer> node) {
+				sums[1] += node.getUserObject();
+				return VisitResult.CONTINUE;
+			}
+		}));
+		Assert.assertEquals(100000, sums[0]);
+		Assert.assertEquals(100000, sums[1]);
+		Assert.assertEquals("K500", chain.walk(node -> "K500".equals(node.getKey()) ? VisitResult.TERMINATE : VisitResult.CONTINUE).getKey());
+	}
+}
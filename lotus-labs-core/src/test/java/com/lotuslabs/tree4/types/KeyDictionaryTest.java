@@ -0,0 +1,64 @@
+package com.lotuslabs.tree4.types;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.lotuslabs.tree4.TreeNode;
+import com.lotuslabs.tree4.TreePath;
+
+@RunWith(JUnit4.class)
+public class KeyDictionaryTest {
+
+	@Test
+	public void testSharedKeys() {
+		KeyDictionary dictionary = new KeyDictionary();
+		SVMutableTreeNode<String> root = SVMutableTreeNode.withPaths(new String[] {
+				"data/orders/2024/01",
+				"data/orders/2024/02",
+				"data/returns/2024/01",
+				"data/returns/2023/01"
+		}, '/', dictionary);
+		Assert.assertEquals(7, dictionary.size());
+
+		TreeNode<String,String> orders = root.getChild("orders").getChild("2024").getChild("01");
+		TreeNode<String,String> returns = root.getChild("returns").getChild("2024").getChild("01");
+		Assert.assertNotSame(orders, returns);
+		Assert.assertSame(orders.getKey(), returns.getKey());
+		Assert.assertSame(orders.getParent().getKey(), returns.getParent().getKey());
+		Assert.assertSame(dictionary.intern(new String("2024")), orders.getParent().getKey());
+	}
+
+	@Test
+	public void testCodedPaths() throws IOException, ClassNotFoundException {
+		KeyDictionary dictionary = new KeyDictionary();
+		CodedTreePath path = dictionary.path("a", "b", "c");
+		Assert.assertEquals(dictionary.code("b"), path.getCode(1));
+		Assert.assertEquals(path, dictionary.path("a", "b").pathByAddingChild("c"));
+		Assert.assertEquals(path, new TreePath<>(new String[] {"a", "b", "c"}));
+		Assert.assertEquals(new TreePath<>(new String[] {"a", "b", "c"}), path);
+		Assert.assertEquals(path.hashCode(), new TreePath<>(new String[] {"a", "b", "c"}).hashCode());
+		Assert.assertNotEquals(path, dictionary.path("a", "b", "d"));
+		Assert.assertTrue(path.getParentPath().isDescendant(path));
+		Assert.assertFalse(path.isDescendant(path.getParentPath()));
+		Assert.assertEquals("[a, b, c]", path.toString());
+		Assert.assertEquals(-1, dictionary.codeOf("z"));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(path);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			Object read = in.readObject();
+			Assert.assertEquals(TreePath.class, read.getClass());
+			Assert.assertEquals(read, path);
+		}
+	}
+}